@@ -37,7 +37,7 @@ public class AppContext {
     RUN = new AppContext(
         new FileReadingProjectContextFactory(),
         ui,
-        new SystemCommandRunner(),
+        new BufferingCommandRunner(),
         new SystemFileSystem(ui));
   }
 
@@ -0,0 +1,217 @@
+// Copyright 2011 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.NullOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link CommandRunner} that drains stdout and stderr of the child process concurrently with
+ * blocking reads into growable byte buffers, and returns as soon as the process exits.
+ *
+ * <p>Unlike {@link SystemCommandRunner}, this never polls or sleeps, so a short command costs
+ * only its own run time. Commands may be given a timeout, after which the process is killed.
+ */
+public class BufferingCommandRunner implements CommandRunner {
+
+  /** Timeout value meaning "wait for the process as long as it takes". */
+  public static final long NO_TIMEOUT = 0;
+
+  /** Threads draining stderr while the calling thread drains stdout. */
+  private static final ExecutorService DRAINERS = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("moe-stream-drainer-%d").build());
+
+  /** Kills processes that outlive their timeout. */
+  private static final ScheduledExecutorService WATCHDOG = Executors.newScheduledThreadPool(
+      1, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("moe-command-watchdog").build());
+
+  private final long defaultTimeoutMillis;
+
+  public BufferingCommandRunner() {
+    this(NO_TIMEOUT);
+  }
+
+  /**
+   * @param defaultTimeoutMillis  the timeout applied by {@link #runCommand(String, List, String)},
+   *                              or {@link #NO_TIMEOUT}
+   */
+  public BufferingCommandRunner(long defaultTimeoutMillis) {
+    Preconditions.checkArgument(defaultTimeoutMillis >= 0, "Negative timeout");
+    this.defaultTimeoutMillis = defaultTimeoutMillis;
+  }
+
+  @Override
+  public String runCommand(String cmd, List<String> args, String workingDirectory)
+      throws CommandException {
+    return runCommand(cmd, args, workingDirectory, defaultTimeoutMillis);
+  }
+
+  /**
+   * Runs a command, killing it if it runs longer than the given timeout.
+   *
+   * @param timeoutMillis  the maximum run time in milliseconds, or {@link #NO_TIMEOUT}
+   * @throws MoeProblem  if the command timed out
+   * @see CommandRunner#runCommand(String, List, String)
+   */
+  public String runCommand(
+      String cmd, List<String> args, String workingDirectory, long timeoutMillis)
+      throws CommandException {
+    Result<ByteArrayOutputStream> result =
+        run(cmd, args, workingDirectory, timeoutMillis, BUFFER_OUTPUT);
+    String stdoutData = result.value.toString();
+    if (result.returnStatus == 0) {
+      return stdoutData;
+    }
+    throw new CommandException(cmd, args, stdoutData, result.stderr, result.returnStatus);
+  }
+
+  @Override
+  public <T> T runCommandStreaming(
+      String cmd, List<String> args, String workingDirectory, OutputHandler<T> handler)
+      throws CommandException {
+    Result<T> result = run(cmd, args, workingDirectory, defaultTimeoutMillis, handler);
+    if (result.returnStatus == 0) {
+      return result.value;
+    }
+    throw new CommandException(cmd, args, "", result.stderr, result.returnStatus);
+  }
+
+  private static final OutputHandler<ByteArrayOutputStream> BUFFER_OUTPUT =
+      new OutputHandler<ByteArrayOutputStream>() {
+        @Override public ByteArrayOutputStream handleOutput(InputStream stdout)
+            throws IOException {
+          return drain(stdout);
+        }
+      };
+
+  /** The outcome of a finished process. */
+  private static class Result<T> {
+    final T value;
+    final String stderr;
+    final int returnStatus;
+
+    Result(T value, String stderr, int returnStatus) {
+      this.value = value;
+      this.stderr = stderr;
+      this.returnStatus = returnStatus;
+    }
+  }
+
+  private <T> Result<T> run(String cmd, List<String> args, String workingDirectory,
+      long timeoutMillis, OutputHandler<T> handler) {
+    ImmutableList<String> cmdArgs = new ImmutableList.Builder<String>().add(cmd).
+        addAll(args).build();
+
+    if (AppContext.RUN != null) {
+      AppContext.RUN.ui.debug(
+          workingDirectory + "$ " + Joiner.on(" ").join(cmdArgs));
+    }
+
+    ProcessBuilder pb = new ProcessBuilder(cmdArgs);
+    if (workingDirectory != null && !workingDirectory.isEmpty()) {
+      pb.directory(new File(workingDirectory));
+    }
+
+    final Process p;
+    try {
+      p = pb.start();
+    } catch (IOException e) {
+      throw new MoeProblem(String.format("Cannot run process: %s", e.getMessage()));
+    }
+
+    final AtomicBoolean timedOut = new AtomicBoolean(false);
+    ScheduledFuture<?> watchdog = null;
+    if (timeoutMillis != NO_TIMEOUT) {
+      watchdog = WATCHDOG.schedule(new Runnable() {
+        @Override public void run() {
+          timedOut.set(true);
+          p.destroy();
+        }
+      }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    T value;
+    int returnStatus;
+    String stderrData;
+    try {
+      p.getOutputStream().close();
+      // Both streams must be read at the same time, or the child can fill one pipe and block
+      // while we wait on the other. Stderr is drained on a pooled thread, stdout on this one.
+      final InputStream stderr = p.getErrorStream();
+      Future<ByteArrayOutputStream> stderrFuture = DRAINERS.submit(
+          new Callable<ByteArrayOutputStream>() {
+            @Override public ByteArrayOutputStream call() throws IOException {
+              try {
+                return drain(stderr);
+              } finally {
+                stderr.close();
+              }
+            }
+          });
+      InputStream stdout = p.getInputStream();
+      try {
+        value = handler.handleOutput(stdout);
+        // Let the process run to completion even if the handler stopped reading early.
+        ByteStreams.copy(stdout, new NullOutputStream());
+      } finally {
+        stdout.close();
+      }
+      returnStatus = p.waitFor();
+      stderrData = stderrFuture.get().toString();
+    } catch (IOException e) {
+      p.destroy();
+      if (timedOut.get()) {
+        throw timeoutProblem(timeoutMillis, cmdArgs);
+      }
+      throw new MoeProblem(e, "Cannot read output of process: %s", cmdArgs);
+    } catch (InterruptedException e) {
+      p.destroy();
+      throw new MoeProblem(String.format("Interrupted while running process: %s", cmdArgs));
+    } catch (ExecutionException e) {
+      p.destroy();
+      throw new MoeProblem(e.getCause(), "Cannot read stderr of process: %s", cmdArgs);
+    } finally {
+      if (watchdog != null) {
+        watchdog.cancel(false);
+      }
+    }
+
+    if (timedOut.get()) {
+      throw timeoutProblem(timeoutMillis, cmdArgs);
+    }
+    return new Result<T>(value, stderrData, returnStatus);
+  }
+
+  private static MoeProblem timeoutProblem(long timeoutMillis, List<String> cmdArgs) {
+    return new MoeProblem(String.format(
+        "Process timed out after %d ms: %s", timeoutMillis, Joiner.on(" ").join(cmdArgs)));
+  }
+
+  /**
+   * Reads the stream until EOF into a buffer.
+   */
+  private static ByteArrayOutputStream drain(InputStream stream) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    ByteStreams.copy(stream, buffer);
+    return buffer;
+  }
+}
@@ -2,6 +2,8 @@
 
 package com.google.devtools.moe.client;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.List;
 
@@ -46,4 +48,33 @@ public interface CommandRunner {
   String runCommand(String cmd, List<String> args, String workingDirectory)
       throws CommandException;
 
+  /**
+   * Consumes the standard output of a command as it is produced.
+   *
+   * @param <T>  the type of result computed from the output
+   */
+  public interface OutputHandler<T> {
+    /**
+     * Reads from the command's stdout and returns a result. The stream is closed by the runner;
+     * any output left unread when this returns is discarded.
+     */
+    T handleOutput(InputStream stdout) throws IOException;
+  }
+
+  /**
+   * Runs a command, passing its stdout to a handler instead of buffering it. Use this for
+   * commands whose output may be too large to hold in memory as a single String.
+   *
+   * @param cmd  the binary to invoke. If not a path, it will be resolved.
+   * @param args  the arguments to pass to the binary
+   * @param workingDirectory  the directory to run in
+   * @param handler  the consumer of the command's stdout
+   *
+   * @returns the result of the handler
+   * @throws CommandException  if the command exits non-zero. Its stdout will be empty, since the
+   *     output was given to the handler; its stderr is buffered as usual.
+   */
+  <T> T runCommandStreaming(
+      String cmd, List<String> args, String workingDirectory, OutputHandler<T> handler)
+      throws CommandException;
 }
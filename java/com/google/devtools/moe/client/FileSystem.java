@@ -4,6 +4,7 @@ package com.google.devtools.moe.client;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.Set;
 
 /**
@@ -85,6 +86,11 @@ public interface FileSystem {
    */
   public boolean isExecutable(File f);
 
+  /**
+   * Returns the file's size in bytes, or 0 if it doesn't exist.
+   */
+  public long getSize(File f);
+
   /**
    * Returns whether the file is readable
    */
@@ -139,6 +145,11 @@ public interface FileSystem {
    */
   public String fileToString(File f) throws IOException;
 
+  /**
+   * Opens f for reading characters, so that it can be read without holding it all in memory.
+   */
+  public Reader newReader(File f) throws IOException;
+
 
   /**
    * A specification of whether a temporary directory should be cleaned up on a call to
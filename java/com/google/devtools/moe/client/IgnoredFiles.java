@@ -0,0 +1,49 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the files left out of codebases by their repositories' {@code ignore_file_res}, whether
+ * skipped while extracting an archive or deleted after an export, for the report at the end of a
+ * run.
+ */
+public class IgnoredFiles {
+
+  private static final AtomicLong files = new AtomicLong();
+  private static final AtomicLong bytes = new AtomicLong();
+
+  // Do not instantiate.
+  private IgnoredFiles() {}
+
+  /**
+   * Records that one ignored file, of the given size, was left out of a codebase.
+   */
+  public static void record(long size) {
+    files.incrementAndGet();
+    bytes.addAndGet(size);
+  }
+
+  /**
+   * Reports the ignored files of this run.
+   */
+  public static void reportStatistics(Ui ui) {
+    if (files.get() > 0) {
+      ui.info(String.format("Ignored files: %d files, %d bytes left out of codebases", files.get(),
+          bytes.get()));
+    }
+  }
+
+  @VisibleForTesting
+  static long getFiles() {
+    return files.get();
+  }
+
+  @VisibleForTesting
+  static long getBytes() {
+    return bytes.get();
+  }
+}
@@ -7,6 +7,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.devtools.moe.client.directives.Directive;
 import com.google.devtools.moe.client.directives.DirectiveFactory;
+import com.google.devtools.moe.client.repositories.RevisionMetadataCache;
 import com.google.devtools.moe.client.tasks.Task;
 import com.google.devtools.moe.client.tasks.TaskType;
 import com.google.inject.Guice;
@@ -82,6 +83,8 @@ public class Moe {
     Task task = injector.getInstance(Task.class);
 
     Task.Explanation result = task.executeAtTopLevel();
+    RevisionMetadataCache.reportStatistics(AppContext.RUN.ui);
+    IgnoredFiles.reportStatistics(AppContext.RUN.ui);
     if (!Strings.isNullOrEmpty(result.message)) {
       logger.info(result.message);
       System.out.println(result.message);
@@ -122,6 +125,8 @@ public class Moe {
 
     try {
       int result = d.perform();
+      RevisionMetadataCache.reportStatistics(AppContext.RUN.ui);
+      IgnoredFiles.reportStatistics(AppContext.RUN.ui);
       Ui.Task terminateTask = AppContext.RUN.ui.pushTask(
           Ui.MOE_TERMINATION_TASK_NAME, "Final clean-up");
       AppContext.RUN.fileSystem.cleanUpTempDirs();
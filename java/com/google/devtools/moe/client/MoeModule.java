@@ -12,5 +12,7 @@ import com.google.inject.AbstractModule;
 public class MoeModule extends AbstractModule {
 
   // TODO(dbentley): make this Module matter again
-  public void configure() {}
+  public void configure() {
+    bind(CommandRunner.class).to(BufferingCommandRunner.class);
+  }
 }
@@ -97,6 +97,16 @@ public class SystemCommandRunner implements CommandRunner {
     throw new CommandException(cmd, args, stdoutData, stderrData, returnStatus);
   }
 
+  /**
+   * Streams through a {@link BufferingCommandRunner}, since a handler reading stdout with
+   * blocking reads can't share this class's polling loop.
+   */
+  @Override
+  public <T> T runCommandStreaming(
+      String cmd, List<String> args, String workingDirectory, OutputHandler<T> handler)
+      throws CommandException {
+    return new BufferingCommandRunner().runCommandStreaming(cmd, args, workingDirectory, handler);
+  }
 
   private static class Sink {
     private final List<Byte> bytes = Lists.newArrayList();
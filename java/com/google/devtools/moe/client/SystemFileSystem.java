@@ -12,6 +12,7 @@ import com.google.common.io.Resources;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
@@ -30,6 +31,7 @@ import java.util.Set;
  */
 public class SystemFileSystem implements FileSystem {
 
+  /** Guarded by this, since temp dirs are also made on the worker threads of parallel diffs. */
   private final Map<File, Lifetime> tempDirLifetimes = Maps.newHashMap();
 
   private final Ui ui;
@@ -44,7 +46,7 @@ public class SystemFileSystem implements FileSystem {
   }
 
   @Override
-  public File getTemporaryDirectory(String prefix, Lifetime lifetime) {
+  public synchronized File getTemporaryDirectory(String prefix, Lifetime lifetime) {
     File tempDir;
     try {
       tempDir = File.createTempFile("moe_" + prefix, "");
@@ -57,7 +59,7 @@ public class SystemFileSystem implements FileSystem {
   }
 
   @Override
-  public void cleanUpTempDirs() throws IOException {
+  public synchronized void cleanUpTempDirs() throws IOException {
     Iterator<Entry<File, Lifetime>> tempDirIterator = tempDirLifetimes.entrySet().iterator();
     while (tempDirIterator.hasNext()) {
       Entry<File, Lifetime> entry = tempDirIterator.next();
@@ -70,7 +72,7 @@ public class SystemFileSystem implements FileSystem {
   }
 
   @Override
-  public void setLifetime(File path, Lifetime lifetime) {
+  public synchronized void setLifetime(File path, Lifetime lifetime) {
     Preconditions.checkState(
         tempDirLifetimes.containsKey(path),
         "Trying to set the Lifetime for an unknown path: %s", path);
@@ -161,6 +163,11 @@ public class SystemFileSystem implements FileSystem {
     return exists(f) && f.canExecute();
   }
 
+  @Override
+  public long getSize(File f) {
+    return f.length();
+  }
+
   @Override
   public boolean isReadable(File f) {
     return exists(f) && f.canRead();
@@ -224,4 +231,9 @@ public class SystemFileSystem implements FileSystem {
   public String fileToString(File f) throws IOException {
       return Files.toString(f, Charsets.UTF_8);
   }
+
+  @Override
+  public Reader newReader(File f) throws IOException {
+    return Files.newReader(f, Charsets.UTF_8);
+  }
 }
@@ -0,0 +1,380 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.LimitInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Extracts tar archives in the JVM, reading them as a stream, in place of forking {@code tar xf}.
+ * This lets e.g. the output of {@code git archive} be unpacked as it is produced, without writing
+ * the tarball to disk first.
+ *
+ * <p>Reads the ustar format with the pax ('x') and GNU long name ('L', 'K') extensions, which
+ * cover what git and common tars write, optionally gzipped. Regular files, directories, symlinks
+ * and hard links are extracted with their permissions and modification times; other entries, such
+ * as devices, are skipped. Entries that would land outside the destination are rejected. A filter
+ * on relative paths keeps unwanted files from being written at all, instead of deleting them after
+ * extraction.
+ *
+ * <p>Used instead of tar unless the system property {@code moe.in_process_tar} is false.
+ */
+public class TarExtractor {
+
+  /** The system property that, set to false, makes MOE fork tar to extract tar archives. */
+  public static final String ENABLED_PROPERTY = "moe.in_process_tar";
+
+  private static final int BLOCK_SIZE = 512;
+
+  private final InputStream in;
+  private final Path destination;
+  private final Predicate<CharSequence> filter;
+  private final byte[] header = new byte[BLOCK_SIZE];
+
+  private TarExtractor(InputStream in, File destination, Predicate<CharSequence> filter) {
+    this.in = in;
+    this.destination = destination.toPath().toAbsolutePath().normalize();
+    this.filter = filter;
+  }
+
+  /**
+   * Returns whether MOE should extract tar archives in the JVM.
+   */
+  public static boolean isEnabled() {
+    return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+  }
+
+  /**
+   * Extracts a tar archive, optionally gzipped, into destination, which is created if needed.
+   */
+  public static void extract(File archive, File destination) throws IOException {
+    InputStream in = new FileInputStream(archive);
+    try {
+      extract(in, destination);
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Extracts a tar archive, optionally gzipped, read from in into destination, which is created if
+   * needed. Reads up to the end of the archive, and does not close in.
+   */
+  public static void extract(InputStream in, File destination) throws IOException {
+    extract(in, destination, Predicates.<CharSequence>alwaysTrue());
+  }
+
+  /**
+   * Extracts a tar archive, optionally gzipped, read from in into destination, which is created if
+   * needed. Files, symlinks and hard links whose paths relative to destination don't satisfy filter
+   * are skipped, and recorded in {@link IgnoredFiles}; directories are always created. Reads up to
+   * the end of the archive, and does not close in.
+   */
+  public static void extract(InputStream in, File destination, Predicate<CharSequence> filter)
+      throws IOException {
+    InputStream buffered = new BufferedInputStream(in, 64 * 1024);
+    buffered.mark(2);
+    int magic1 = buffered.read();
+    int magic2 = buffered.read();
+    buffered.reset();
+    if (magic1 == 0x1f && magic2 == 0x8b) {
+      buffered = new BufferedInputStream(new GZIPInputStream(buffered), 64 * 1024);
+    }
+    destination.mkdirs();
+    new TarExtractor(buffered, destination, filter).extractEntries();
+  }
+
+  private void extractEntries() throws IOException {
+    // Values from pax and GNU headers, which apply to the next entry only.
+    Map<String, String> pax = Maps.newHashMap();
+    String longName = null;
+    String longLink = null;
+
+    while (readHeader()) {
+      char type = (char) header[156];
+      long size = parseNumber(124, 12);
+      if (pax.containsKey("size")) {
+        size = Long.parseLong(pax.get("size"));
+      }
+
+      switch (type) {
+        case 'x':
+          pax.putAll(parsePax(readData(size)));
+          continue;
+        case 'g':
+          // Global pax headers, e.g. git's commit id comment, affect nothing extracted here.
+          readData(size);
+          continue;
+        case 'L':
+          longName = trimNul(readData(size));
+          continue;
+        case 'K':
+          longLink = trimNul(readData(size));
+          continue;
+        default:
+          break;
+      }
+
+      String name = pax.containsKey("path") ? pax.get("path")
+          : (longName != null) ? longName : headerName();
+      String linkName = pax.containsKey("linkpath") ? pax.get("linkpath")
+          : (longLink != null) ? longLink : parseString(157, 100);
+      pax.clear();
+      longName = null;
+      longLink = null;
+
+      Path target = resolve(name);
+      int mode = (int) parseNumber(100, 8);
+      long mtime = parseNumber(136, 12);
+      if (type != '5' && !filter.apply(destination.relativize(target).toString())) {
+        IgnoredFiles.record(size);
+        skipData(size);
+        continue;
+      }
+      switch (type) {
+        case '0':
+        case '\0':
+        case '7':
+          createParent(target);
+          Files.deleteIfExists(target);
+          writeFile(target, size);
+          setMode(target, mode);
+          target.toFile().setLastModified(mtime * 1000);
+          break;
+        case '5':
+          Files.createDirectories(target);
+          skipData(size);
+          break;
+        case '2':
+          createParent(target);
+          Files.deleteIfExists(target);
+          Files.createSymbolicLink(target, Paths.get(linkName));
+          skipData(size);
+          break;
+        case '1':
+          createParent(target);
+          Files.deleteIfExists(target);
+          Files.createLink(target, resolve(linkName));
+          skipData(size);
+          break;
+        default:
+          skipData(size);
+          break;
+      }
+    }
+  }
+
+  /**
+   * Reads the next header into header, returning false at the end of the archive.
+   */
+  private boolean readHeader() throws IOException {
+    int first = in.read();
+    if (first == -1) {
+      // Some writers leave out the two zero blocks that end an archive.
+      return false;
+    }
+    header[0] = (byte) first;
+    ByteStreams.readFully(in, header, 1, BLOCK_SIZE - 1);
+    boolean allZero = true;
+    for (byte b : header) {
+      if (b != 0) {
+        allZero = false;
+        break;
+      }
+    }
+    if (allZero) {
+      return false;
+    }
+
+    long checksum = 0;
+    for (int i = 0; i < BLOCK_SIZE; i++) {
+      // The checksum field itself counts as spaces.
+      checksum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xff);
+    }
+    if (checksum != parseNumber(148, 8)) {
+      throw new IOException("Bad tar header checksum; not a tar archive?");
+    }
+    return true;
+  }
+
+  /** Returns the entry's name, prefixed by the ustar prefix field if there is one. */
+  private String headerName() {
+    String name = parseString(0, 100);
+    boolean ustar = new String(header, 257, 5, Charsets.US_ASCII).equals("ustar");
+    String prefix = ustar ? parseString(345, 155) : "";
+    return prefix.isEmpty() ? name : prefix + "/" + name;
+  }
+
+  /**
+   * Returns where an entry named name goes, rejecting names that lead outside the destination.
+   */
+  private Path resolve(String name) throws IOException {
+    Path target = destination.resolve(name).normalize();
+    if (Paths.get(name).isAbsolute() || !target.startsWith(destination)) {
+      throw new IOException("Tar entry outside the destination: " + name);
+    }
+    return target;
+  }
+
+  /**
+   * Creates target's parent directory, making sure that it is really in the destination, i.e.
+   * that an earlier symlink in the archive doesn't lead out of it.
+   */
+  private void createParent(Path target) throws IOException {
+    Path parent = Files.createDirectories(target.getParent());
+    if (!parent.toRealPath().startsWith(destination.toRealPath())) {
+      throw new IOException("Tar entry outside the destination: " + target);
+    }
+  }
+
+  private void writeFile(Path target, long size) throws IOException {
+    OutputStream out = new FileOutputStream(target.toFile());
+    try {
+      ByteStreams.copy(new LimitInputStream(in, size), out);
+    } finally {
+      out.close();
+    }
+    long copied = Files.size(target);
+    if (copied != size) {
+      throw new EOFException("Tar archive ends in the middle of " + target);
+    }
+    skipPadding(size);
+  }
+
+  private void setMode(Path target, int mode) throws IOException {
+    try {
+      Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+      PosixFilePermission[] bits = PosixFilePermission.values();
+      // values() runs from OWNER_READ (0400) down to OTHERS_EXECUTE (0001).
+      for (int i = 0; i < bits.length; i++) {
+        if ((mode & (1 << (bits.length - 1 - i))) != 0) {
+          permissions.add(bits[i]);
+        }
+      }
+      Files.setPosixFilePermissions(target, permissions);
+    } catch (UnsupportedOperationException e) {
+      target.toFile().setExecutable((mode & 0111) != 0);
+    }
+  }
+
+  private byte[] readData(long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Tar header entry too large: " + size);
+    }
+    byte[] data = new byte[(int) size];
+    ByteStreams.readFully(in, data);
+    skipPadding(size);
+    return data;
+  }
+
+  private void skipData(long size) throws IOException {
+    ByteStreams.skipFully(in, size);
+    skipPadding(size);
+  }
+
+  private void skipPadding(long size) throws IOException {
+    long remainder = size % BLOCK_SIZE;
+    if (remainder != 0) {
+      ByteStreams.skipFully(in, BLOCK_SIZE - remainder);
+    }
+  }
+
+  /**
+   * Parses pax records, each of the form "length key=value\n".
+   */
+  @VisibleForTesting
+  static Map<String, String> parsePax(byte[] data) throws IOException {
+    Map<String, String> records = Maps.newHashMap();
+    int pos = 0;
+    while (pos < data.length) {
+      int space = pos;
+      while (space < data.length && data[space] != ' ') {
+        space++;
+      }
+      int length;
+      try {
+        length = Integer.parseInt(new String(data, pos, space - pos, Charsets.US_ASCII));
+      } catch (NumberFormatException e) {
+        throw new IOException("Bad pax record in tar archive");
+      }
+      if (length <= 0 || pos + length > data.length) {
+        throw new IOException("Bad pax record in tar archive");
+      }
+      // The record's value runs up to the newline that ends the record.
+      String record = new String(data, space + 1, pos + length - space - 2, Charsets.UTF_8);
+      int equals = record.indexOf('=');
+      if (equals > 0) {
+        records.put(record.substring(0, equals), record.substring(equals + 1));
+      }
+      pos += length;
+    }
+    return records;
+  }
+
+  private String parseString(int offset, int length) {
+    int end = offset;
+    while (end < offset + length && header[end] != 0) {
+      end++;
+    }
+    return new String(header, offset, end - offset, Charsets.UTF_8);
+  }
+
+  private static String trimNul(byte[] data) {
+    int end = 0;
+    while (end < data.length && data[end] != 0) {
+      end++;
+    }
+    return new String(data, 0, end, Charsets.UTF_8);
+  }
+
+  /**
+   * Parses a numeric header field: octal digits, possibly led by spaces and ended by a space or
+   * NUL, or, for values too large for that, a big-endian binary number marked by the first byte's
+   * high bit.
+   */
+  private long parseNumber(int offset, int length) throws IOException {
+    if ((header[offset] & 0x80) != 0) {
+      long value = header[offset] & 0x7f;
+      for (int i = offset + 1; i < offset + length; i++) {
+        value = (value << 8) | (header[i] & 0xff);
+      }
+      return value;
+    }
+    int i = offset;
+    int end = offset + length;
+    while (i < end && header[i] == ' ') {
+      i++;
+    }
+    long value = 0;
+    for (; i < end && header[i] != 0 && header[i] != ' '; i++) {
+      if (header[i] < '0' || header[i] > '7') {
+        throw new IOException("Bad number in tar header");
+      }
+      value = (value << 3) + (header[i] - '0');
+    }
+    return value;
+  }
+}
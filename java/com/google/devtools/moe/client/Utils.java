@@ -36,6 +36,27 @@ public class Utils {
     return ImmutableSet.copyOf(Sets.filter(c, nonMatchingPredicateFromRes(excludeRes)));
   }
 
+  /**
+   * Returns the filenames at or under any of paths, e.g. "a/b" for path "a", or all of them if
+   * paths is empty. Both filenames and paths are relative to a repository's root.
+   */
+  public static Set<String> filterByPaths(Set<String> filenames, List<String> paths) {
+    if (paths.isEmpty()) {
+      return filenames;
+    }
+    ImmutableSet.Builder<String> result = ImmutableSet.builder();
+    for (String filename : filenames) {
+      for (String path : paths) {
+        String dir = path.endsWith("/") ? path : path + "/";
+        if (filename.equals(path) || filename.startsWith(dir)) {
+          result.add(filename);
+          break;
+        }
+      }
+    }
+    return result.build();
+  }
+
   /** @return a Predicate that's true iff a CharSequence doesn't match any of the given regexes */
   public static Predicate<CharSequence> nonMatchingPredicateFromRes(List<String> excludeRes) {
     ImmutableList.Builder<Predicate<CharSequence>> rePredicateBuilder = ImmutableList.builder();
@@ -79,6 +100,7 @@ public class Utils {
     Utils.doToFiles(baseDir, new Function<File, Void>() {
       @Override public Void apply(File file) {
         if (!positiveFilter.apply(baseUri.relativize(file.toURI()).getPath())) {
+          IgnoredFiles.record(AppContext.RUN.fileSystem.getSize(file));
           try {
             AppContext.RUN.fileSystem.deleteRecursively(file);
           } catch (IOException e) {
@@ -117,6 +139,15 @@ public class Utils {
   public static File expandTar(File tar) throws IOException, CommandException {
     File expandedDir = AppContext.RUN.fileSystem.getTemporaryDirectory("expanded_tar_");
     AppContext.RUN.fileSystem.makeDirs(expandedDir);
+    if (TarExtractor.isEnabled()) {
+      try {
+        TarExtractor.extract(tar, expandedDir);
+      } catch (IOException e) {
+        AppContext.RUN.fileSystem.deleteRecursively(expandedDir);
+        throw e;
+      }
+      return expandedDir;
+    }
     try {
       AppContext.RUN.cmd.runCommand(
           "tar",
@@ -2,8 +2,10 @@
 
 package com.google.devtools.moe.client.codebase;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.SystemFileSystem;
 import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.parser.Expression;
 
@@ -23,6 +25,9 @@ public class Codebase {
   private final File path;
   private final String projectSpace;
   private final Expression expression;
+  private volatile Set<String> relativeFilenames;
+  private volatile CodebaseManifest manifest;
+  private volatile String fingerprint;
 
   /**
    * Constructs the Codebase.
@@ -64,6 +69,16 @@ public class Codebase {
     return expression;
   }
 
+  /**
+   * @return the {@link CodebaseFingerprint} of this Codebase's files, computed on first use
+   */
+  public String getFingerprint() {
+    if (fingerprint == null) {
+      fingerprint = CodebaseFingerprint.compute(path);
+    }
+    return fingerprint;
+  }
+
   @Override
   public String toString() {
     return expression.toString();
@@ -85,10 +100,32 @@ public class Codebase {
 
   /**
    * @return a Set of Strings NB: We return String's instead of File's because these are relative
-   *         and not absolute paths.
+   *         and not absolute paths. The files are listed on the first call only, since a Codebase
+   *         isn't modified once created.
    */
   public Set<String> getRelativeFilenames() {
-    return Utils.makeFilenamesRelative(AppContext.RUN.fileSystem.findFiles(path), path);
+    if (relativeFilenames == null) {
+      if (AppContext.RUN.fileSystem instanceof SystemFileSystem) {
+        // The manifest walks the same disk, so take the names from it rather than walk it twice.
+        relativeFilenames = getManifest().getRelativeFilenames();
+      } else {
+        relativeFilenames = ImmutableSet.copyOf(
+            Utils.makeFilenamesRelative(AppContext.RUN.fileSystem.findFiles(path), path));
+      }
+    }
+    return relativeFilenames;
+  }
+
+  /**
+   * @return the {@link CodebaseManifest} of this Codebase's files on disk, built on first use.
+   *         When the run's FileSystem is the disk, it also lists the Codebase's files for
+   *         {@link #getRelativeFilenames()}, so the Codebase's directory is walked once.
+   */
+  public CodebaseManifest getManifest() {
+    if (manifest == null) {
+      manifest = CodebaseManifest.scan(path);
+    }
+    return manifest;
   }
 
   /**
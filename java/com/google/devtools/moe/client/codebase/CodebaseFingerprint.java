@@ -0,0 +1,182 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.codebase;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.devtools.moe.client.MoeProblem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes a Merkle-tree fingerprint of a directory: two Codebases with the same fingerprint have
+ * the same files, with the same contents and executable bits.
+ *
+ * <p>A file's hash covers its executable bit and the SHA-1 of its contents; a directory's hash
+ * covers the sorted names and hashes of its children. Directories without files are left out, as
+ * they are by {@link com.google.devtools.moe.client.FileSystem#findFiles(File)}, so that equal
+ * fingerprints agree with an empty CodebaseDifference. Subtrees are hashed in parallel on a
+ * ForkJoinPool. Every file is read: codebases are extracted afresh into new directories, so there
+ * are no hashes from earlier runs or codebases to reuse.
+ *
+ * <p>BookkeepingLogic compares fingerprints before diffing when the system property
+ * {@code moe.codebase_fingerprints} is true. This pays off when codebases are often equal: when
+ * they differ, the diff that follows reads every file again.
+ */
+public class CodebaseFingerprint {
+
+  /** The system property that makes bookkeeping compare fingerprints before diffing. */
+  static final String ENABLED_PROPERTY = "moe.codebase_fingerprints";
+
+  private static final byte FILE = 'f';
+  private static final byte EXECUTABLE_FILE = 'x';
+  private static final byte SYMLINK = 'l';
+  private static final byte DIRECTORY = 'd';
+
+  private static final ForkJoinPool POOL = new ForkJoinPool();
+
+  private CodebaseFingerprint() {}
+
+  /**
+   * Returns whether bookkeeping should compare fingerprints before diffing.
+   */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(ENABLED_PROPERTY);
+  }
+
+  /**
+   * Returns the fingerprint of the files under directory, as a hex string.
+   */
+  public static String compute(File directory) {
+    byte[] hash = null;
+    if (directory.exists()) {
+      Path root;
+      try {
+        // Resolve a symlinked root, which HashTask would otherwise take for a file.
+        root = directory.toPath().toRealPath();
+      } catch (IOException e) {
+        throw new MoeProblem("Couldn't fingerprint " + directory + ": " + e);
+      }
+      hash = POOL.invoke(new HashTask(root));
+    }
+    if (hash == null) {
+      // No files at all.
+      hash = newDigest().digest();
+    }
+    return toHex(hash);
+  }
+
+  static String toHex(byte[] hash) {
+    return String.format("%040x", new BigInteger(1, hash));
+  }
+
+  /**
+   * Hashes one file or directory. Returns null for a directory without files.
+   */
+  @SuppressWarnings("serial")  // Never serialized.
+  private static class HashTask extends RecursiveTask<byte[]> {
+    private final Path path;
+
+    HashTask(Path path) {
+      this.path = path;
+    }
+
+    @Override
+    protected byte[] compute() {
+      try {
+        BasicFileAttributes attrs =
+            Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attrs.isDirectory()) {
+          return hashDirectory();
+        }
+        if (attrs.isSymbolicLink()) {
+          MessageDigest digest = newDigest();
+          digest.update(SYMLINK);
+          digest.update(Files.readSymbolicLink(path).toString().getBytes(Charsets.UTF_8));
+          return digest.digest();
+        }
+        MessageDigest digest = newDigest();
+        digest.update(Files.isExecutable(path) ? EXECUTABLE_FILE : FILE);
+        digest.update(hashContents(path));
+        return digest.digest();
+      } catch (IOException e) {
+        throw new MoeProblem("Couldn't fingerprint " + path + ": " + e);
+      }
+    }
+
+    private byte[] hashDirectory() throws IOException {
+      List<Path> children = Lists.newArrayList();
+      DirectoryStream<Path> stream = Files.newDirectoryStream(path);
+      try {
+        for (Path child : stream) {
+          children.add(child);
+        }
+      } finally {
+        stream.close();
+      }
+      Collections.sort(children);
+
+      List<HashTask> tasks = Lists.newArrayListWithCapacity(children.size());
+      for (Path child : children) {
+        tasks.add(new HashTask(child));
+      }
+      invokeAll(tasks);
+
+      MessageDigest digest = newDigest();
+      boolean hasFiles = false;
+      for (HashTask task : tasks) {
+        byte[] childHash = task.join();
+        if (childHash != null) {
+          hasFiles = true;
+          digest.update(task.path.getFileName().toString().getBytes(Charsets.UTF_8));
+          digest.update((byte) 0);
+          digest.update(childHash);
+        }
+      }
+      if (!hasFiles) {
+        return null;
+      }
+      digest.update(DIRECTORY);
+      return digest.digest();
+    }
+  }
+
+  /**
+   * Returns the SHA-1 of a file's contents.
+   */
+  static byte[] hashContents(Path path) throws IOException {
+    MessageDigest digest = newDigest();
+    InputStream in = Files.newInputStream(path);
+    try {
+      byte[] buffer = new byte[64 * 1024];
+      for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+        digest.update(buffer, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+    return digest.digest();
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new MoeProblem("SHA-1 is not available: " + e);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.codebase;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.devtools.moe.client.MoeProblem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The files of a Codebase on disk, with their sizes and executable bits, gathered in one walk of
+ * its directory. Content hashes are computed on first request.
+ *
+ * <p>The walk visits the same files as {@link com.google.devtools.moe.client.FileSystem#findFiles}
+ * (symbolic links are listed, not followed). Directories are listed without stat'ing their
+ * entries, and each entry is then stat'ed once, for its type, size and, on POSIX file systems,
+ * permission bits.
+ */
+public class CodebaseManifest {
+
+  /** The size and executable bit of one file. */
+  public static class Entry {
+    /** The file's size in bytes, or -1 if it is a symbolic link. */
+    public final long size;
+    public final boolean executable;
+
+    Entry(long size, boolean executable) {
+      this.size = size;
+      this.executable = executable;
+    }
+  }
+
+  private static final boolean RUNNING_AS_ROOT = isRunningAsRoot();
+
+  private final File root;
+  private final ImmutableSortedMap<String, Entry> entries;
+  private final ConcurrentMap<String, String> contentHashes = Maps.newConcurrentMap();
+
+  private CodebaseManifest(File root, ImmutableSortedMap<String, Entry> entries) {
+    this.root = root;
+    this.entries = entries;
+  }
+
+  /**
+   * Walks the directory root on disk. A missing root gives an empty manifest.
+   */
+  public static CodebaseManifest scan(File root) {
+    ImmutableSortedMap.Builder<String, Entry> entries = ImmutableSortedMap.naturalOrder();
+    if (root.exists()) {
+      try {
+        scanDirectory(root.toPath(), "", entries);
+      } catch (IOException e) {
+        throw new MoeProblem("Couldn't list files in " + root + ": " + e);
+      }
+    }
+    return new CodebaseManifest(root, entries.build());
+  }
+
+  private static void scanDirectory(
+      Path dir, String prefix, ImmutableSortedMap.Builder<String, Entry> entries)
+      throws IOException {
+    DirectoryStream<Path> children = Files.newDirectoryStream(dir);
+    try {
+      for (Path child : children) {
+        String name = prefix + child.getFileName();
+        BasicFileAttributes attrs;
+        try {
+          attrs = readAttributes(child);
+        } catch (IOException e) {
+          // Like a file the walk of findFiles fails to visit, e.g. one deleted meanwhile.
+          continue;
+        }
+        if (attrs.isDirectory()) {
+          scanDirectory(child, name + "/", entries);
+        } else {
+          entries.put(name, makeEntry(child, attrs));
+        }
+      }
+    } finally {
+      children.close();
+    }
+  }
+
+  /**
+   * Reads a file's attributes, with its permission bits where the file system has them, in one
+   * stat that doesn't follow symbolic links.
+   */
+  private static BasicFileAttributes readAttributes(Path file) throws IOException {
+    try {
+      return Files.readAttributes(file, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (UnsupportedOperationException e) {
+      return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+  }
+
+  private static Entry makeEntry(Path file, BasicFileAttributes attrs) {
+    if (attrs.isSymbolicLink()) {
+      // Like File.canExecute, look through the link rather than at its own permissions.
+      return new Entry(-1, Files.isExecutable(file));
+    }
+    boolean executable = (attrs instanceof PosixFileAttributes)
+        ? isExecutable(((PosixFileAttributes) attrs).permissions())
+        : Files.isExecutable(file);
+    return new Entry(attrs.size(), executable);
+  }
+
+  /**
+   * Returns what File.canExecute, which the differ that forks diff uses, answers for a file with
+   * the given permissions that is owned by MOE's user, as the files of codebases are, MOE having
+   * written them: root may execute a file if any execute bit is set, and other users if the
+   * owner's is.
+   */
+  private static boolean isExecutable(Set<PosixFilePermission> permissions) {
+    if (RUNNING_AS_ROOT) {
+      return permissions.contains(PosixFilePermission.OWNER_EXECUTE)
+          || permissions.contains(PosixFilePermission.GROUP_EXECUTE)
+          || permissions.contains(PosixFilePermission.OTHERS_EXECUTE);
+    }
+    return permissions.contains(PosixFilePermission.OWNER_EXECUTE);
+  }
+
+  /**
+   * Returns whether MOE runs as root, from the owner of a file it creates.
+   */
+  private static boolean isRunningAsRoot() {
+    try {
+      File probe = File.createTempFile("moe_uid_", "");
+      try {
+        return Integer.valueOf(0).equals(Files.getAttribute(probe.toPath(), "unix:uid"));
+      } finally {
+        probe.delete();
+      }
+    } catch (IOException e) {
+      return false;
+    } catch (UnsupportedOperationException e) {
+      return false;
+    } catch (IllegalArgumentException e) {
+      // The file system has no "unix" attribute view.
+      return false;
+    }
+  }
+
+  /**
+   * @return the relative names of all files, in sorted order
+   */
+  public Set<String> getRelativeFilenames() {
+    return entries.keySet();
+  }
+
+  /**
+   * @return the Entry of relativeFilename, or null if there is no such file
+   */
+  public Entry getEntry(String relativeFilename) {
+    return entries.get(relativeFilename);
+  }
+
+  public boolean exists(String relativeFilename) {
+    return entries.containsKey(relativeFilename);
+  }
+
+  public boolean isExecutable(String relativeFilename) {
+    Entry entry = entries.get(relativeFilename);
+    return entry != null && entry.executable;
+  }
+
+  /**
+   * Returns the hex SHA-1 of a file's contents, hashing it on first request.
+   */
+  public String getContentHash(String relativeFilename) {
+    String hash = contentHashes.get(relativeFilename);
+    if (hash == null) {
+      File file = new File(root, relativeFilename);
+      try {
+        hash = CodebaseFingerprint.toHex(CodebaseFingerprint.hashContents(file.toPath()));
+      } catch (IOException e) {
+        throw new MoeProblem("Couldn't hash " + file + ": " + e);
+      }
+      contentHashes.put(relativeFilename, hash);
+    }
+    return hash;
+  }
+}
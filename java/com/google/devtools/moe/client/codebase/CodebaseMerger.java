@@ -2,21 +2,28 @@
 
 package com.google.devtools.moe.client.codebase;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.parser.RepositoryExpression;
 import com.google.devtools.moe.client.parser.Term;
+import com.google.devtools.moe.client.tools.Diff3Merge;
 import com.google.devtools.moe.client.tools.FileDifference;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Once constructed with three codebases, this class can call merge() which will merge the three
@@ -26,6 +33,11 @@ import java.util.Set;
  */
 public class CodebaseMerger {
 
+  /** The number of files a MergeTask merges itself rather than splitting further. */
+  private static final int FILES_PER_TASK = 8;
+
+  private static final ForkJoinPool POOL = new ForkJoinPool();
+
   private final Codebase originalCodebase, destinationCodebase, modifiedCodebase, mergedCodebase;
   private final Set<String> mergedFiles, failedToMergeFiles;
 
@@ -40,8 +52,9 @@ public class CodebaseMerger {
         new Term("merged", ImmutableMap.<String, String>of()));
     this.mergedCodebase = new Codebase(mergedDir, "merged", mergedExpression);
 
-    mergedFiles = Sets.newHashSet();
-    failedToMergeFiles = Sets.newHashSet();
+    // Files may be merged on several threads at once.
+    mergedFiles = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    failedToMergeFiles = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
   }
 
   public Set<String> getMergedFiles() {
@@ -56,18 +69,91 @@ public class CodebaseMerger {
    * For each file in the union of the modified and destination codebases, run
    * generateMergedFile(...) and then report() the results.
    *
+   * <p>Files are split across the threads of a ForkJoinPool, and each is first triaged by
+   * {@link #triageMergedFile(String)}, so that only files changed on both sides are actually
+   * merged, by merge(1) or {@link Diff3Merge}.
+   *
    * @return the merged Codebase
    */
   public Codebase merge() {
     Set<String>  filesToMerge = Sets.union(destinationCodebase.getRelativeFilenames(),
         modifiedCodebase.getRelativeFilenames());
-    for (String filename : filesToMerge) {
-      this.generateMergedFile(filename);
-    }
+    POOL.invoke(new MergeTask(ImmutableList.copyOf(filesToMerge)));
     this.report();
     return mergedCodebase;
   }
 
+  /**
+   * Merges a list of files, splitting it in halves until it is short enough to merge in one go.
+   */
+  @SuppressWarnings("serial")  // Never serialized.
+  private class MergeTask extends RecursiveAction {
+    private final List<String> filenames;
+
+    MergeTask(List<String> filenames) {
+      this.filenames = filenames;
+    }
+
+    @Override
+    protected void compute() {
+      if (filenames.size() <= FILES_PER_TASK) {
+        for (String filename : filenames) {
+          if (!triageMergedFile(filename)) {
+            generateMergedFile(filename);
+          }
+        }
+        return;
+      }
+      int middle = filenames.size() / 2;
+      invokeAll(new MergeTask(filenames.subList(0, middle)),
+          new MergeTask(filenames.subList(middle, filenames.size())));
+    }
+  }
+
+  /**
+   * Resolves a file that exists in all three codebases but was changed on at most one side, by
+   * comparing content hashes from the codebases' manifests: if mod or dest is unchanged from
+   * orig, or both made the same change, the merged file is a copy of the other side.
+   *
+   * @return true if the file was resolved, false if it needs a real merge
+   */
+  @VisibleForTesting
+  boolean triageMergedFile(String filename) {
+    CodebaseManifest orig = originalCodebase.getManifest();
+    CodebaseManifest dest = destinationCodebase.getManifest();
+    CodebaseManifest mod = modifiedCodebase.getManifest();
+    if (!orig.exists(filename) || !dest.exists(filename) || !mod.exists(filename)) {
+      return false;
+    }
+
+    File mergedFile;
+    if (sameContents(orig, mod, filename) || sameContents(dest, mod, filename)) {
+      mergedFile = copyToMergedCodebase(filename, destinationCodebase.getFile(filename));
+    } else if (sameContents(orig, dest, filename)) {
+      // Take mod's contents, but keep the rest of dest's copy, as merge(1) would.
+      mergedFile = copyToMergedCodebase(filename, destinationCodebase.getFile(filename));
+      try {
+        Files.copy(modifiedCodebase.getFile(filename), mergedFile);
+      } catch (IOException e) {
+        throw new MoeProblem(e.getMessage());
+      }
+    } else {
+      return false;
+    }
+    mergedFiles.add(mergedFile.getAbsolutePath().toString());
+    return true;
+  }
+
+  private static boolean sameContents(
+      CodebaseManifest manifest1, CodebaseManifest manifest2, String filename) {
+    CodebaseManifest.Entry entry1 = manifest1.getEntry(filename);
+    CodebaseManifest.Entry entry2 = manifest2.getEntry(filename);
+    if (entry1.size != entry2.size) {
+      return false;
+    }
+    return manifest1.getContentHash(filename).equals(manifest2.getContentHash(filename));
+  }
+
   /**
    * Print the results of a merge to the UI.
    */
@@ -80,7 +166,7 @@ public class CodebaseMerger {
   }
 
   private static boolean areDifferent(String filename, File x, File y) {
-    return FileDifference.CONCRETE_FILE_DIFFER.diffFiles(filename, x, y).isDifferent();
+    return FileDifference.defaultFileDiffer().diffFiles(filename, x, y).isDifferent();
   }
 
   /**
@@ -101,9 +187,9 @@ public class CodebaseMerger {
 
   /**
    * Given a filename, this method finds the file with that name in each of the three codebases.
-   * Using the UNIX merge(1) tool, those three files are merged and the result is placed in the
-   * merged codebase. Any conflicts that occurred during merging will appear in the merged codebase
-   * file for the user to resolve.
+   * Using the UNIX merge(1) tool, or {@link Diff3Merge} if it is enabled, those three files are
+   * merged and the result is placed in the merged codebase. Any conflicts that occurred during
+   * merging will appear in the merged codebase file for the user to resolve.
    *
    * In the case where the file specified by the given filename exists in the original codebase and
    * in either the modified codebase or the destination codebase (but not both) and if the file
@@ -158,6 +244,15 @@ public class CodebaseMerger {
 
     File mergedFile = copyToMergedCodebase(filename, destFile);
 
+    if (Diff3Merge.isEnabled()) {
+      if (Diff3Merge.mergeFiles(mergedFile, origFile, modFile)) {
+        mergedFiles.add(mergedFile.getAbsolutePath().toString());
+      } else {
+        failedToMergeFiles.add(mergedFile.getAbsolutePath().toString());
+      }
+      return;
+    }
+
     String mergeOutput;
     try {
       // Merges the changes that lead from origFile to modFile into mergedFile (which is a copy
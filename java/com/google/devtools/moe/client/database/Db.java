@@ -26,6 +26,16 @@ public interface Db {
    */
   public Set<Revision> findEquivalences(Revision revision, String otherRepository);
 
+  /**
+   * Returns the Revisions in Repository {@code otherRepository} that are equivalent to the given
+   * Revision, either directly or through a chain of Equivalences with Revisions in other
+   * Repositories (e.g. internal == public_git == public_hg).
+   *
+   * @param revision  the Revision to find equivalent revisions for
+   * @param otherRepository  the Repository to find equivalent revisions in
+   */
+  public Set<Revision> findTransitiveEquivalences(Revision revision, String otherRepository);
+
   /**
    * Stores a SubmittedMigration in this Db. Migrations are stored along with Equivalences to give
    * full historical information for runs of MOE, as not all migrations result in an Equivalence.
@@ -3,15 +3,25 @@
 package com.google.devtools.moe.client.database;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.devtools.moe.client.repositories.Revision;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * MOE's database, storing all Equivalences and SubmittedMigrations in order from those between
  * lower revisions to those between higher revisions.
  *
- * This class is used for serialization of a database file.
+ * This class is used for serialization of a database file. The lists are what gets serialized;
+ * the hash indexes over them are transient, built on first use and kept up to date by the add
+ * methods.
  *
  */
 public class DbStorage {
@@ -19,6 +29,12 @@ public class DbStorage {
   private final List<Equivalence> equivalences;
   private final List<SubmittedMigration> migrations;
 
+  private transient Set<Equivalence> equivalenceSet;
+  private transient Set<SubmittedMigration> migrationSet;
+  /** For each Revision, its equivalent Revisions keyed by their repository name. */
+  private transient Map<Revision, SetMultimap<String, Revision>> equivalentRevisions;
+  private transient EquivalenceGraph equivalenceGraph;
+
   public DbStorage() {
     equivalences = Lists.newArrayList();
     migrations = Lists.newArrayList();
@@ -32,10 +48,39 @@ public class DbStorage {
     return ImmutableList.copyOf(migrations);
   }
 
-  public void addEquivalence(Equivalence e) {
-    if (!equivalences.contains(e)) {
-      equivalences.add(e);
+  /**
+   * Returns the Revisions in repository otherRepository that are equivalent to revision.
+   */
+  public Set<Revision> findEquivalences(Revision revision, String otherRepository) {
+    buildIndexes();
+    SetMultimap<String, Revision> equivalent = equivalentRevisions.get(revision);
+    return (equivalent == null)
+        ? ImmutableSet.<Revision>of()
+        : ImmutableSet.copyOf(equivalent.get(otherRepository));
+  }
+
+  /**
+   * Returns the Revisions in repository otherRepository that are equivalent to revision, directly
+   * or through a chain of Equivalences.
+   */
+  public Set<Revision> findTransitiveEquivalences(Revision revision, String otherRepository) {
+    buildIndexes();
+    return equivalenceGraph.findEquivalences(revision, otherRepository);
+  }
+
+  /**
+   * Adds an Equivalence.
+   *
+   * @return true if the Equivalence was newly added, false if it was already in this Db
+   */
+  public boolean addEquivalence(Equivalence e) {
+    buildIndexes();
+    if (!equivalenceSet.add(e)) {
+      return false;
     }
+    equivalences.add(e);
+    index(e);
+    return true;
   }
 
   /**
@@ -44,6 +89,41 @@ public class DbStorage {
    * @return true if the SubmittedMigration was newly added, false if it was already in this Db
    */
   public boolean addMigration(SubmittedMigration m) {
-    return !migrations.contains(m) && migrations.add(m);
+    buildIndexes();
+    return migrationSet.add(m) && migrations.add(m);
+  }
+
+  /**
+   * Builds the indexes from the lists, if not built yet. This is done lazily rather than in the
+   * constructor because gson sets the lists after constructing.
+   */
+  private void buildIndexes() {
+    if (equivalenceSet != null) {
+      return;
+    }
+    equivalenceSet = Sets.newHashSet(equivalences);
+    migrationSet = Sets.newHashSet(migrations);
+    equivalentRevisions = Maps.newHashMap();
+    equivalenceGraph = new EquivalenceGraph();
+    for (Equivalence e : equivalences) {
+      index(e);
+    }
+  }
+
+  private void index(Equivalence e) {
+    Revision rev1 = e.getRev1();
+    Revision rev2 = e.getRev2();
+    equivalentRevisionsOf(rev1).put(rev2.repositoryName, rev2);
+    equivalentRevisionsOf(rev2).put(rev1.repositoryName, rev1);
+    equivalenceGraph.add(e);
+  }
+
+  private SetMultimap<String, Revision> equivalentRevisionsOf(Revision revision) {
+    SetMultimap<String, Revision> equivalent = equivalentRevisions.get(revision);
+    if (equivalent == null) {
+      equivalent = LinkedHashMultimap.create();
+      equivalentRevisions.put(revision, equivalent);
+    }
+    return equivalent;
   }
 }
@@ -0,0 +1,25 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.database;
+
+import com.google.devtools.moe.client.MoeProblem;
+
+/**
+ * Static utility methods that open a {@link Db} from a --db location.
+ *
+ */
+public final class Dbs {
+
+  private Dbs() {}  // Do not instantiate.
+
+  /**
+   * Returns the Db stored at path: a {@link JournalDb} if {@code moe.journal_db} is set, or a
+   * {@link FileDb} otherwise.
+   */
+  public static Db makeDbFromFile(String path) throws MoeProblem {
+    if (JournalDb.isEnabled()) {
+      return JournalDb.makeDbFromFile(path);
+    }
+    return FileDb.makeDbFromFile(path);
+  }
+}
@@ -29,6 +29,14 @@ public class Equivalence {
     this.rev2 = rev2;
   }
 
+  Revision getRev1() {
+    return rev1;
+  }
+
+  Revision getRev2() {
+    return rev2;
+  }
+
   /**
    * @param revision  the Revision to look for in this Equivalence
    *
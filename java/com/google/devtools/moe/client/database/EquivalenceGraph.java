@@ -0,0 +1,95 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.database;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.devtools.moe.client.repositories.Revision;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The transitive closure of a set of {@link Equivalence}s: Revisions connected through any chain
+ * of Equivalences, e.g. internal{5} == public_git{a} == public_hg{b}, are in one class.
+ *
+ * <p>Classes are kept in a union-find forest with path compression and union by size, so adding
+ * an Equivalence or finding a Revision's class takes near-constant time. Each class's root also
+ * keeps its members by repository name, so a query returns without scanning the class.
+ */
+public class EquivalenceGraph {
+
+  /** Each Revision's parent in the forest. Roots are absent. */
+  private final Map<Revision, Revision> parents = Maps.newHashMap();
+  /** For each root, the members of its class by repository name. */
+  private final Map<Revision, SetMultimap<String, Revision>> members = Maps.newHashMap();
+
+  /**
+   * Joins the classes of the two Revisions in e.
+   */
+  public void add(Equivalence e) {
+    Revision root1 = find(e.getRev1());
+    Revision root2 = find(e.getRev2());
+    if (root1.equals(root2)) {
+      return;
+    }
+    SetMultimap<String, Revision> members1 = membersOf(root1);
+    SetMultimap<String, Revision> members2 = membersOf(root2);
+    // Hang the smaller class under the larger one.
+    if (members1.size() < members2.size()) {
+      parents.put(root1, root2);
+      members2.putAll(members1);
+      members.remove(root1);
+    } else {
+      parents.put(root2, root1);
+      members1.putAll(members2);
+      members.remove(root2);
+    }
+  }
+
+  /**
+   * Returns the Revisions in repository otherRepository that are equivalent to revision, directly
+   * or through other Revisions. The result doesn't contain revision itself.
+   */
+  public Set<Revision> findEquivalences(Revision revision, String otherRepository) {
+    SetMultimap<String, Revision> classMembers = members.get(find(revision));
+    if (classMembers == null) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet.Builder<Revision> equivalences = ImmutableSet.builder();
+    for (Revision member : classMembers.get(otherRepository)) {
+      if (!member.equals(revision)) {
+        equivalences.add(member);
+      }
+    }
+    return equivalences.build();
+  }
+
+  /**
+   * Returns the root of revision's class, compressing the path to it.
+   */
+  private Revision find(Revision revision) {
+    Revision root = revision;
+    for (Revision parent = parents.get(root); parent != null; parent = parents.get(root)) {
+      root = parent;
+    }
+    while (!revision.equals(root)) {
+      Revision next = parents.put(revision, root);
+      revision = next;
+    }
+    return root;
+  }
+
+  /** Returns the members of the class rooted at root, creating a singleton class if needed. */
+  private SetMultimap<String, Revision> membersOf(Revision root) {
+    SetMultimap<String, Revision> rootMembers = members.get(root);
+    if (rootMembers == null) {
+      rootMembers = LinkedHashMultimap.create();
+      rootMembers.put(root.repositoryName, root);
+      members.put(root, rootMembers);
+    }
+    return rootMembers;
+  }
+}
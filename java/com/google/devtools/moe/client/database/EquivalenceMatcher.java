@@ -21,22 +21,39 @@ public class EquivalenceMatcher
   /** The name of the Repository _other_ than that of Revisions checked in matches(). */
   private final String repositoryName;
   private final Db db;
+  /** Whether to match on Equivalences through other repositories too. */
+  private final boolean transitive;
 
   public EquivalenceMatcher(String repositoryName, Db db) {
+    this(repositoryName, db, false);
+  }
+
+  /**
+   * @param transitive  whether to match Revisions that are equivalent only through a chain of
+   *     Equivalences with other repositories, see {@link Db#findTransitiveEquivalences}
+   */
+  public EquivalenceMatcher(String repositoryName, Db db, boolean transitive) {
     this.repositoryName = repositoryName;
     this.db = db;
+    this.transitive = transitive;
+  }
+
+  private Set<Revision> findEquivalences(Revision revision) {
+    return transitive
+        ? db.findTransitiveEquivalences(revision, repositoryName)
+        : db.findEquivalences(revision, repositoryName);
   }
 
   @Override
   public boolean matches(Revision revision) {
-    return !db.findEquivalences(revision, repositoryName).isEmpty();
+    return !findEquivalences(revision).isEmpty();
   }
 
   @Override
   public EquivalenceMatchResult makeResult(RevisionGraph nonMatching, List<Revision> matching) {
     ImmutableList.Builder<Equivalence> equivsBuilder = ImmutableList.builder();
     for (Revision matchRev : matching) {
-      Set<Revision> equivRevs = db.findEquivalences(matchRev, repositoryName);
+      Set<Revision> equivRevs = findEquivalences(matchRev);
       if (!equivRevs.isEmpty()) {
         equivsBuilder.add(new Equivalence(matchRev, equivRevs.iterator().next()));
       }
@@ -46,7 +63,8 @@ public class EquivalenceMatcher
 
   @Override
   public String toString() {
-    return "EquivalenceMatcher for repository " + repositoryName;
+    return (transitive ? "Transitive " : "") + "EquivalenceMatcher for repository "
+        + repositoryName;
   }
 
   /**
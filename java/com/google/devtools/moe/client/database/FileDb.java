@@ -4,6 +4,7 @@ package com.google.devtools.moe.client.database;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Closeables;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.project.InvalidProject;
@@ -11,10 +12,15 @@ import com.google.devtools.moe.client.repositories.Revision;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A file-backed implementation of MOE {@link Db}.
@@ -44,16 +50,12 @@ public class FileDb implements Db {
 
   @Override
   public Set<Revision> findEquivalences(Revision revision, String otherRepository) {
-    ImmutableSet.Builder<Revision> equivalentToRevision = ImmutableSet.builder();
-    for (Equivalence e : dbStorage.getEquivalences()) {
-      if (e.hasRevision(revision)) {
-        Revision otherRevision = e.getOtherRevision(revision);
-        if (otherRevision.repositoryName.equals(otherRepository)) {
-          equivalentToRevision.add(otherRevision);
-        }
-      }
-    }
-    return equivalentToRevision.build();
+    return dbStorage.findEquivalences(revision, otherRepository);
+  }
+
+  @Override
+  public Set<Revision> findTransitiveEquivalences(Revision revision, String otherRepository) {
+    return dbStorage.findTransitiveEquivalences(revision, otherRepository);
   }
 
   @Override
@@ -76,24 +78,79 @@ public class FileDb implements Db {
   }
 
   public static FileDb makeDbFromDbText(String dbText) throws InvalidProject {
+    return new FileDb(readDbStorage(new StringReader(dbText)));
+  }
+
+  public static FileDb makeDbFromFile(String path) throws MoeProblem {
+    File dbFile = new File(path);
     try {
-      DbStorage dbStorage = FILE_DB_GSON.fromJson(dbText, DbStorage.class);
-      return new FileDb(dbStorage);
-    } catch (JsonParseException e) {
-      throw new InvalidProject("Could not parse MOE DB: " + e.getMessage());
+      return new FileDb(loadDbStorage(dbFile, AppContext.RUN.fileSystem.newReader(dbFile)));
+    } catch (IOException e) {
+      throw new MoeProblem(e.getMessage());
     }
   }
 
-  public static FileDb makeDbFromFile(String path) throws MoeProblem {
+  /**
+   * Reads a DB file from in, closing it afterwards, and reports how long that took.
+   */
+  static DbStorage loadDbStorage(File dbFile, Reader in) throws MoeProblem {
+    long startNanos = System.nanoTime();
+    DbStorage dbStorage;
+    try {
+      dbStorage = readDbStorage(in);
+    } catch (InvalidProject e) {
+      throw new MoeProblem(e.getMessage());
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+    AppContext.RUN.ui.debug(String.format(
+        "Loaded MOE DB %s (%d equivalences, %d migrations) in %d ms",
+        dbFile, dbStorage.getEquivalences().size(), dbStorage.getMigrations().size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+    return dbStorage;
+  }
+
+  /**
+   * Parses the JSON of a DB, as written by {@link #writeToLocation(String)}, one Equivalence or
+   * SubmittedMigration at a time, so that the text is never held in memory as a whole.
+   */
+  static DbStorage readDbStorage(Reader in) throws InvalidProject {
+    DbStorage dbStorage = new DbStorage();
+    JsonReader reader = new JsonReader(in);
+    reader.setLenient(true);
     try {
-      String dbText = AppContext.RUN.fileSystem.fileToString(new File(path));
-      try {
-        return makeDbFromDbText(dbText);
-      } catch (InvalidProject e) {
-        throw new MoeProblem(e.getMessage());
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (reader.peek() == JsonToken.NULL) {
+          reader.skipValue();
+        } else if (name.equals("equivalences")) {
+          reader.beginArray();
+          while (reader.hasNext()) {
+            dbStorage.addEquivalence(
+                FILE_DB_GSON.<Equivalence>fromJson(reader, Equivalence.class));
+          }
+          reader.endArray();
+        } else if (name.equals("migrations")) {
+          reader.beginArray();
+          while (reader.hasNext()) {
+            dbStorage.addMigration(
+                FILE_DB_GSON.<SubmittedMigration>fromJson(reader, SubmittedMigration.class));
+          }
+          reader.endArray();
+        } else {
+          reader.skipValue();
+        }
       }
+      reader.endObject();
     } catch (IOException e) {
-      throw new MoeProblem(e.getMessage());
+      throw new InvalidProject("Could not parse MOE DB: " + e.getMessage());
+    } catch (JsonParseException e) {
+      throw new InvalidProject("Could not parse MOE DB: " + e.getMessage());
+    } catch (IllegalStateException e) {
+      // Thrown by JsonReader for a value of the wrong type.
+      throw new InvalidProject("Could not parse MOE DB: " + e.getMessage());
     }
+    return dbStorage;
   }
 }
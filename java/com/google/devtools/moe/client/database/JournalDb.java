@@ -0,0 +1,357 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.database;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link Db} kept as a snapshot plus an append-only journal.
+ *
+ * <p>The snapshot is a file in {@link FileDb}'s JSON format, so an existing FileDb file can be
+ * opened as a JournalDb as is. Each new Equivalence or SubmittedMigration is appended to
+ * {@code <snapshot>.journal} as one line of JSON when the Db is written, and the journal is
+ * fsynced. Loading replays the journal over the snapshot. A last line cut short by a crash is
+ * dropped.
+ *
+ * <p>Once the journal holds {@link #COMPACTION_THRESHOLD} records, the Db is compacted: a new
+ * snapshot is written to a temp file, fsynced and renamed over the old one, and then the journal
+ * is deleted. Replaying a journal over a snapshot that already holds its records is harmless, so
+ * a crash at any point of compaction loses nothing.
+ *
+ * <p>Several processes can use the same JournalDb at once. Loading, writing and compacting hold
+ * an exclusive OS lock on {@code <snapshot>.lock}, which also stores a generation number that
+ * each compaction increments. Before appending, a writer first replays whatever other processes
+ * appended since it last read the journal, or reloads everything if the generation changed, so
+ * concurrent writers' records are merged rather than overwritten.
+ *
+ * <p>Used instead of FileDb when the system property {@code moe.journal_db} is true.
+ */
+public class JournalDb implements Db {
+
+  /** The system property that makes directives use a JournalDb for --db. */
+  static final String ENABLED_PROPERTY = "moe.journal_db";
+
+  /** The number of journal records at which writeToLocation compacts the Db. */
+  @VisibleForTesting static final int COMPACTION_THRESHOLD = 1000;
+
+  private static final Gson JOURNAL_GSON = new Gson();
+
+  private final File snapshot;
+  private final File journal;
+  private final File lockFile;
+  private DbStorage dbStorage;
+  /** Records noted since the last write. */
+  private final List<JournalRecord> pending = Lists.newArrayList();
+  /** The generation of the snapshot and journal last read. */
+  private long generation;
+  /** The number of records in the journal, as of the last read or write. */
+  private int journalSize;
+  /** The number of bytes of the journal already read or written by this process. */
+  private long journalLength;
+
+  private JournalDb(File snapshot) {
+    this.snapshot = snapshot;
+    this.journal = new File(snapshot.getPath() + ".journal");
+    this.lockFile = new File(snapshot.getPath() + ".lock");
+  }
+
+  /**
+   * Returns whether directives should use a JournalDb.
+   */
+  static boolean isEnabled() {
+    return Boolean.getBoolean(ENABLED_PROPERTY);
+  }
+
+  /**
+   * One journal line: exactly one of its fields is set.
+   */
+  private static class JournalRecord {
+    Equivalence equivalence;
+    SubmittedMigration migration;
+  }
+
+  /**
+   * Loads the Db whose snapshot is at path, replaying its journal. A missing snapshot or journal
+   * counts as empty.
+   */
+  public static JournalDb makeDbFromFile(String path) throws MoeProblem {
+    JournalDb db = new JournalDb(new File(path));
+    RandomAccessFile lock = db.lock();
+    try {
+      db.catchUp(lock);
+    } catch (IOException e) {
+      throw new MoeProblem("Couldn't read MOE DB " + path + ": " + e);
+    } finally {
+      Closeables.closeQuietly(lock);
+    }
+    return db;
+  }
+
+  /**
+   * @return all Equivalences stored in the database
+   */
+  public Set<Equivalence> getEquivalences() {
+    return new FileDb(dbStorage).getEquivalences();
+  }
+
+  @Override
+  public void noteEquivalence(Equivalence equivalence) {
+    if (dbStorage.addEquivalence(equivalence)) {
+      JournalRecord record = new JournalRecord();
+      record.equivalence = equivalence;
+      pending.add(record);
+    }
+  }
+
+  @Override
+  public Set<Revision> findEquivalences(Revision revision, String otherRepository) {
+    return dbStorage.findEquivalences(revision, otherRepository);
+  }
+
+  @Override
+  public Set<Revision> findTransitiveEquivalences(Revision revision, String otherRepository) {
+    return dbStorage.findTransitiveEquivalences(revision, otherRepository);
+  }
+
+  @Override
+  public boolean noteMigration(SubmittedMigration migration) {
+    if (!dbStorage.addMigration(migration)) {
+      return false;
+    }
+    JournalRecord record = new JournalRecord();
+    record.migration = migration;
+    pending.add(record);
+    return true;
+  }
+
+  /**
+   * Commits the records noted since the last write. If dbLocation is this Db's own snapshot, they
+   * are appended to the journal, after merging in what other processes have appended; otherwise
+   * a full snapshot is written to dbLocation.
+   */
+  @Override
+  public void writeToLocation(String dbLocation) {
+    File target = new File(dbLocation);
+    if (!target.getAbsoluteFile().equals(snapshot.getAbsoluteFile())) {
+      try {
+        writeSnapshot(target);
+        File targetJournal = new File(target.getPath() + ".journal");
+        if (targetJournal.exists() && !targetJournal.delete()) {
+          throw new IOException("Couldn't delete " + targetJournal);
+        }
+      } catch (IOException e) {
+        throw new MoeProblem("Couldn't write MOE DB " + dbLocation + ": " + e);
+      }
+      return;
+    }
+
+    RandomAccessFile lock = lock();
+    try {
+      catchUp(lock);
+      appendToJournal();
+      if (journalSize >= COMPACTION_THRESHOLD) {
+        compact(lock);
+      }
+    } catch (IOException e) {
+      throw new MoeProblem("Couldn't write MOE DB " + dbLocation + ": " + e);
+    } finally {
+      Closeables.closeQuietly(lock);
+    }
+  }
+
+  /**
+   * Commits the records noted since the last write, then folds the journal into a new snapshot
+   * and deletes it.
+   */
+  public void compact() {
+    RandomAccessFile lock = lock();
+    try {
+      catchUp(lock);
+      appendToJournal();
+      compact(lock);
+    } catch (IOException e) {
+      throw new MoeProblem("Couldn't compact MOE DB " + snapshot + ": " + e);
+    } finally {
+      Closeables.closeQuietly(lock);
+    }
+  }
+
+  /**
+   * Takes the exclusive lock on this Db, blocking until it is free. Closing the returned file
+   * releases the lock.
+   */
+  private RandomAccessFile lock() {
+    RandomAccessFile lock = null;
+    try {
+      lock = new RandomAccessFile(lockFile, "rw");
+      lock.getChannel().lock();
+      return lock;
+    } catch (IOException e) {
+      Closeables.closeQuietly(lock);
+      throw new MoeProblem("Couldn't lock MOE DB " + lockFile + ": " + e);
+    }
+  }
+
+  /** Returns the generation stored in the held lock file, 0 if none is stored yet. */
+  private static long readGeneration(RandomAccessFile lock) throws IOException {
+    if (lock.length() < 8) {
+      return 0;
+    }
+    lock.seek(0);
+    return lock.readLong();
+  }
+
+  /**
+   * Merges into this Db what other processes have written since it last read the files: the new
+   * end of the journal or, if the Db was compacted meanwhile, the whole snapshot and journal.
+   * Must be called with the lock held.
+   */
+  private void catchUp(RandomAccessFile lock) throws IOException {
+    long currentGeneration = readGeneration(lock);
+    if (dbStorage == null || currentGeneration != generation || journal.length() < journalLength) {
+      DbStorage loaded = snapshot.exists()
+          ? FileDb.loadDbStorage(snapshot, Files.newReader(snapshot, Charsets.UTF_8))
+          : new DbStorage();
+      if (dbStorage == null) {
+        dbStorage = loaded;
+      } else {
+        for (Equivalence e : loaded.getEquivalences()) {
+          dbStorage.addEquivalence(e);
+        }
+        for (SubmittedMigration m : loaded.getMigrations()) {
+          dbStorage.addMigration(m);
+        }
+      }
+      generation = currentGeneration;
+      journalSize = 0;
+      journalLength = 0;
+    }
+    replayJournal();
+  }
+
+  /**
+   * Adds the journal records past journalLength to dbStorage.
+   */
+  private void replayJournal() throws IOException {
+    if (!journal.exists() || journal.length() == journalLength) {
+      return;
+    }
+    RandomAccessFile file = new RandomAccessFile(journal, "rw");
+    try {
+      byte[] bytes = new byte[(int) (file.length() - journalLength)];
+      file.seek(journalLength);
+      file.readFully(bytes);
+
+      int start = 0;
+      for (int end = 0; end < bytes.length; end++) {
+        if (bytes[end] != '\n') {
+          continue;
+        }
+        String line = new String(bytes, start, end - start, Charsets.UTF_8);
+        start = end + 1;
+        if (line.trim().isEmpty()) {
+          // E.g. from editing the journal by hand, or from concatenating two journals.
+          continue;
+        }
+        JournalRecord record;
+        try {
+          record = JOURNAL_GSON.fromJson(line, JournalRecord.class);
+        } catch (JsonParseException e) {
+          throw new IOException("Bad record in " + journal + ": " + e.getMessage());
+        }
+        if (record.equivalence != null) {
+          dbStorage.addEquivalence(record.equivalence);
+        }
+        if (record.migration != null) {
+          dbStorage.addMigration(record.migration);
+        }
+        journalSize++;
+      }
+      journalLength += start;
+
+      if (start < bytes.length) {
+        // The last record was only partly written. Cut it off, so that new records start on a
+        // line of their own.
+        file.setLength(journalLength);
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Appends the pending records to the journal. Must be called with the lock held, right after
+   * {@link #catchUp(RandomAccessFile)}.
+   */
+  private void appendToJournal() throws IOException {
+    if (pending.isEmpty()) {
+      return;
+    }
+    StringBuilder lines = new StringBuilder();
+    for (JournalRecord record : pending) {
+      lines.append(JOURNAL_GSON.toJson(record)).append('\n');
+    }
+    byte[] bytes = lines.toString().getBytes(Charsets.UTF_8);
+    FileOutputStream out = new FileOutputStream(journal, true);
+    try {
+      out.write(bytes);
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    journalSize += pending.size();
+    journalLength += bytes.length;
+    pending.clear();
+  }
+
+  /**
+   * Writes a snapshot of everything, starts a new generation and deletes the journal. Must be
+   * called with the lock held and nothing pending.
+   */
+  private void compact(RandomAccessFile lock) throws IOException {
+    writeSnapshot(snapshot);
+    // Bump the generation before deleting the journal, so that no process takes a new, shorter
+    // journal for the continuation of the one it has read.
+    generation++;
+    lock.seek(0);
+    lock.writeLong(generation);
+    lock.getFD().sync();
+    if (journal.exists() && !journal.delete()) {
+      throw new IOException("Couldn't delete " + journal);
+    }
+    journalSize = 0;
+    journalLength = 0;
+  }
+
+  /**
+   * Writes all of this Db to target atomically.
+   */
+  private void writeSnapshot(File target) throws IOException {
+    File temp = new File(target.getPath() + ".tmp");
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      out.write(new FileDb(dbStorage).toJsonString().getBytes(Charsets.UTF_8));
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    if (!temp.renameTo(target)) {
+      throw new IOException("Couldn't rename " + temp + " to " + target);
+    }
+  }
+}
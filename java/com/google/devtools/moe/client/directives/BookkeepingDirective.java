@@ -7,7 +7,7 @@ import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.MoeOptions;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.database.Db;
-import com.google.devtools.moe.client.database.FileDb;
+import com.google.devtools.moe.client.database.Dbs;
 import com.google.devtools.moe.client.logic.BookkeepingLogic;
 import com.google.devtools.moe.client.project.InvalidProject;
 import com.google.devtools.moe.client.project.ProjectContext;
@@ -48,7 +48,7 @@ public class BookkeepingDirective implements Directive {
     } else {
       // TODO(user): also allow for url dbLocation types
       try {
-        db = FileDb.makeDbFromFile(options.dbLocation);
+        db = Dbs.makeDbFromFile(options.dbLocation);
       } catch (MoeProblem e) {
         AppContext.RUN.ui.error(e, "Error creating DB");
         return 1;
@@ -6,7 +6,7 @@ import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.MoeOptions;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.database.Db;
-import com.google.devtools.moe.client.database.FileDb;
+import com.google.devtools.moe.client.database.Dbs;
 import com.google.devtools.moe.client.logic.DetermineMigrationsLogic;
 import com.google.devtools.moe.client.migrations.Migration;
 import com.google.devtools.moe.client.migrations.MigrationConfig;
@@ -47,7 +47,7 @@ public class DetermineMigrationsDirective implements Directive {
     } else {
       // TODO(user): also allow for url dbLocation types
       try {
-        db = FileDb.makeDbFromFile(options.dbLocation);
+        db = Dbs.makeDbFromFile(options.dbLocation);
       } catch (MoeProblem e) {
         AppContext.RUN.ui.error(e, "Error creating DB");
         return 1;
@@ -3,10 +3,11 @@
 package com.google.devtools.moe.client.directives;
 
 import com.google.devtools.moe.client.AppContext;
+import com.google.devtools.moe.client.BooleanOptionHandler;
 import com.google.devtools.moe.client.MoeOptions;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.database.Db;
-import com.google.devtools.moe.client.database.FileDb;
+import com.google.devtools.moe.client.database.Dbs;
 import com.google.devtools.moe.client.logic.FindEquivalenceLogic;
 import com.google.devtools.moe.client.parser.Parser;
 import com.google.devtools.moe.client.parser.Parser.ParseError;
@@ -43,7 +44,7 @@ public class FindEquivalenceDirective implements Directive {
     } else {
       // TODO(user): also allow for url dbLocation types
       try {
-        db = FileDb.makeDbFromFile(options.dbLocation);
+        db = Dbs.makeDbFromFile(options.dbLocation);
       } catch (MoeProblem e) {
         AppContext.RUN.ui.error(e, "Error creating DB");
         return 1;
@@ -68,7 +69,7 @@ public class FindEquivalenceDirective implements Directive {
 
     List<Revision> revs = Revision.fromRepositoryExpression(repoEx, context);
 
-    FindEquivalenceLogic.printEquivalences(revs, options.inRepository, db);
+    FindEquivalenceLogic.printEquivalences(revs, options.inRepository, db, options.transitive);
     return 0;
   }
 
@@ -86,5 +87,8 @@ public class FindEquivalenceDirective implements Directive {
     @Option(name = "--in_repository", required = true,
             usage = "Which repository to find equivalences in")
     String inRepository = "";
+    @Option(name = "--transitive", handler = BooleanOptionHandler.class,
+            usage = "Also find equivalences through other repositories")
+    boolean transitive = false;
   }
 }
@@ -4,11 +4,12 @@ package com.google.devtools.moe.client.directives;
 
 import com.google.common.base.Joiner;
 import com.google.devtools.moe.client.AppContext;
+import com.google.devtools.moe.client.BooleanOptionHandler;
 import com.google.devtools.moe.client.MoeOptions;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.database.Db;
 import com.google.devtools.moe.client.database.Equivalence;
-import com.google.devtools.moe.client.database.FileDb;
+import com.google.devtools.moe.client.database.Dbs;
 import com.google.devtools.moe.client.logic.LastEquivalenceLogic;
 import com.google.devtools.moe.client.parser.Parser;
 import com.google.devtools.moe.client.parser.Parser.ParseError;
@@ -53,7 +54,7 @@ public class LastEquivalenceDirective implements Directive {
     } else {
       // TODO(user): also allow for url dbLocation types
       try {
-        db = FileDb.makeDbFromFile(options.dbLocation);
+        db = Dbs.makeDbFromFile(options.dbLocation);
       } catch (MoeProblem e) {
         AppContext.RUN.ui.error(e, "Couldn't create DB");
         return 1;
@@ -83,7 +84,7 @@ public class LastEquivalenceDirective implements Directive {
     Revision rev = rh.findHighestRevision(repoEx.getOption("revision"));
 
     List<Equivalence> lastEquivs = LastEquivalenceLogic.lastEquivalence(
-        options.withRepository, rev, db, rh);
+        options.withRepository, rev, db, rh, options.transitive);
 
     if (lastEquivs.isEmpty()) {
       AppContext.RUN.ui.info(
@@ -110,6 +111,9 @@ public class LastEquivalenceDirective implements Directive {
     @Option(name = "--with_repository", required = true,
             usage = "Name of the to-repository to check for Equivalences in")
     String withRepository = "";
+    @Option(name = "--transitive", handler = BooleanOptionHandler.class,
+            usage = "Also find equivalences through other repositories")
+    boolean transitive = false;
   }
 
 }
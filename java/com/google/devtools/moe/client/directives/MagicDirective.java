@@ -10,8 +10,8 @@ import com.google.devtools.moe.client.MoeOptions;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.database.Db;
+import com.google.devtools.moe.client.database.Dbs;
 import com.google.devtools.moe.client.database.Equivalence;
-import com.google.devtools.moe.client.database.FileDb;
 import com.google.devtools.moe.client.logic.BookkeepingLogic;
 import com.google.devtools.moe.client.logic.DetermineMigrationsLogic;
 import com.google.devtools.moe.client.logic.OneMigrationLogic;
@@ -64,7 +64,7 @@ public class MagicDirective implements Directive {
     } else {
       // TODO(user): also allow for url dbLocation types
       try {
-        db = FileDb.makeDbFromFile(options.dbLocation);
+        db = Dbs.makeDbFromFile(options.dbLocation);
       } catch (MoeProblem e) {
         AppContext.RUN.ui.error(e, "Error creating DB");
         return 1;
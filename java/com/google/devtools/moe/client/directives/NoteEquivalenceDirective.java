@@ -5,7 +5,9 @@ package com.google.devtools.moe.client.directives;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.MoeOptions;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.database.Db;
 import com.google.devtools.moe.client.database.DbStorage;
+import com.google.devtools.moe.client.database.Dbs;
 import com.google.devtools.moe.client.database.Equivalence;
 import com.google.devtools.moe.client.database.FileDb;
 import com.google.devtools.moe.client.parser.Parser;
@@ -46,10 +48,10 @@ public class NoteEquivalenceDirective implements Directive {
       return 1;
     }
 
-    FileDb db;
+    Db db;
     File dbFile = new File(options.dbLocation);
     if (AppContext.RUN.fileSystem.exists(dbFile)) {
-      db = FileDb.makeDbFromFile(dbFile.getAbsolutePath());
+      db = Dbs.makeDbFromFile(dbFile.getAbsolutePath());
     } else {
       db = new FileDb(new DbStorage());
     }
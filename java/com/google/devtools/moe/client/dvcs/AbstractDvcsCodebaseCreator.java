@@ -2,10 +2,8 @@
 
 package com.google.devtools.moe.client.dvcs;
 
-import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
-import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.codebase.CodebaseCreationError;
 import com.google.devtools.moe.client.codebase.CodebaseCreator;
@@ -72,10 +70,7 @@ public abstract class AbstractDvcsCodebaseCreator implements CodebaseCreator {
       archiveLocation = headClone.archiveAtRevision(null);
     }
 
-    // Filter files in the codebase by RepositoryConfig#ignoreFileRes.
-    Predicate<CharSequence> nonIgnoredFilePred =
-        Utils.nonMatchingPredicateFromRes(headClone.getConfig().getIgnoreFileRes());
-    Utils.filterFiles(archiveLocation, nonIgnoredFilePred);
+    // The archive already leaves out the files matching RepositoryConfig#ignoreFileRes.
 
     return new Codebase(
         archiveLocation,
@@ -59,11 +59,14 @@ public abstract class AbstractDvcsWriter<T extends LocalClone> implements Writer
     incomingChangeCodebase.checkProjectSpace(revClone.getConfig().getProjectSpace());
 
     Set<String> codebaseFiles = incomingChangeCodebase.getRelativeFilenames();
-    Set<String> writerRepoFiles = Utils.filterByRegEx(
-        Utils.makeFilenamesRelative(
-            AppContext.RUN.fileSystem.findFiles(getRoot()),
-            getRoot()),
-        getIgnoreFilePatterns());
+    // Files outside the configured paths aren't part of the codebase, so they must not be removed.
+    Set<String> writerRepoFiles = Utils.filterByPaths(
+        Utils.filterByRegEx(
+            Utils.makeFilenamesRelative(
+                AppContext.RUN.fileSystem.findFiles(getRoot()),
+                getRoot()),
+            getIgnoreFilePatterns()),
+        revClone.getConfig().getPaths());
 
     Set<String> filesToUpdate = Sets.union(codebaseFiles, writerRepoFiles);
 
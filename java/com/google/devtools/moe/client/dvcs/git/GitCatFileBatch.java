@@ -0,0 +1,194 @@
+// Copyright 2011 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.dvcs.git;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.NullOutputStream;
+import com.google.devtools.moe.client.AppContext;
+import com.google.devtools.moe.client.MoeProblem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A long-lived 'git cat-file --batch' process attached to a clone. Object queries are written to
+ * its stdin and answered on its stdout, so many lookups cost one fork instead of one each.
+ *
+ * <p>Queries are pipelined in chunks small enough that the request bytes always fit in the
+ * pipe, so writing a chunk never blocks on git filling its stdout. If the process dies, it is
+ * restarted and the chunk is retried once.
+ */
+class GitCatFileBatch {
+
+  /** The most request bytes written before reading responses back. */
+  private static final int MAX_CHUNK_BYTES = 16 * 1024;
+
+  /** An object read from the repository. */
+  static class GitObject {
+    /** The full hash of the object. */
+    final String hash;
+    /** The object type: commit, tree, blob or tag. */
+    final String type;
+    final byte[] content;
+
+    GitObject(String hash, String type, byte[] content) {
+      this.hash = hash;
+      this.type = type;
+      this.content = content;
+    }
+  }
+
+  private final File cloneDir;
+  private Process process;
+  private OutputStream stdin;
+  private InputStream stdout;
+
+  GitCatFileBatch(File cloneDir) {
+    this.cloneDir = cloneDir;
+  }
+
+  /**
+   * Looks up an object by any name 'git rev-parse' understands, e.g. "master^{commit}".
+   *
+   * @return the object, or null if the name doesn't resolve to one
+   */
+  GitObject get(String objectName) {
+    return get(ImmutableList.of(objectName)).get(0);
+  }
+
+  /**
+   * Looks up many objects, pipelining the queries over the batch process.
+   *
+   * @return the objects in the order of the names, with null for names that don't resolve
+   */
+  synchronized List<GitObject> get(List<String> objectNames) {
+    List<GitObject> result = Lists.newArrayListWithCapacity(objectNames.size());
+    int start = 0;
+    while (start < objectNames.size()) {
+      int end = start;
+      int chunkBytes = 0;
+      do {
+        String name = objectNames.get(end);
+        Preconditions.checkArgument(
+            name.indexOf('\n') < 0, "Invalid object name for git: %s", name);
+        chunkBytes += name.length() + 1;
+        end++;
+      } while (end < objectNames.size() && chunkBytes < MAX_CHUNK_BYTES);
+
+      List<String> chunk = objectNames.subList(start, end);
+      try {
+        result.addAll(query(chunk));
+      } catch (IOException e) {
+        // The process may have died, e.g. been killed. Start a fresh one and retry once.
+        close();
+        try {
+          result.addAll(query(chunk));
+        } catch (IOException retryException) {
+          close();
+          throw new MoeProblem(retryException,
+              "Failed to read objects from git cat-file --batch in %s", cloneDir);
+        }
+      }
+      start = end;
+    }
+    return result;
+  }
+
+  /** Stops the batch process, if it is running. It is restarted on the next query. */
+  synchronized void close() {
+    if (process != null) {
+      Closeables.closeQuietly(stdin);
+      Closeables.closeQuietly(stdout);
+      process.destroy();
+      process = null;
+    }
+  }
+
+  private List<GitObject> query(List<String> objectNames) throws IOException {
+    ensureStarted();
+    for (String name : objectNames) {
+      stdin.write((name + "\n").getBytes("UTF-8"));
+    }
+    stdin.flush();
+
+    // Not an ImmutableList, which can't hold the nulls for missing objects.
+    List<GitObject> objects = Lists.newArrayListWithCapacity(objectNames.size());
+    for (int i = 0; i < objectNames.size(); i++) {
+      objects.add(readResponse());
+    }
+    return objects;
+  }
+
+  /**
+   * Reads one response: either "<hash> <type> <size>\n<content>\n", or "<name> missing\n" (or
+   * "ambiguous") for a name that doesn't resolve.
+   */
+  private GitObject readResponse() throws IOException {
+    String header = readLine();
+    if (header.endsWith(" missing") || header.endsWith(" ambiguous")) {
+      return null;
+    }
+    String[] fields = header.split(" ");
+    int size;
+    try {
+      size = Integer.parseInt(fields[2]);
+    } catch (RuntimeException e) {
+      throw new IOException("Unexpected git cat-file header: " + header);
+    }
+    byte[] content = new byte[size];
+    ByteStreams.readFully(stdout, content);
+    if (stdout.read() != '\n') {
+      throw new IOException("Missing terminator after git object " + fields[0]);
+    }
+    return new GitObject(fields[0], fields[1], content);
+  }
+
+  private String readLine() throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = stdout.read()) != '\n') {
+      if (b == -1) {
+        throw new IOException("git cat-file --batch exited unexpectedly");
+      }
+      line.write(b);
+    }
+    return line.toString("UTF-8");
+  }
+
+  private void ensureStarted() throws IOException {
+    if (process != null) {
+      return;
+    }
+    if (AppContext.RUN != null) {
+      AppContext.RUN.ui.debug(cloneDir + "$ git cat-file --batch");
+    }
+    process = new ProcessBuilder("git", "cat-file", "--batch").directory(cloneDir).start();
+    stdin = new BufferedOutputStream(process.getOutputStream());
+    stdout = new BufferedInputStream(process.getInputStream());
+    // Nothing useful is written to stderr, but it must not fill up and block the process.
+    final InputStream stderr = process.getErrorStream();
+    Thread drainer = new Thread("git-cat-file-stderr") {
+      @Override public void run() {
+        try {
+          ByteStreams.copy(stderr, new NullOutputStream());
+        } catch (IOException e) {
+          // The process is gone; nothing left to drain.
+        } finally {
+          Closeables.closeQuietly(stderr);
+        }
+      }
+    };
+    drainer.setDaemon(true);
+    drainer.start();
+  }
+}
@@ -2,19 +2,31 @@
 
 package com.google.devtools.moe.client.dvcs.git;
 
+import com.google.common.base.CharMatcher;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.devtools.moe.client.CommandRunner.OutputHandler;
 import com.google.devtools.moe.client.FileSystem.Lifetime;
 import com.google.devtools.moe.client.Lifetimes;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.TarExtractor;
+import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.codebase.LocalClone;
+import com.google.devtools.moe.client.dvcs.MirrorCache;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Git implementation of {@link LocalClone}, i.e. a 'git clone' to local disk.
@@ -32,7 +44,25 @@ public class GitClonedRepository implements LocalClone {
   private boolean clonedLocally;
   /** The revision of this clone, a Git hash ID */
   private String revId;
+  /** Answers object lookups in this clone, started on first use. */
+  private GitCatFileBatch catFileBatch;
   
+  /** Keeps bare mirrors of git repositories, updated by fetching all their refs. */
+  private static final MirrorCache.MirrorUpdater MIRROR_UPDATER = new MirrorCache.MirrorUpdater() {
+    @Override
+    public void create(String url, File mirror) throws CommandException {
+      GitRepository.runGitCommand(
+          ImmutableList.of("clone", "--mirror", url, mirror.getAbsolutePath()),
+          "" /*workingDirectory*/);
+    }
+
+    @Override
+    public void update(String url, File mirror) throws CommandException {
+      GitRepository.runGitCommand(
+          ImmutableList.of("fetch", "--prune", "origin"), mirror.getAbsolutePath());
+    }
+  };
+
   GitClonedRepository(String repositoryName, RepositoryConfig repositoryConfig) {
     this(repositoryName, repositoryConfig, repositoryConfig.getUrl());
   }
@@ -45,6 +75,34 @@ public class GitClonedRepository implements LocalClone {
     this.clonedLocally = false;
   }
 
+  /**
+   * Makes a new clone of the repository that source is a clone of, from source rather than from
+   * the repository: a local clone hard-links its objects, so it needs no network access and
+   * little copying. Unlike a worktree or a 'clone --shared', it doesn't depend on source, which
+   * may be deleted first. The new clone is given source's remote-tracking branches, which a plain
+   * clone of source lacks, so that it can be updated to revisions on any imported branch, and is
+   * pointed back at the repository, so that it can be pushed to as usual.
+   *
+   * @param source  a clone of the repository, cloned locally
+   * @param cloneLifetime  the lifetime of the new clone
+   */
+  static GitClonedRepository cloneFromLocalClone(
+      GitClonedRepository source, Lifetime cloneLifetime) {
+    String sourcePath = source.getLocalTempDir().getAbsolutePath();
+    GitClonedRepository clone =
+        new GitClonedRepository(source.getRepositoryName(), source.getConfig(), sourcePath);
+    clone.cloneLocallyAtHead(cloneLifetime);
+    try {
+      clone.runGitCommand(
+          "fetch", sourcePath, "+refs/remotes/origin/*:refs/remotes/origin/*");
+      clone.runGitCommand("remote", "set-url", "origin", source.repositoryUrl);
+    } catch (CommandException e) {
+      throw new MoeProblem(
+          "Could not set up git clone at " + clone.getLocalTempDir() + ": " + e.stderr);
+    }
+    return clone;
+  }
+
   @Override
   public String getRepositoryName() {
     return repositoryName;
@@ -69,15 +127,23 @@ public class GitClonedRepository implements LocalClone {
     String tempDirName = String.format("git_clone_%s_", repositoryName);
     localCloneTempDir = AppContext.RUN.fileSystem.getTemporaryDirectory(tempDirName, cloneLifetime);
 
+    // Clone from the local mirror if there is one, which hard-links its objects, and then point
+    // the clone back at the real repository so that it can be pushed to as usual.
+    File mirror = repositoryUrl.equals(repositoryConfig.getUrl())
+        ? MirrorCache.getMirror("git", repositoryUrl, MIRROR_UPDATER)
+        : null;
     try {
       GitRepository.runGitCommand(
           ImmutableList.<String>of(
               "clone",
-              repositoryUrl,
+              (mirror == null) ? repositoryUrl : mirror.getAbsolutePath(),
               localCloneTempDir.getAbsolutePath()),
           "" /*workingDirectory*/);
       clonedLocally = true;
       this.revId = "HEAD";
+      if (mirror != null) {
+        runGitCommand("remote", "set-url", "origin", repositoryUrl);
+      }
     } catch (CommandException e) {
       throw new MoeProblem(
           "Could not clone from git repo at " + repositoryUrl + ": " + e.stderr);
@@ -113,35 +179,60 @@ public class GitClonedRepository implements LocalClone {
     File archiveLocation = AppContext.RUN.fileSystem.getTemporaryDirectory(
         String.format("git_archive_%s_%s_", repositoryName, revId),
         Lifetimes.currentTask());
-    // Using this just to get a filename.
-    String tarballPath = AppContext.RUN.fileSystem.getTemporaryDirectory(
-        String.format("git_tarball_%s_%s.tar.", repositoryName, revId),
-        Lifetimes.currentTask()).getAbsolutePath();
+    List<String> ignoreFileRes = repositoryConfig.getIgnoreFileRes();
+    final Predicate<CharSequence> nonIgnoredFilePred =
+        Utils.nonMatchingPredicateFromRes(ignoreFileRes);
     try {
-
-      // Git doesn't support archiving to a directory: it only supports
-      // archiving to a tar.  The fastest way to do this would be to pipe the
-      // output directly into tar, however, there's no option for that using
-      // the classes we have. (michaelpb)
-      runGitCommand(
-          "archive",
-          "--format=tar",
-          "--output=" + tarballPath,
-          revId);
-
       // Make the directory to untar into
       AppContext.RUN.fileSystem.makeDirs(archiveLocation);
 
-      // Untar the tarball we just made
-      AppContext.RUN.cmd.runCommand(
-          "tar", 
-          ImmutableList.<String>of(
-              "xf",
-              tarballPath,
-              "-C",
-              archiveLocation.getAbsolutePath()),
-          "");
-    
+      // Only archive the configured paths, if any, that exist at this revision: 'git archive'
+      // fails on a path that doesn't, e.g. at a revision from before it was created.
+      List<String> paths = repositoryConfig.getPaths();
+      if (!paths.isEmpty()) {
+        paths = existingPaths(revId, paths);
+        if (paths.isEmpty()) {
+          return archiveLocation;
+        }
+      }
+      List<String> treeArgs =
+          ImmutableList.<String>builder().add(revId, "--").addAll(paths).build();
+
+      // Git doesn't support archiving to a directory: it only supports archiving to a tar.
+      if (TarExtractor.isEnabled()) {
+        // Unpack git's output as it is produced, with no tarball on disk and no tar process, and
+        // never write the files ignored by ignore_file_res.
+        final File destination = archiveLocation;
+        runGitCommandStreaming(new OutputHandler<Void>() {
+          @Override public Void handleOutput(InputStream stdout) throws IOException {
+            TarExtractor.extract(stdout, destination, nonIgnoredFilePred);
+            return null;
+          }
+        }, ImmutableList.<String>builder().add("archive", "--format=tar").addAll(treeArgs).build()
+            .toArray(new String[0]));
+      } else {
+        // Using this just to get a filename.
+        String tarballPath = AppContext.RUN.fileSystem.getTemporaryDirectory(
+            String.format("git_tarball_%s_%s.tar.", repositoryName, revId),
+            Lifetimes.currentTask()).getAbsolutePath();
+        runGitCommand(ImmutableList.<String>builder()
+            .add("archive", "--format=tar", "--output=" + tarballPath)
+            .addAll(treeArgs)
+            .build());
+
+        // Untar the tarball we just made
+        AppContext.RUN.cmd.runCommand(
+            "tar",
+            ImmutableList.<String>of(
+                "xf",
+                tarballPath,
+                "-C",
+                archiveLocation.getAbsolutePath()),
+            "");
+        if (!ignoreFileRes.isEmpty()) {
+          Utils.filterFiles(archiveLocation, nonIgnoredFilePred);
+        }
+      }
     } catch (CommandException e) {
       throw new MoeProblem(
           "Could not archive git clone at " + 
@@ -155,6 +246,28 @@ public class GitClonedRepository implements LocalClone {
     return archiveLocation;
   }
 
+  /**
+   * Returns those of paths that exist at revId, in order.
+   */
+  private List<String> existingPaths(String revId, List<String> paths) throws CommandException {
+    List<String> names = Lists.newArrayList();
+    for (String path : paths) {
+      names.add(CharMatcher.is('/').trimTrailingFrom(path));
+    }
+    Set<String> existing = ImmutableSet.copyOf(Splitter.on('\0').omitEmptyStrings().split(
+        runGitCommand(ImmutableList.<String>builder()
+            .add("ls-tree", "--name-only", "-z", revId, "--")
+            .addAll(names)
+            .build())));
+    ImmutableList.Builder<String> result = ImmutableList.builder();
+    for (int i = 0; i < paths.size(); i++) {
+      if (existing.contains(names.get(i))) {
+        result.add(paths.get(i));
+      }
+    }
+    return result.build();
+  }
+
   /**
    * Runs a git command with the given arguments, in this cloned repository's directory.
    * 
@@ -175,4 +288,41 @@ public class GitClonedRepository implements LocalClone {
     return AppContext.RUN.cmd.runCommand("git", ImmutableList.copyOf(args),
         getLocalTempDir().getAbsolutePath() /*workingDirectory*/);
   }
+
+  /**
+   * Runs a git command with the given arguments, in this cloned repository's directory, passing
+   * its STDOUT to the given handler as it is produced.
+   *
+   * @param handler the consumer of the command's STDOUT
+   * @param args a list of arguments for git
+   * @return the handler's result
+   */
+  <T> T runGitCommandStreaming(OutputHandler<T> handler, String... args)
+      throws CommandException {
+    return AppContext.RUN.cmd.runCommandStreaming("git", ImmutableList.copyOf(args),
+        getLocalTempDir().getAbsolutePath() /*workingDirectory*/, handler);
+  }
+
+  /**
+   * Reads an object from this clone through a long-lived 'git cat-file --batch' process.
+   *
+   * @param objectName any name git understands, e.g. a hash, a branch, or "master^{commit}"
+   * @return the object, or null if the name doesn't resolve to one
+   */
+  GitCatFileBatch.GitObject catFile(String objectName) {
+    return catFile(ImmutableList.of(objectName)).get(0);
+  }
+
+  /**
+   * Reads many objects from this clone, pipelining the lookups over one process.
+   *
+   * @param objectNames names of the objects to read
+   * @return the objects in order, with null for names that don't resolve
+   */
+  synchronized List<GitCatFileBatch.GitObject> catFile(List<String> objectNames) {
+    if (catFileBatch == null) {
+      catFileBatch = new GitCatFileBatch(getLocalTempDir());
+    }
+    return catFileBatch.get(objectNames);
+  }
 }
@@ -11,6 +11,7 @@ import com.google.devtools.moe.client.Lifetimes;
 import com.google.devtools.moe.client.project.InvalidProject;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 import com.google.devtools.moe.client.project.RepositoryType;
+import com.google.devtools.moe.client.repositories.CachingRevisionHistory;
 import com.google.devtools.moe.client.repositories.Repository;
 
 import java.util.List;
@@ -38,17 +39,9 @@ public class GitRepository {
       throw new InvalidProject("Git repository config missing \"url\".");
     }
 
-    Supplier<GitClonedRepository> freshSupplier = new Supplier<GitClonedRepository>() {
-      @Override public GitClonedRepository get() {
-        GitClonedRepository headClone = new GitClonedRepository(name, config);
-        headClone.cloneLocallyAtHead(Lifetimes.currentTask());
-        return headClone;
-      }
-    };
-
     // RevisionHistory and CodebaseCreator don't modify their clones, so they can use a shared,
     // memoized supplier.
-    Supplier<GitClonedRepository> memoizedSupplier = Suppliers.memoize(
+    final Supplier<GitClonedRepository> memoizedSupplier = Suppliers.memoize(
         new Supplier<GitClonedRepository>() {
           @Override public GitClonedRepository get() {
             GitClonedRepository tipClone = new GitClonedRepository(name, config);
@@ -57,6 +50,15 @@ public class GitRepository {
           }
         });
 
+    // Writers get clones of their own, made from the shared clone rather than from the
+    // repository, which needs no network access and little copying.
+    Supplier<GitClonedRepository> freshSupplier = new Supplier<GitClonedRepository>() {
+      @Override public GitClonedRepository get() {
+        return GitClonedRepository.cloneFromLocalClone(
+            memoizedSupplier.get(), Lifetimes.currentTask());
+      }
+    };
+
     GitRevisionHistory rh = new GitRevisionHistory(memoizedSupplier);
 
     String projectSpace = config.getProjectSpace();
@@ -69,7 +71,7 @@ public class GitRepository {
 
     GitWriterCreator wc = new GitWriterCreator(freshSupplier, rh);
 
-    return new Repository(name, rh, cc, wc);
+    return new Repository(name, CachingRevisionHistory.wrapIfEnabled(name, rh), cc, wc);
   }
   
   /**
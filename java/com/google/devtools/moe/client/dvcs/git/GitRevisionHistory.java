@@ -3,20 +3,30 @@
 package com.google.devtools.moe.client.dvcs.git;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.devtools.moe.client.CommandRunner.OutputHandler;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.repositories.AbstractRevisionHistory;
 import com.google.devtools.moe.client.repositories.Revision;
 import com.google.devtools.moe.client.repositories.RevisionMetadata;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 
 /**
  * A Git implementation of {@link AbstractRevisionHistory}.
@@ -30,7 +40,19 @@ public class GitRevisionHistory extends AbstractRevisionHistory {
   private static final SimpleDateFormat RFC_2822_DATE_TIME_FORMAT =
       new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z");
 
-  @VisibleForTesting static final String LOG_DELIMITER = "---@MOE@---";
+  /**
+   * The format of dates printed by {@code git log --date=rfc}, in the author's time zone.
+   */
+  private static final String GIT_RFC_2822_FORMAT = "EEE, d MMM yyyy HH:mm:ss Z";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Format for 'git log -z': hash, author, fullAuthor, date, parents, full commit message
+   * (subject and body), each terminated by NUL.
+   */
+  @VisibleForTesting static final String NUL_DELIMITED_LOG_FORMAT =
+      "%H%x00%an%x00%aN <%aE>%x00%ad%x00%P%x00%B";
 
   /**
    * The default Git branch in which to look for revisions.
@@ -39,13 +61,19 @@ public class GitRevisionHistory extends AbstractRevisionHistory {
 
   private final Supplier<GitClonedRepository> headCloneSupplier;
 
+  /**
+   * Authors as 'git check-mailmap' maps them, by their raw "Name <email>", so that each author
+   * costs one git run however many of their commits are read.
+   */
+  private final Map<String, String> mailmap = Maps.newHashMap();
+
   GitRevisionHistory(Supplier<GitClonedRepository> headCloneSupplier) {
     this.headCloneSupplier = headCloneSupplier;
   }
 
   /**
-   * Confirm the existence of the given hash ID via 'git log', or pull the most recent
-   * hash ID if none is given. 
+   * Confirm the existence of the given hash ID via 'git cat-file', or pull the most recent
+   * hash ID if none is given.
    *
    * @param revId a revision ID (or the name of a branch)
    * @return a Revision corresponding to the given revId hash
@@ -56,22 +84,14 @@ public class GitRevisionHistory extends AbstractRevisionHistory {
       revId = DEFAULT_BRANCH; 
     }
 
-    String hashID;
     GitClonedRepository headClone = headCloneSupplier.get();
-    try {
-      hashID = headClone.runGitCommand("log", "--max-count=1", "--format=%H", revId);
-    } catch (CommandException e) {
+    GitCatFileBatch.GitObject commit = headClone.catFile(revId + "^{commit}");
+    if (commit == null) {
       throw new MoeProblem(
-          String.format(
-              "Failed git log run: %d %s %s",
-              e.returnStatus,
-              e.stdout,
-              e.stderr));
+          String.format("Unknown revision '%s' in git repository %s",
+              revId, headClone.getRepositoryName()));
     }
-    // Clean up output.
-    hashID = hashID.replaceAll("\\W", "");
-
-    return new Revision(hashID, headClone.getRepositoryName());
+    return new Revision(commit.hash, headClone.getRepositoryName());
   }
 
   /**
@@ -88,16 +108,43 @@ public class GitRevisionHistory extends AbstractRevisionHistory {
                         revision.revId, revision.repositoryName, headClone.getRepositoryName()));
     }
 
-    // Format: hash, author, fullAuthor, date, parents, full commit message (subject and body)
-    String format = Joiner.on(LOG_DELIMITER).join("%H", "%an", "%aN <%aE>", "%ad", "%P", "%B");
+    GitCatFileBatch.GitObject commit = headClone.catFile(revision.revId + "^{commit}");
+    if (commit == null) {
+      throw new MoeProblem(
+          String.format("Could not get metadata: Unknown revision '%s' in git repository %s",
+              revision.revId, headClone.getRepositoryName()));
+    }
+    return parseCommitObject(commit.hash, commit.content);
+  }
+
+  /**
+   * Read the metadata for a revision and its ancestors with a single 'git log'.
+   *
+   * @param revision  the revision to start at
+   * @param maxCount  the maximum number of revisions to read
+   */
+  @Override
+  public List<RevisionMetadata> getAncestorMetadata(Revision revision, int maxCount) {
+    GitClonedRepository headClone = headCloneSupplier.get();
+    if (!headClone.getRepositoryName().equals(revision.repositoryName)) {
+      throw new MoeProblem(
+          String.format("Could not get metadata: Revision %s is in repository %s instead of %s",
+                        revision.revId, revision.repositoryName, headClone.getRepositoryName()));
+    }
 
-    String log;
     try {
-      log = headClone.runGitCommand(
+      return headClone.runGitCommandStreaming(
+          new OutputHandler<List<RevisionMetadata>>() {
+            @Override public List<RevisionMetadata> handleOutput(InputStream stdout)
+                throws IOException {
+              return parseNulDelimitedLog(
+                  new BufferedReader(new InputStreamReader(stdout, UTF_8)));
+            }
+          },
           "log",
-          // Ensure one revision only, to be safe.
-          "--max-count=1",
-          "--format=" + format,
+          "-z",
+          "--max-count=" + maxCount,
+          "--format=" + NUL_DELIMITED_LOG_FORMAT,
           // Specify the date format so it can be parsed easily.
           "--date=rfc",
           revision.revId);
@@ -105,20 +152,158 @@ public class GitRevisionHistory extends AbstractRevisionHistory {
       throw new MoeProblem(
           String.format("Failed git run: %d %s %s", e.returnStatus, e.stdout, e.stderr));
     }
+  }
 
-    return parseMetadata(log);
+  /**
+   * Parse the output of 'git log -z' in {@link #NUL_DELIMITED_LOG_FORMAT} into RevisionMetadata,
+   * one revision at a time.
+   *
+   * @param log  the output of getAncestorMetadata to parse
+   */
+  @VisibleForTesting List<RevisionMetadata> parseNulDelimitedLog(Reader log) throws IOException {
+    ImmutableList.Builder<RevisionMetadata> result = ImmutableList.builder();
+    String hash;
+    while ((hash = readUntil(log, "\0")) != null) {
+      ImmutableList.Builder<String> split = ImmutableList.builder();
+      split.add(hash);
+      for (int i = 1; i < 6; i++) {
+        String field = readUntil(log, "\0");
+        if (field == null) {
+          throw new MoeProblem(String.format(
+              "Truncated git log output for revision %s: expected 6 fields, got %d", hash, i));
+        }
+        // With -z, commits are terminated by NUL in place of the newline that would follow %B.
+        split.add((i == 5) ? field + "\n" : field);
+      }
+      result.add(parseMetadata(split.build()));
+    }
+    return result.build();
   }
 
   /**
-   * Parse the output of Git into RevisionMetadata.
+   * Parse a raw commit object, as printed by 'git cat-file commit', into RevisionMetadata. The
+   * fields are those 'git log --format=%an,%aN <%aE>,%ad,%P,%B --date=rfc' would print: like
+   * %aN and %aE, the full author has .mailmap applied.
    *
-   * @param log  the output of getMetadata to parse
+   * @param hash  the hash of the commit
+   * @param content  the body of the commit object
    */
-  @VisibleForTesting RevisionMetadata parseMetadata(String log) {
-    // Split on the log delimiter. Limit to 6 so that it will act correctly
-    // even if the log delimiter happens to be in the commit message.
-    List<String> split = ImmutableList.copyOf(Splitter.on(LOG_DELIMITER).limit(6).split(log));
+  @VisibleForTesting RevisionMetadata parseCommitObject(String hash, byte[] content) {
+    String repositoryName = headCloneSupplier.get().getRepositoryName();
+    ImmutableList.Builder<Revision> parentBuilder = ImmutableList.<Revision>builder();
+    String authorLine = null;
+    Charset encoding = UTF_8;
+
+    // Headers are one per line up to a blank line. Multi-line headers such as gpgsig continue
+    // on lines starting with a space.
+    int pos = 0;
+    while (pos < content.length && content[pos] != '\n') {
+      int end = indexOf(content, (byte) '\n', pos);
+      String header = new String(content, pos, end - pos, UTF_8);
+      pos = Math.min(end + 1, content.length);
+      if (header.startsWith("parent ")) {
+        parentBuilder.add(new Revision(header.substring("parent ".length()), repositoryName));
+      } else if (header.startsWith("author ")) {
+        authorLine = header.substring("author ".length());
+      } else if (header.startsWith("encoding ")) {
+        try {
+          encoding = Charset.forName(header.substring("encoding ".length()));
+        } catch (IllegalArgumentException e) {
+          // Unknown encodings are read as UTF-8, as git log does.
+        }
+      }
+    }
+    // Skip the blank line ending the headers. Like %B, the message is followed by a newline.
+    pos = Math.min(pos + 1, content.length);
+    String description = new String(content, pos, content.length - pos, encoding) + "\n";
+
+    if (authorLine == null) {
+      throw new MoeProblem(String.format("Commit %s has no author.", hash));
+    }
+    // Format: "Name <email> seconds-since-epoch timezone"
+    int emailStart = authorLine.lastIndexOf('<');
+    int emailEnd = authorLine.lastIndexOf('>');
+    List<String> timestamp = ImmutableList.copyOf(
+        Splitter.on(' ').omitEmptyStrings().split(authorLine.substring(emailEnd + 1)));
+    if (emailStart < 0 || emailEnd < emailStart || timestamp.size() != 2) {
+      throw new MoeProblem(String.format(
+          "Failed to parse author '%s' from revision %s.", authorLine, hash));
+    }
+    String author = authorLine.substring(0, emailStart).trim();
+    String email = authorLine.substring(emailStart + 1, emailEnd);
+
+    Date normalizedDate;
+    String date;
+    try {
+      normalizedDate = new Date(Long.parseLong(timestamp.get(0)) * 1000);
+      String zone = timestamp.get(1);
+      SimpleDateFormat format = new SimpleDateFormat(GIT_RFC_2822_FORMAT, Locale.US);
+      format.setTimeZone(TimeZone.getTimeZone(
+          "GMT" + zone.substring(0, 3) + ":" + zone.substring(3)));
+      date = format.format(normalizedDate);
+    } catch (RuntimeException e) {
+      throw new MoeProblem(String.format(
+          "Failed to parse date '%s' from revision %s.", authorLine, hash));
+    }
+
+    return new RevisionMetadata(
+        hash,
+        author,
+        date,
+        description,
+        parentBuilder.build(),
+        applyMailmap(author + " <" + email + ">"),
+        normalizedDate);
+  }
+
+  /**
+   * Returns the given "Name <email>" as the head clone's .mailmap maps it, as git log's %aN and
+   * %aE would print it.
+   */
+  private synchronized String applyMailmap(String fullAuthor) {
+    String mapped = mailmap.get(fullAuthor);
+    if (mapped == null) {
+      try {
+        mapped = headCloneSupplier.get().runGitCommand("check-mailmap", fullAuthor).trim();
+      } catch (CommandException e) {
+        throw new MoeProblem(
+            String.format("Failed git run: %d %s %s", e.returnStatus, e.stdout, e.stderr));
+      }
+      mailmap.put(fullAuthor, mapped);
+    }
+    return mapped;
+  }
+
+  private static int indexOf(byte[] bytes, byte b, int from) {
+    for (int i = from; i < bytes.length; i++) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+    return bytes.length;
+  }
+
+  /**
+   * Reads characters up to the next occurrence of the delimiter, consuming but not including it.
+   *
+   * @return the characters read, or null if the stream was already at its end
+   */
+  static String readUntil(Reader in, String delimiter) throws IOException {
+    StringBuilder field = new StringBuilder();
+    int c;
+    while ((c = in.read()) != -1) {
+      field.append((char) c);
+      int start = field.length() - delimiter.length();
+      if (c == delimiter.charAt(delimiter.length() - 1) && start >= 0
+          && field.indexOf(delimiter, start) == start) {
+        field.setLength(start);
+        return field.toString();
+      }
+    }
+    return (field.length() == 0) ? null : field.toString();
+  }
 
+  private RevisionMetadata parseMetadata(List<String> split) {
     // The fourth item contains all of the parents, each separated by a space.
     ImmutableList.Builder<Revision> parentBuilder = ImmutableList.<Revision>builder();
     for (String parent : Splitter.on(" ").omitEmptyStrings().split(split.get(4))) {
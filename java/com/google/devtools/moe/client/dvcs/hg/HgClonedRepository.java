@@ -2,19 +2,24 @@
 
 package com.google.devtools.moe.client.dvcs.hg;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.FileSystem.Lifetime;
 import com.google.devtools.moe.client.Lifetimes;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.codebase.LocalClone;
+import com.google.devtools.moe.client.dvcs.MirrorCache;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Hg implementation of LocalClone, i.e. an 'hg clone' to local disk.
@@ -36,6 +41,27 @@ public class HgClonedRepository implements LocalClone {
   /** The revision of this clone, an Hg changeset ID */
   private String revId;
 
+  /** What 'hg archive' says when aborting because its --include patterns match no file. */
+  private static final String NO_FILES_MATCH = "no files match";
+
+  /** Keeps mirrors of hg repositories, without working copies, updated by pulling. */
+  private static final MirrorCache.MirrorUpdater MIRROR_UPDATER = new MirrorCache.MirrorUpdater() {
+    @Override
+    public void create(String url, File mirror) throws CommandException {
+      HgRepository.runHgCommand(
+          ImmutableList.of("clone", "--noupdate", url, mirror.getAbsolutePath()),
+          "" /*workingDirectory*/);
+    }
+
+    @Override
+    public void update(String url, File mirror) throws CommandException {
+      // A one-off command, so it isn't worth starting a command server in the mirror for.
+      HgRepository.runHgCommand(
+          ImmutableList.of("--repository", mirror.getAbsolutePath(), "pull", url),
+          "" /*workingDirectory*/);
+    }
+  };
+
   public HgClonedRepository(String repositoryName, RepositoryConfig repositoryConfig) {
     this(repositoryName, repositoryConfig, repositoryConfig.getUrl());
   }
@@ -71,19 +97,32 @@ public class HgClonedRepository implements LocalClone {
     String tempDirName = String.format("hg_clone_%s_", repositoryName);
     localCloneTempDir = AppContext.RUN.fileSystem.getTemporaryDirectory(tempDirName, cloneLifetime);
 
+    // Clone from the local mirror if there is one, which hard-links its store, and then point
+    // the clone back at the real repository so that it can be pushed to as usual.
+    File mirror = repositoryUrl.equals(repositoryConfig.getUrl())
+        ? MirrorCache.getMirror("hg", repositoryUrl, MIRROR_UPDATER)
+        : null;
     try {
       HgRepository.runHgCommand(
           ImmutableList.of(
               "clone",
               "--update=" + HgRevisionHistory.DEFAULT_BRANCH,
-              repositoryUrl,
+              (mirror == null) ? repositoryUrl : mirror.getAbsolutePath(),
               localCloneTempDir.getAbsolutePath()),
           "" /*workingDirectory*/);
       clonedLocally = true;
       revId = HgRevisionHistory.DEFAULT_BRANCH;
+      if (mirror != null) {
+        AppContext.RUN.fileSystem.write(
+            "[paths]\ndefault = " + repositoryUrl + "\n",
+            new File(localCloneTempDir, ".hg/hgrc"));
+      }
     } catch (CommandException e) {
       throw new MoeProblem(
           "Could not clone from hg repo at " + repositoryUrl + ": " + e.stderr);
+    } catch (IOException e) {
+      throw new MoeProblem(
+          "Could not set the default path of hg clone at " + localCloneTempDir + ": " + e);
     }
   }
 
@@ -109,16 +148,38 @@ public class HgClonedRepository implements LocalClone {
     File archiveLocation = AppContext.RUN.fileSystem.getTemporaryDirectory(
         String.format("hg_archive_%s_%s_", repositoryName, revId), Lifetimes.currentTask());
     try {
+      ImmutableList.Builder<String> args = ImmutableList.<String>builder()
+          .add("archive", "--rev=" + revId);
+      // Only archive the configured paths, if any, each matched from the root.
+      for (String path : repositoryConfig.getPaths()) {
+        args.add("--include=path:" + path);
+      }
+      // Never write the files ignored by ignore_file_res, where hg can read the regex the same
+      // way Java does. hg's re: patterns match from the start of the path, where ignore_file_res
+      // may match anywhere in it. Files matching the other regexes are deleted afterwards.
+      List<String> javaOnlyRes = Lists.newArrayList();
+      for (String ignoreFileRe : repositoryConfig.getIgnoreFileRes()) {
+        if (isPortableToHg(ignoreFileRe)) {
+          args.add("--exclude=re:.*(?:" + ignoreFileRe + ")");
+        } else {
+          javaOnlyRes.add(ignoreFileRe);
+        }
+      }
       HgRepository.runHgCommand(
-          ImmutableList.of(
-              "archive",
-              "--rev=" + revId,
-              archiveLocation.getAbsolutePath()),
+          args.add(archiveLocation.getAbsolutePath()).build(),
           localCloneTempDir.getAbsolutePath() /*workingDirectory*/);
       clonedLocally = true;
 
       AppContext.RUN.fileSystem.deleteRecursively(new File(archiveLocation, ".hg_archival.txt"));
+      if (!javaOnlyRes.isEmpty()) {
+        Utils.filterFiles(archiveLocation, Utils.nonMatchingPredicateFromRes(javaOnlyRes));
+      }
     } catch (CommandException e) {
+      if (!repositoryConfig.getPaths().isEmpty() && e.stderr.contains(NO_FILES_MATCH)) {
+        // None of the configured paths exist at this revision, e.g. one from before they were
+        // created, so its codebase is empty. (hg archives the paths that do exist.)
+        return makeEmptyArchive(archiveLocation);
+      }
       throw new MoeProblem(
           "Could not archive hg clone at " + localCloneTempDir.getAbsolutePath() + ": " + e.stderr);
     } catch (IOException e) {
@@ -129,6 +190,65 @@ public class HgClonedRepository implements LocalClone {
     return archiveLocation;
   }
 
+  private File makeEmptyArchive(File archiveLocation) {
+    try {
+      AppContext.RUN.fileSystem.makeDirs(archiveLocation);
+    } catch (IOException e) {
+      throw new MoeProblem("Could not create " + archiveLocation + ": " + e);
+    }
+    return archiveLocation;
+  }
+
+  /**
+   * Returns whether a Java regex means the same to hg, i.e. to Python's re module. Only a common
+   * subset is accepted: literals, '.', anchors, alternation, greedy and lazy quantifiers, groups,
+   * lookaround, character classes without Java's unions and intersections, and the escapes \d,
+   * \w, \s, \b and their negations. Anything else, e.g. named groups, possessive quantifiers,
+   * inline flags or \p{...}, is read differently or rejected by Python.
+   */
+  @VisibleForTesting
+  static boolean isPortableToHg(String re) {
+    boolean inClass = false;
+    for (int i = 0; i < re.length(); i++) {
+      char c = re.charAt(i);
+      if (c == '\\') {
+        if (++i == re.length()) {
+          return false;
+        }
+        char escaped = re.charAt(i);
+        if (Character.isLetterOrDigit(escaped) && "dDwWsS".indexOf(escaped) < 0
+            && (inClass || "bB".indexOf(escaped) < 0)) {
+          return false;
+        }
+      } else if (inClass) {
+        if (c == '[' || (c == '&' && re.startsWith("&&", i))) {
+          return false;
+        }
+        if (c == ']') {
+          inClass = false;
+        }
+      } else if (c == '[') {
+        inClass = true;
+        // A ']' right after the opening '[' or '[^' is a literal in both.
+        if (re.startsWith("^", i + 1)) {
+          i++;
+        }
+        if (re.startsWith("]", i + 1)) {
+          i++;
+        }
+      } else if (c == '(' && re.startsWith("?", i + 1)) {
+        if (!re.startsWith("(?:", i) && !re.startsWith("(?=", i) && !re.startsWith("(?!", i)
+            && !re.startsWith("(?<=", i) && !re.startsWith("(?<!", i)) {
+          return false;
+        }
+        i++;
+      } else if ("*+?}".indexOf(c) >= 0 && re.startsWith("+", i + 1)) {
+        return false;
+      }
+    }
+    return !inClass;
+  }
+
   /**
    * Runs an hg command with the given arguments, in this cloned repository's directory.
    *
@@ -136,7 +256,7 @@ public class HgClonedRepository implements LocalClone {
    * @return the stdout output of the command
    */
   String runHgCommand(String... args) throws CommandException {
-    return AppContext.RUN.cmd.runCommand("hg", ImmutableList.copyOf(args),
+    return HgRepository.runHgCommand(ImmutableList.copyOf(args),
         getLocalTempDir().getAbsolutePath() /*workingDirectory*/);
   }
 }
@@ -0,0 +1,249 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.dvcs.hg;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.LimitInputStream;
+import com.google.common.io.NullOutputStream;
+import com.google.devtools.moe.client.AppContext;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.devtools.moe.client.MoeProblem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent 'hg serve --cmdserver pipe' process for one clone. Commands sent to it run in the
+ * already-started Python interpreter, saving the interpreter startup that dominates short hg
+ * commands.
+ *
+ * <p>The protocol is Mercurial's command server protocol: the server sends frames of a one-byte
+ * channel, a big-endian 4-byte length, and data. Output arrives on channels 'o' and 'e', and the
+ * exit code on 'r'. Requests for input ('I' and 'L') are answered with end-of-file.
+ *
+ * <p>Enabled by setting the system property {@code moe.hg_cmdserver} to true. If the process
+ * dies, it is restarted on the next command.
+ */
+class HgCommandServer {
+
+  /** The system property that routes hg commands in a clone through a command server. */
+  static final String ENABLED_PROPERTY = "moe.hg_cmdserver";
+
+  /** Servers by the absolute path of the clone they serve. */
+  private static final Map<String, HgCommandServer> SERVERS = Maps.newHashMap();
+
+  /**
+   * Returns whether hg commands should use a command server.
+   */
+  static boolean isEnabled() {
+    return Boolean.getBoolean(ENABLED_PROPERTY);
+  }
+
+  /**
+   * Returns the command server for the clone at the given directory, creating it if needed.
+   */
+  static synchronized HgCommandServer forDirectory(String repositoryDirectory) {
+    HgCommandServer server = SERVERS.get(repositoryDirectory);
+    if (server == null) {
+      server = new HgCommandServer(new File(repositoryDirectory));
+      SERVERS.put(repositoryDirectory, server);
+    }
+    return server;
+  }
+
+  /** The clone served, or null if this server was given fixed streams. */
+  private final File repositoryDirectory;
+  private Process process;
+  private DataInputStream fromServer;
+  private DataOutputStream toServer;
+  private Charset encoding;
+
+  private HgCommandServer(File repositoryDirectory) {
+    this.repositoryDirectory = repositoryDirectory;
+  }
+
+  /**
+   * Creates a server already connected to the given streams, which can't be restarted.
+   */
+  @VisibleForTesting HgCommandServer(InputStream fromServer, OutputStream toServer)
+      throws IOException {
+    this.repositoryDirectory = null;
+    connect(fromServer, toServer);
+  }
+
+  /**
+   * Runs an hg command in the served clone.
+   *
+   * @param args  the arguments to 'hg'
+   * @return the stdout output of the command
+   * @throws CommandException  if the command exits non-zero
+   */
+  synchronized String runCommand(List<String> args) throws CommandException {
+    if (AppContext.RUN != null) {
+      AppContext.RUN.ui.debug(
+          repositoryDirectory + "$ hg " + Joiner.on(" ").join(args) + " (command server)");
+    }
+
+    try {
+      sendCommand(args);
+    } catch (IOException e) {
+      // Nothing was run yet, so retrying with a fresh server is safe.
+      close();
+      try {
+        sendCommand(args);
+      } catch (IOException retryException) {
+        close();
+        throw new MoeProblem(retryException, "Cannot start hg command server in %s",
+            repositoryDirectory);
+      }
+    }
+
+    try {
+      return readResult(args);
+    } catch (IOException e) {
+      // The command may or may not have run, so it can't be retried.
+      close();
+      throw new MoeProblem(e, "hg command server in %s failed running: hg %s",
+          repositoryDirectory, Joiner.on(" ").join(args));
+    }
+  }
+
+  /** Stops the server process, if it is running. It is restarted on the next command. */
+  synchronized void close() {
+    Closeables.closeQuietly(toServer);
+    Closeables.closeQuietly(fromServer);
+    toServer = null;
+    fromServer = null;
+    if (process != null) {
+      process.destroy();
+      process = null;
+    }
+  }
+
+  private void sendCommand(List<String> args) throws IOException {
+    if (toServer == null) {
+      start();
+    }
+    byte[] argBytes = Joiner.on('\0').join(args).getBytes(encoding.name());
+    toServer.write("runcommand\n".getBytes("US-ASCII"));
+    toServer.writeInt(argBytes.length);
+    toServer.write(argBytes);
+    toServer.flush();
+  }
+
+  private String readResult(List<String> args) throws IOException, CommandException {
+    ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+    while (true) {
+      char channel = (char) fromServer.readUnsignedByte();
+      int length = fromServer.readInt();
+      switch (channel) {
+        case 'o':
+          copyFrame(length, stdout);
+          break;
+        case 'e':
+          copyFrame(length, stderr);
+          break;
+        case 'r':
+          int returnStatus = fromServer.readInt();
+          String stdoutData = new String(stdout.toByteArray(), encoding.name());
+          if (returnStatus == 0) {
+            return stdoutData;
+          }
+          throw new CommandException("hg", args, stdoutData,
+              new String(stderr.toByteArray(), encoding.name()), returnStatus);
+        case 'I':
+        case 'L':
+          // MOE never provides input to hg; answer with end-of-file.
+          toServer.writeInt(0);
+          toServer.flush();
+          break;
+        default:
+          if (Character.isUpperCase(channel)) {
+            throw new IOException("Unsupported required hg command server channel: " + channel);
+          }
+          // Optional channels may be ignored.
+          copyFrame(length, new NullOutputStream());
+      }
+    }
+  }
+
+  private void copyFrame(int length, OutputStream out) throws IOException {
+    ByteStreams.copy(new LimitInputStream(fromServer, length), out);
+  }
+
+  private void start() throws IOException {
+    if (repositoryDirectory == null) {
+      throw new IOException("hg command server connection is closed");
+    }
+    if (AppContext.RUN != null) {
+      AppContext.RUN.ui.debug(repositoryDirectory + "$ hg serve --cmdserver pipe");
+    }
+    process = new ProcessBuilder("hg", "serve", "--cmdserver", "pipe")
+        .directory(repositoryDirectory).start();
+    // The server only writes to its own stderr on failure, but it must not fill up and block.
+    final InputStream stderr = process.getErrorStream();
+    Thread drainer = new Thread("hg-cmdserver-stderr") {
+      @Override public void run() {
+        try {
+          ByteStreams.copy(stderr, new NullOutputStream());
+        } catch (IOException e) {
+          // The process is gone; nothing left to drain.
+        } finally {
+          Closeables.closeQuietly(stderr);
+        }
+      }
+    };
+    drainer.setDaemon(true);
+    drainer.start();
+    connect(process.getInputStream(), process.getOutputStream());
+  }
+
+  /**
+   * Reads the server's hello message, which lists its capabilities and encoding.
+   */
+  private void connect(InputStream in, OutputStream out) throws IOException {
+    fromServer = new DataInputStream(new BufferedInputStream(in));
+    toServer = new DataOutputStream(new BufferedOutputStream(out));
+    char channel = (char) fromServer.readUnsignedByte();
+    int length = fromServer.readInt();
+    ByteArrayOutputStream hello = new ByteArrayOutputStream();
+    copyFrame(length, hello);
+    if (channel != 'o') {
+      throw new IOException("Unexpected hello from hg command server on channel " + channel);
+    }
+
+    List<String> capabilities = ImmutableList.of();
+    encoding = Charset.defaultCharset();
+    for (String line : Splitter.on('\n').split(hello.toString("US-ASCII"))) {
+      if (line.startsWith("capabilities: ")) {
+        capabilities = ImmutableList.copyOf(
+            Splitter.on(' ').omitEmptyStrings().split(line.substring("capabilities: ".length())));
+      } else if (line.startsWith("encoding: ")) {
+        String name = line.substring("encoding: ".length()).trim();
+        if (Charset.isSupported(name)) {
+          encoding = Charset.forName(name);
+        }
+      }
+    }
+    if (!capabilities.contains("runcommand")) {
+      throw new IOException("hg command server doesn't support runcommand: " + hello);
+    }
+  }
+}
@@ -3,6 +3,7 @@
 package com.google.devtools.moe.client.dvcs.hg;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.devtools.moe.client.AppContext;
@@ -11,6 +12,7 @@ import com.google.devtools.moe.client.Lifetimes;
 import com.google.devtools.moe.client.project.InvalidProject;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 import com.google.devtools.moe.client.project.RepositoryType;
+import com.google.devtools.moe.client.repositories.CachingRevisionHistory;
 import com.google.devtools.moe.client.repositories.Repository;
 
 import java.util.List;
@@ -68,11 +70,18 @@ public class HgRepository {
 
     HgWriterCreator wc = new HgWriterCreator(freshSupplier, rh);
 
-    return new Repository(name, rh, cc, wc);
+    return new Repository(name, CachingRevisionHistory.wrapIfEnabled(name, rh), cc, wc);
   }
 
+  /**
+   * Runs an hg command. If {@link HgCommandServer#isEnabled()}, commands in a clone's directory
+   * go to a persistent command server for that clone instead of a new process.
+   */
   static String runHgCommand(List<String> args, String workingDirectory)
       throws CommandRunner.CommandException {
+    if (HgCommandServer.isEnabled() && !Strings.isNullOrEmpty(workingDirectory)) {
+      return HgCommandServer.forDirectory(workingDirectory).runCommand(args);
+    }
     return AppContext.RUN.cmd.runCommand("hg", args, workingDirectory);
   }
 }
@@ -8,6 +8,7 @@ import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.codebase.CodebaseCreationError;
+import com.google.devtools.moe.client.codebase.CodebaseFingerprint;
 import com.google.devtools.moe.client.database.Db;
 import com.google.devtools.moe.client.database.Equivalence;
 import com.google.devtools.moe.client.database.EquivalenceMatcher;
@@ -59,7 +60,7 @@ public class BookkeepingLogic {
     Ui.Task t = AppContext.RUN.ui.pushTask(
         "diff_codebases",
         String.format("Diff codebases '%s' and '%s'", from.toString(), to.toString()));
-    if (!CodebaseDifference.diffCodebases(from, to).areDifferent()) {
+    if (!areDifferent(from, to)) {
       RevisionHistory fromHistory = context.repositories.get(fromRepository).revisionHistory;
       RevisionHistory toHistory = context.repositories.get(toRepository).revisionHistory;
 
@@ -71,6 +72,18 @@ public class BookkeepingLogic {
     AppContext.RUN.ui.popTask(t, "");
   }
 
+  /**
+   * Returns whether two Codebases differ. With fingerprints enabled, equal fingerprints answer
+   * without diffing; otherwise, or if they differ, the Codebases are diffed up to the first file
+   * that differs.
+   */
+  private static boolean areDifferent(Codebase from, Codebase to) {
+    if (CodebaseFingerprint.isEnabled() && from.getFingerprint().equals(to.getFingerprint())) {
+      return false;
+    }
+    return CodebaseDifference.codebasesDiffer(from, to);
+  }
+
   /**
    * Find Revisions in toRepository that were the result of a migration, and call
    * processMigration() on each.
@@ -150,7 +163,7 @@ public class BookkeepingLogic {
     Ui.Task t = AppContext.RUN.ui.pushTask(
         "diff_codebases",
         String.format("Diff codebases '%s' and '%s'", from.toString(), to.toString()));
-    if (!CodebaseDifference.diffCodebases(from, to).areDifferent()) {
+    if (!areDifferent(from, to)) {
       Equivalence newEquiv = new Equivalence(fromRev, toRev);
       db.noteEquivalence(newEquiv);
       AppContext.RUN.ui.info("Codebases are identical, noted new equivalence: " + newEquiv);
@@ -2,11 +2,19 @@
 
 package com.google.devtools.moe.client.logic;
 
+import com.google.common.base.Charsets;
 import com.google.devtools.moe.client.AppContext;
+import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.tools.CodebaseDifference;
+import com.google.devtools.moe.client.tools.FileDifference;
 import com.google.devtools.moe.client.tools.PatchCodebaseDifferenceRenderer;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
 /**
  * Performs the logic of the DiffCodebasesDirective
  *
@@ -14,20 +22,51 @@ import com.google.devtools.moe.client.tools.PatchCodebaseDifferenceRenderer;
 public class DiffCodebasesLogic {
 
   /**
-   * Prints the diff or lack thereof of the two codebases.
+   * Prints the diff or lack thereof of the two codebases, with the patch going to System.out.
    *
    * @param c1 the Codebase to diff with c2
    * @param c2 the Codebase to diff with c1
    */
   public static void printDiff(Codebase c1, Codebase c2) {
-    CodebaseDifference diff = CodebaseDifference.diffCodebases(c1, c2);
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, Charsets.UTF_8));
+    try {
+      printDiff(c1, c2, out);
+      out.flush();
+    } catch (IOException e) {
+      throw new MoeProblem(e, "Couldn't print the diff of %s and %s", c1, c2);
+    }
+  }
 
-    if (diff.areDifferent()) {
-      AppContext.RUN.ui.info(
-          String.format("Codebases \"%s\" and \"%s\" differ:\n%s",
-                        c1.toString(), c2.toString(),
-                        new PatchCodebaseDifferenceRenderer().render(diff)));
-    } else {
+  /**
+   * Prints the diff or lack thereof of the two codebases. The patch is written to out a file at a
+   * time as the codebases are diffed, so that only one file's diff is in memory at once.
+   *
+   * @param c1 the Codebase to diff with c2
+   * @param c2 the Codebase to diff with c1
+   * @param out the Writer to write the patch to
+   */
+  public static void printDiff(final Codebase c1, final Codebase c2, final Writer out)
+      throws IOException {
+    final PatchCodebaseDifferenceRenderer renderer = new PatchCodebaseDifferenceRenderer();
+    boolean different = CodebaseDifference.visitDifferences(
+        c1, c2, FileDifference.defaultFileDiffer(c1, c2),
+        new CodebaseDifference.FileDifferenceVisitor() {
+          private boolean started = false;
+
+          @Override
+          public void visit(FileDifference fileDiff) throws IOException {
+            if (!started) {
+              AppContext.RUN.ui.info(
+                  String.format("Codebases \"%s\" and \"%s\" differ:",
+                                c1.toString(), c2.toString()));
+              renderer.renderHeader(c1, c2, out);
+              started = true;
+            }
+            renderer.renderFileDifference(c1, c2, fileDiff, out);
+          }
+        });
+
+    if (!different) {
       AppContext.RUN.ui.info(
           String.format("Codebases \"%s\" and \"%s\" are identical",
                         c1.toString(), c2.toString()));
@@ -24,8 +24,23 @@ public class FindEquivalenceLogic {
    * @param db the database to consult for equivalences
    */
   public static void printEquivalences(List<Revision> revs, String inRepo, Db db) {
+    printEquivalences(revs, inRepo, db, false);
+  }
+
+  /**
+   * Prints the revisions in inRepo that the revisions in revs are equivalent to.
+   *
+   * @param revs a list of Revisions to find equivalences for
+   * @param inRepo the String of the name of the repository to look for equivalences in
+   * @param db the database to consult for equivalences
+   * @param transitive whether to include equivalences through other repositories
+   */
+  public static void printEquivalences(
+      List<Revision> revs, String inRepo, Db db, boolean transitive) {
     for (Revision rev : revs) {
-      Set<Revision> equivalences = db.findEquivalences(rev, inRepo);
+      Set<Revision> equivalences = transitive
+          ? db.findTransitiveEquivalences(rev, inRepo)
+          : db.findEquivalences(rev, inRepo);
       StringBuilder result = new StringBuilder();
       Iterator<Revision> it = equivalences.iterator();
       while (it.hasNext()) {
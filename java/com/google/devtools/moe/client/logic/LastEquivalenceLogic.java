@@ -23,11 +23,12 @@ public class LastEquivalenceLogic {
    * @param rev the Revision to begin looking for an equivalence at
    * @param db the database to consult for equivalences
    * @param rh the RevisionHistory for rev's Repository
+   * @param transitive whether to include equivalences through other repositories
    * @return the most recent Equivalence or null if there wasn't one
    */
   public static List<Equivalence> lastEquivalence(String toRepo, Revision rev,
-                                            Db db, RevisionHistory rh) {
-    EquivalenceMatcher matcher = new EquivalenceMatcher(toRepo, db);
+                                            Db db, RevisionHistory rh, boolean transitive) {
+    EquivalenceMatcher matcher = new EquivalenceMatcher(toRepo, db, transitive);
     return rh.findRevisions(rev, matcher).getEquivalences();
   }
 }
@@ -30,7 +30,12 @@ public class RepositoryConfig {
   @SerializedName("package")
   private String buildTargetPackage;
 
-
+  /**
+   * Paths, relative to the repository's root, of the files or directories that make up the
+   * codebase, e.g. the one subdirectory of a large repository that is open-sourced. Only these
+   * are exported into Codebases, and Writers leave everything else alone. If empty, the whole
+   * repository is used.
+   */
   private List<String> paths;
 
   /**
@@ -4,11 +4,13 @@ package com.google.devtools.moe.client.repositories;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.devtools.moe.client.MoeProblem;
 
 import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -19,6 +21,18 @@ public abstract class AbstractRevisionHistory implements RevisionHistory {
 
   private static final int MAX_REVISIONS_TO_SEARCH = 400;
 
+  /** The number of revisions' metadata to request at once while searching history. */
+  private static final int METADATA_BATCH_SIZE = 50;
+
+  /**
+   * Returns just the metadata for the given revision. Subclasses that can read a range of
+   * history in one request should override this.
+   */
+  @Override
+  public List<RevisionMetadata> getAncestorMetadata(Revision revision, int maxCount) {
+    return ImmutableList.of(getMetadata(revision));
+  }
+
   /**
    * Starting at the given revision, search backwards through the revision history until a matching
    * revision is found. Returns the result of
@@ -42,10 +56,21 @@ public abstract class AbstractRevisionHistory implements RevisionHistory {
     Set<Revision> visited = Sets.newLinkedHashSet();
     visited.addAll(startingRevisions);
 
+    // Metadata of ancestors read ahead of the search, so that history is read in pages rather
+    // than one revision at a time.
+    Map<Revision, RevisionMetadata> prefetched = Maps.newHashMap();
+
     while (!workList.isEmpty()) {
       Revision current = workList.removeFirst();
       if (!matcher.matches(current)) {
-        RevisionMetadata metadata = getMetadata(current);
+        RevisionMetadata metadata = prefetched.remove(current);
+        if (metadata == null) {
+          List<RevisionMetadata> page = getAncestorMetadata(current, METADATA_BATCH_SIZE);
+          metadata = page.get(0);
+          for (RevisionMetadata ancestor : page.subList(1, page.size())) {
+            prefetched.put(new Revision(ancestor.id, current.repositoryName), ancestor);
+          }
+        }
         resultBuilder.addRevision(current, metadata);
 
         for (Revision parent : metadata.parents) {
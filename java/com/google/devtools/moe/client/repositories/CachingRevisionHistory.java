@@ -0,0 +1,96 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.repositories;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link RevisionHistory} that answers metadata lookups from a {@link RevisionMetadataCache}
+ * where it can, and otherwise asks the wrapped history and caches what it returns. Head lookups
+ * always go to the wrapped history.
+ */
+public class CachingRevisionHistory extends AbstractRevisionHistory {
+
+  private final AbstractRevisionHistory delegate;
+  private final RevisionMetadataCache cache;
+
+  public CachingRevisionHistory(AbstractRevisionHistory delegate, RevisionMetadataCache cache) {
+    this.delegate = delegate;
+    this.cache = cache;
+  }
+
+  /**
+   * Returns revisionHistory wrapped in a CachingRevisionHistory if a metadata cache is configured
+   * (see {@link RevisionMetadataCache#forRepository(String)}), or revisionHistory itself if not.
+   */
+  public static RevisionHistory wrapIfEnabled(
+      String repositoryName, AbstractRevisionHistory revisionHistory) {
+    RevisionMetadataCache cache = RevisionMetadataCache.forRepository(repositoryName);
+    return (cache == null) ? revisionHistory : new CachingRevisionHistory(revisionHistory, cache);
+  }
+
+  @Override
+  public Revision findHighestRevision(@Nullable String revId) {
+    return delegate.findHighestRevision(revId);
+  }
+
+  @Override
+  public RevisionMetadata getMetadata(Revision revision) {
+    RevisionMetadata metadata = cache.get(revision.revId);
+    if (metadata == null) {
+      metadata = delegate.getMetadata(revision);
+      cache.put(metadata);
+    }
+    return metadata;
+  }
+
+  /**
+   * If revision is cached, returns it with as many of its cached ancestors as are found within
+   * maxCount, without asking the wrapped history. Otherwise reads and caches a page of history
+   * from the wrapped history.
+   */
+  @Override
+  public List<RevisionMetadata> getAncestorMetadata(Revision revision, int maxCount) {
+    RevisionMetadata first = cache.get(revision.revId);
+    if (first == null) {
+      List<RevisionMetadata> page = delegate.getAncestorMetadata(revision, maxCount);
+      for (RevisionMetadata metadata : page) {
+        cache.put(metadata);
+      }
+      return page;
+    }
+
+    ImmutableList.Builder<RevisionMetadata> page = ImmutableList.builder();
+    page.add(first);
+    int count = 1;
+    Deque<Revision> workList = Lists.newLinkedList(first.parents);
+    Set<Revision> visited = Sets.newHashSet(first.parents);
+    while (!workList.isEmpty() && count < maxCount) {
+      RevisionMetadata ancestor = cache.get(workList.removeFirst().revId);
+      if (ancestor == null) {
+        continue;
+      }
+      page.add(ancestor);
+      count++;
+      for (Revision parent : ancestor.parents) {
+        if (visited.add(parent)) {
+          workList.addLast(parent);
+        }
+      }
+    }
+    return page.build();
+  }
+
+  @Override
+  protected List<Revision> findHeadRevisions() {
+    return delegate.findHeadRevisions();
+  }
+}
@@ -2,6 +2,8 @@
 
 package com.google.devtools.moe.client.repositories;
 
+import java.util.List;
+
 import javax.annotation.Nullable;
 
 /**
@@ -27,6 +29,18 @@ public interface RevisionHistory {
    */
   public RevisionMetadata getMetadata(Revision revision);
 
+  /**
+   * Reads the metadata for a revision and for up to {@code maxCount - 1} of its ancestors, in as
+   * few requests to the repository as it allows. Use this instead of repeated calls to
+   * {@link #getMetadata(Revision)} when walking history.
+   *
+   * @param revision  the revision to start at
+   * @param maxCount  the maximum number of revisions to return, at least 1
+   * @return metadata for revision, followed by metadata for any of its ancestors, in the
+   *     repository's log order
+   */
+  public List<RevisionMetadata> getAncestorMetadata(Revision revision, int maxCount);
+
   /**
    * Starting at the specified revision, searches the revision history backwards, stopping at
    * matching Revisions. {@link RevisionMatcher#matches(Revision)} is called on the given
@@ -0,0 +1,221 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.repositories;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.Ui;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A local file store of the {@link RevisionMetadata} of one repository, keyed by revision id. Only
+ * use it for repositories whose revision ids name immutable content (e.g. git hashes and hg
+ * changeset ids), since entries are never invalidated.
+ *
+ * <p>Each repository's entries live in one file in the directory named by the system property
+ * {@code moe.metadata_cache_dir}. New entries are appended as length-prefixed binary records. A
+ * record cut short (e.g. by a killed run) is dropped from the file when it is next read.
+ */
+public class RevisionMetadataCache {
+
+  /** The system property naming the directory to keep revision metadata in. */
+  public static final String DIRECTORY_PROPERTY = "moe.metadata_cache_dir";
+
+  private static final AtomicInteger hits = new AtomicInteger();
+  private static final AtomicInteger misses = new AtomicInteger();
+
+  private final String repositoryName;
+  private final File file;
+  private Map<String, RevisionMetadata> entries;
+
+  @VisibleForTesting
+  RevisionMetadataCache(String repositoryName, File file) {
+    this.repositoryName = repositoryName;
+    this.file = file;
+  }
+
+  /**
+   * Returns the cache for the named repository, or null if {@code moe.metadata_cache_dir} is
+   * not set.
+   */
+  @Nullable
+  public static RevisionMetadataCache forRepository(String repositoryName) {
+    String directory = System.getProperty(DIRECTORY_PROPERTY);
+    if (Strings.isNullOrEmpty(directory)) {
+      return null;
+    }
+    String fileName = repositoryName.replaceAll("[^A-Za-z0-9_.-]", "_") + ".revisions";
+    return new RevisionMetadataCache(repositoryName, new File(directory, fileName));
+  }
+
+  /**
+   * Returns the cached metadata for revId, or null if there is none. Found entries count as hits.
+   */
+  @Nullable
+  public synchronized RevisionMetadata get(String revId) {
+    RevisionMetadata metadata = entries().get(revId);
+    if (metadata != null) {
+      hits.incrementAndGet();
+    }
+    return metadata;
+  }
+
+  /**
+   * Caches the given metadata, both for this run and for later ones. Metadata not already cached
+   * counts as a miss, i.e. as having been read from the repository.
+   */
+  public synchronized void put(RevisionMetadata metadata) {
+    if (entries().containsKey(metadata.id)) {
+      return;
+    }
+    misses.incrementAndGet();
+    entries.put(metadata.id, metadata);
+
+    // Write the whole record at once, so that a failed write can only truncate the file's last
+    // record, which load() then drops.
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    OutputStream out = null;
+    try {
+      writeRecord(metadata, new DataOutputStream(record));
+      file.getParentFile().mkdirs();
+      out = new FileOutputStream(file, true);
+      record.writeTo(out);
+    } catch (IOException e) {
+      throw new MoeProblem("Couldn't write revision metadata cache " + file + ": " + e);
+    } finally {
+      Closeables.closeQuietly(out);
+    }
+  }
+
+  /**
+   * Reports the cache hits and misses of this run.
+   */
+  public static void reportStatistics(Ui ui) {
+    if (hits.get() + misses.get() > 0) {
+      ui.info(String.format("Revision metadata cache: %d hits, %d misses", hits.get(),
+          misses.get()));
+    }
+  }
+
+  @VisibleForTesting
+  static int getHits() {
+    return hits.get();
+  }
+
+  @VisibleForTesting
+  static int getMisses() {
+    return misses.get();
+  }
+
+  private Map<String, RevisionMetadata> entries() {
+    if (entries == null) {
+      entries = load();
+    }
+    return entries;
+  }
+
+  private Map<String, RevisionMetadata> load() {
+    Map<String, RevisionMetadata> loaded = Maps.newHashMap();
+    if (!file.exists()) {
+      return loaded;
+    }
+    try {
+      byte[] contents = Files.toByteArray(file);
+      ByteArrayInputStream bytes = new ByteArrayInputStream(contents);
+      DataInputStream in = new DataInputStream(bytes);
+      long complete = 0;
+      try {
+        while (bytes.available() > 0) {
+          RevisionMetadata metadata = readRecord(in);
+          loaded.put(metadata.id, metadata);
+          complete = contents.length - bytes.available();
+        }
+      } catch (EOFException e) {
+        // A partly written last record. Cut it off, so that later records are appended after the
+        // last complete one.
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        try {
+          truncated.setLength(complete);
+        } finally {
+          truncated.close();
+        }
+      }
+    } catch (IOException e) {
+      throw new MoeProblem("Couldn't read revision metadata cache " + file + ": " + e);
+    }
+    return loaded;
+  }
+
+  private void writeRecord(RevisionMetadata metadata, DataOutputStream out) throws IOException {
+    writeString(metadata.id, out);
+    writeString(metadata.author, out);
+    writeString(metadata.date, out);
+    writeString(metadata.description, out);
+    out.writeInt(metadata.parents.size());
+    for (Revision parent : metadata.parents) {
+      writeString(parent.revId, out);
+    }
+    writeString(metadata.fullAuthor, out);
+    out.writeLong(metadata.normalizedDate == null ? Long.MIN_VALUE
+        : metadata.normalizedDate.getTime());
+    out.flush();
+  }
+
+  private RevisionMetadata readRecord(DataInputStream in) throws IOException {
+    String id = readString(in);
+    String author = readString(in);
+    String date = readString(in);
+    String description = readString(in);
+    int parentCount = in.readInt();
+    ImmutableList.Builder<Revision> parents = ImmutableList.builder();
+    for (int i = 0; i < parentCount; i++) {
+      parents.add(new Revision(readString(in), repositoryName));
+    }
+    String fullAuthor = readString(in);
+    long normalizedDate = in.readLong();
+    return new RevisionMetadata(id, author, date, description, parents.build(), fullAuthor,
+        normalizedDate == Long.MIN_VALUE ? null : new Date(normalizedDate));
+  }
+
+  /** Writes a nullable string as its UTF-8 length (-1 for null) and bytes. */
+  private static void writeString(@Nullable String s, DataOutputStream out) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  @Nullable
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+}
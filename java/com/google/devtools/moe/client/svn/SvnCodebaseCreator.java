@@ -17,7 +17,10 @@ import com.google.devtools.moe.client.project.RepositoryConfig;
 import com.google.devtools.moe.client.repositories.Revision;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * {@link CodebaseCreator} for svn.
@@ -26,6 +29,12 @@ import java.util.Map;
  */
 public class SvnCodebaseCreator implements CodebaseCreator {
 
+  /**
+   * svn's errors for a URL that doesn't exist at the requested revision: E170000 from svn and
+   * svnserve, E160013 ("path not found") from some http servers.
+   */
+  private static final Pattern MISSING_PATH_ERROR = Pattern.compile("\\b(E170000|E160013)\\b");
+
   private final String name;
   private final RepositoryConfig config;
   private final SvnRevisionHistory revisionHistory;
@@ -50,18 +59,48 @@ public class SvnCodebaseCreator implements CodebaseCreator {
         String.format("svn_export_%s_%s_", name, rev.revId));
 
     try {
-      SvnRepository.runSvnCommand(ImmutableList.of(
-          "export", config.getUrl(), "-r", rev.revId, exportPath.getAbsolutePath()), "");
+      List<String> paths = config.getPaths();
+      if (paths.isEmpty()) {
+        SvnRepository.runSvnCommand(ImmutableList.of(
+            "export", config.getUrl(), "-r", rev.revId, exportPath.getAbsolutePath()), "");
+      } else {
+        // Export each configured path to the same place under exportPath, so that nothing else
+        // is transferred.
+        String url = config.getUrl().endsWith("/") ? config.getUrl() : config.getUrl() + "/";
+        for (String path : paths) {
+          File pathExport = new File(exportPath, path);
+          AppContext.RUN.fileSystem.makeDirsForFile(pathExport);
+          try {
+            SvnRepository.runSvnCommand(ImmutableList.of(
+                "export", url + path, "-r", rev.revId, pathExport.getAbsolutePath()), "");
+          } catch (CommandRunner.CommandException e) {
+            // A path that doesn't exist at this revision, e.g. one from before it was created,
+            // adds nothing to the codebase.
+            if (!isMissingPath(e)) {
+              throw e;
+            }
+          }
+        }
+      }
     } catch (CommandRunner.CommandException e) {
       throw new MoeProblem("could not export from svn" + e.getMessage());
+    } catch (IOException e) {
+      throw new MoeProblem("could not export from svn: " + e.getMessage());
     }
 
-    // Filter codebase by ignore_file_res.
-    final Predicate<CharSequence> nonIgnoredFilePred =
-        Utils.nonMatchingPredicateFromRes(config.getIgnoreFileRes());
-    Utils.filterFiles(exportPath, nonIgnoredFilePred);
+    // Filter codebase by ignore_file_res. svn export can't leave files out, so they're deleted
+    // afterwards, skipping the walk when nothing is ignored.
+    if (!config.getIgnoreFileRes().isEmpty()) {
+      final Predicate<CharSequence> nonIgnoredFilePred =
+          Utils.nonMatchingPredicateFromRes(config.getIgnoreFileRes());
+      Utils.filterFiles(exportPath, nonIgnoredFilePred);
+    }
 
     return new Codebase(
         exportPath, config.getProjectSpace(), new RepositoryExpression(new Term(name, options)));
   }
+
+  private static boolean isMissingPath(CommandRunner.CommandException e) {
+    return MISSING_PATH_ERROR.matcher(e.stderr).find();
+  }
 }
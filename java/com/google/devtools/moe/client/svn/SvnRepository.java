@@ -48,4 +48,12 @@ public class SvnRepository {
     withAuthArgs.add("--no-auth-cache").addAll(args);
     return AppContext.RUN.cmd.runCommand("svn", withAuthArgs.build(), workingDirectory);
   }
+
+  static <T> T runSvnCommandStreaming(List<String> args, String workingDirectory,
+      CommandRunner.OutputHandler<T> handler) throws CommandRunner.CommandException {
+    ImmutableList.Builder<String> withAuthArgs = new ImmutableList.Builder<String>();
+    withAuthArgs.add("--no-auth-cache").addAll(args);
+    return AppContext.RUN.cmd.runCommandStreaming(
+        "svn", withAuthArgs.build(), workingDirectory, handler);
+  }
 }
@@ -3,21 +3,21 @@
 package com.google.devtools.moe.client.svn;
 
 import com.google.common.collect.ImmutableList;
+import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.repositories.AbstractRevisionHistory;
 import com.google.devtools.moe.client.repositories.Revision;
 import com.google.devtools.moe.client.repositories.RevisionMetadata;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  *
@@ -25,6 +25,8 @@ import javax.xml.parsers.DocumentBuilderFactory;
  */
 public class SvnRevisionHistory extends AbstractRevisionHistory {
 
+  private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
   private String name;
   private String url;
 
@@ -64,20 +66,41 @@ public class SvnRevisionHistory extends AbstractRevisionHistory {
    */
   public static List<Revision> parseRevisions(String log, String repositoryName) {
     try {
-      Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
-          new InputSource(new StringReader(log)));
-      NodeList nl = doc.getElementsByTagName("logentry");
-      ImmutableList.Builder<Revision> resultBuilder = ImmutableList.builder();
-      for (int i = 0; i < nl.getLength(); i++) {
-        String revId = nl.item(i).getAttributes().getNamedItem("revision").getNodeValue();
-        resultBuilder.add(new Revision(revId, repositoryName));
-      }
-      return resultBuilder.build();
+      return parseRevisions(XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(log)),
+          repositoryName);
     } catch (Exception e) {
       throw new MoeProblem("Could not parse xml log: " + log + e.getMessage());
     }
   }
 
+  /**
+   * Parse the output of svn log into Revisions, reading it incrementally from a stream.
+   *
+   * @param log  the output of svn to parse
+   * @param repositoryName  the name of the repository being parsed
+   */
+  public static List<Revision> parseRevisions(InputStream log, String repositoryName) {
+    try {
+      return parseRevisions(XML_INPUT_FACTORY.createXMLStreamReader(log), repositoryName);
+    } catch (XMLStreamException e) {
+      throw new MoeProblem("Could not parse xml log: " + e.getMessage());
+    }
+  }
+
+  private static List<Revision> parseRevisions(XMLStreamReader reader, String repositoryName)
+      throws XMLStreamException {
+    ImmutableList.Builder<Revision> resultBuilder = ImmutableList.builder();
+    while (reader.hasNext()) {
+      if (reader.next() == XMLStreamConstants.START_ELEMENT
+          && reader.getLocalName().equals("logentry")) {
+        resultBuilder.add(new Revision(reader.getAttributeValue(null, "revision"),
+            repositoryName));
+      }
+    }
+    reader.close();
+    return resultBuilder.build();
+  }
+
   /**
    * Read the metadata for a given revision in the same repository
    *
@@ -105,6 +128,42 @@ public class SvnRevisionHistory extends AbstractRevisionHistory {
     return metadata.get(0);
   }
 
+  /**
+   * Read the metadata for a revision and its ancestors on this url with a single 'svn log'. One
+   * more entry than requested is read, so that the oldest returned revision has its parent.
+   *
+   * @param revision  the revision to start at
+   * @param maxCount  the maximum number of revisions to read
+   */
+  @Override
+  public List<RevisionMetadata> getAncestorMetadata(Revision revision, int maxCount) {
+    if (!name.equals(revision.repositoryName)) {
+      throw new MoeProblem(
+          String.format("Could not get metadata: Revision %s is in repository %s instead of %s",
+                        revision.revId, revision.repositoryName, name));
+    }
+    ImmutableList<String> args = ImmutableList.of("log", "--xml", "-l",
+        String.valueOf(maxCount + 1), "-r", revision.revId + ":1", url);
+    List<RevisionMetadata> metadata;
+    try {
+      metadata = SvnRepository.runSvnCommandStreaming(args, "",
+          new CommandRunner.OutputHandler<List<RevisionMetadata>>() {
+            @Override public List<RevisionMetadata> handleOutput(InputStream stdout) {
+              return parseMetadata(stdout);
+            }
+          });
+    } catch (CommandException e) {
+      throw new MoeProblem(
+          String.format("Failed svn run: %s %d %s %s", args.toString(), e.returnStatus,
+              e.stdout, e.stderr));
+    }
+    if (metadata.isEmpty()) {
+      throw new MoeProblem(String.format("No svn log entries for revision %s of %s",
+          revision.revId, url));
+    }
+    return (metadata.size() > maxCount) ? metadata.subList(0, maxCount) : metadata;
+  }
+
   /**
    * Parse the output of svn log into Metadata
    *
@@ -112,48 +171,63 @@ public class SvnRevisionHistory extends AbstractRevisionHistory {
    */
   public List<RevisionMetadata> parseMetadata(String log) {
     try {
-      Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
-          new InputSource(new StringReader(log)));
-      NodeList nl = doc.getElementsByTagName("logentry");
-      ImmutableList.Builder<RevisionMetadata> resultBuilder = ImmutableList.builder();
-      for (int i = 0; i < nl.getLength(); i++) {
-        String revId = nl.item(i).getAttributes().getNamedItem("revision").getNodeValue();
-        NodeList nlEntries = nl.item(i).getChildNodes();
-        if (i + 1 >= nl.getLength()) {
-          resultBuilder.add(parseMetadataNodeList(revId, nlEntries, ImmutableList.<Revision>of()));
-        } else {
-          String parentId = nl.item(i + 1).getAttributes().getNamedItem("revision").getNodeValue();
-          resultBuilder.add(parseMetadataNodeList(revId, nlEntries,
-              ImmutableList.of(new Revision(parentId, name))));
-        }
-      }
-      return resultBuilder.build();
+      return parseMetadata(XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(log)));
     } catch (Exception e) {
       throw new MoeProblem("Could not parse xml log: " + log + e.getMessage());
     }
   }
 
   /**
-   * Helper function for parseMetadata
+   * Parse the output of svn log into Metadata, reading it incrementally from a stream. Each
+   * entry's parent is the entry that follows it; the last entry has no parents.
+   *
+   * @param log  the output of svn to parse
    */
-  public RevisionMetadata parseMetadataNodeList(String revId, NodeList nlEntries,
-                                                 ImmutableList<Revision> parents) {
-    String author = "None";
-    String date = "None"; 
-    String description = "None";
-    for (int i = 0; i < nlEntries.getLength(); i++) {
-      Node currNode = nlEntries.item(i);
-      if (currNode.getNodeName().equals("author")) {
-        author = currNode.getTextContent();
-      }
-      if (currNode.getNodeName().equals("date")) {
-        date = currNode.getTextContent();
+  public List<RevisionMetadata> parseMetadata(InputStream log) {
+    try {
+      return parseMetadata(XML_INPUT_FACTORY.createXMLStreamReader(log));
+    } catch (XMLStreamException e) {
+      throw new MoeProblem("Could not parse xml log: " + e.getMessage());
+    }
+  }
+
+  private List<RevisionMetadata> parseMetadata(XMLStreamReader reader)
+      throws XMLStreamException {
+    ImmutableList.Builder<RevisionMetadata> resultBuilder = ImmutableList.builder();
+    // An entry's parent is only known once the next entry has been read.
+    String revId = null;
+    String author = null;
+    String date = null;
+    String description = null;
+    while (reader.hasNext()) {
+      if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+        continue;
       }
-      if (currNode.getNodeName().equals("msg")) {
-        description = currNode.getTextContent();
+      String element = reader.getLocalName();
+      if (element.equals("logentry")) {
+        String nextRevId = reader.getAttributeValue(null, "revision");
+        if (revId != null) {
+          resultBuilder.add(new RevisionMetadata(revId, author, date, description,
+              ImmutableList.of(new Revision(nextRevId, name))));
+        }
+        revId = nextRevId;
+        author = "None";
+        date = "None";
+        description = "None";
+      } else if (element.equals("author")) {
+        author = reader.getElementText();
+      } else if (element.equals("date")) {
+        date = reader.getElementText();
+      } else if (element.equals("msg")) {
+        description = reader.getElementText();
       }
     }
-    return new RevisionMetadata(revId, author, date, description, parents);
+    reader.close();
+    if (revId != null) {
+      resultBuilder.add(new RevisionMetadata(revId, author, date, description,
+          ImmutableList.<Revision>of()));
+    }
+    return resultBuilder.build();
   }
 
   @Override
@@ -67,10 +67,13 @@ public class SvnWriter implements Writer {
         .build();
 
     Set<String> codebaseFiles = c.getRelativeFilenames();
-    Set<String> writerFiles = Utils.filterByRegEx(
-        Utils.makeFilenamesRelative(AppContext.RUN.fileSystem.findFiles(rootDirectory),
-                                    rootDirectory),
-        ignoreFilePatterns);
+    // Files outside the configured paths aren't part of the codebase, so they must not be removed.
+    Set<String> writerFiles = Utils.filterByPaths(
+        Utils.filterByRegEx(
+            Utils.makeFilenamesRelative(AppContext.RUN.fileSystem.findFiles(rootDirectory),
+                                        rootDirectory),
+            ignoreFilePatterns),
+        config.getPaths());
     Set<String> union = Sets.union(codebaseFiles, writerFiles);
 
     for (String filename : union) {
@@ -44,6 +44,11 @@ public class DummyDb implements Db {
     }
   }
 
+  @Override
+  public Set<Revision> findTransitiveEquivalences(Revision revision, String otherRepository) {
+    return findEquivalences(revision, otherRepository);
+  }
+
   @Override
   public boolean noteMigration(SubmittedMigration migration) {
     return !migrations.contains(migration) && migrations.add(migration);
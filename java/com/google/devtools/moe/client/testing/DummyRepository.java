@@ -15,6 +15,8 @@ import com.google.devtools.moe.client.repositories.RevisionMatcher;
 import com.google.devtools.moe.client.repositories.RevisionMetadata;
 import com.google.devtools.moe.client.writer.WriterCreator;
 
+import java.util.List;
+
 /**
  *
  * @author dbentley@google.com (Daniel Bentley)
@@ -49,6 +51,11 @@ public class DummyRepository {
                                   ImmutableList.of(new Revision("parent", name)));
     }
 
+    @Override
+    public List<RevisionMetadata> getAncestorMetadata(Revision revision, int maxCount) {
+      return ImmutableList.of(getMetadata(revision));
+    }
+
     @Override
     public <T> T findRevisions(Revision revision, RevisionMatcher<T> matcher) {
       if (revision == null) {
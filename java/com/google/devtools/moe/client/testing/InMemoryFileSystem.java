@@ -2,6 +2,7 @@
 
 package com.google.devtools.moe.client.testing;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
@@ -12,6 +13,8 @@ import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Lifetimes;
 
 import java.io.File;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -172,6 +175,11 @@ public class InMemoryFileSystem implements FileSystem {
     return files.containsKey(f.getAbsolutePath() + File.separator);
   }
 
+  @Override
+  public long getSize(File f) {
+    return isFile(f) ? fileToString(f).getBytes(Charsets.UTF_8).length : 0;
+  }
+
   @Override
   public boolean isReadable(File f) {
     return exists(f);
@@ -252,6 +260,11 @@ public class InMemoryFileSystem implements FileSystem {
     return files.get(f.getAbsolutePath());
   }
 
+  @Override
+  public Reader newReader(File f) {
+    return new StringReader(fileToString(f));
+  }
+
 
   private static void checkAbsolute(File file) {
     Preconditions.checkArgument(
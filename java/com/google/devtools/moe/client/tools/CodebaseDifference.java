@@ -2,12 +2,17 @@
 
 package com.google.devtools.moe.client.tools;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.devtools.moe.client.codebase.Codebase;
 
+import java.io.IOException;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Describes the difference between two Codebases.
@@ -35,10 +40,39 @@ public class CodebaseDifference {
   }
 
   /**
-   * Diff two Codebases.
+   * The system property giving the number of threads {@link #diffCodebases(Codebase, Codebase)}
+   * diffs files on. Unset or 1 means the calling thread alone. Only the in-process differ is run
+   * in parallel: the one forking diff goes through the shared CommandRunner and FileSystem.
+   */
+  static final String PARALLELISM_PROPERTY = "moe.diff_parallelism";
+
+  /** The number of files a DiffTask diffs itself rather than splitting further. */
+  private static final int FILES_PER_TASK = 16;
+
+  private static ForkJoinPool sharedPool;
+
+  /**
+   * Diff two Codebases, in parallel if the system property {@code moe.diff_parallelism} is
+   * greater than 1 and files are diffed in-process.
    */
   public static CodebaseDifference diffCodebases(Codebase codebase1, Codebase codebase2) {
-    return diffCodebases(codebase1, codebase2, FileDifference.CONCRETE_FILE_DIFFER);
+    int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, 1);
+    FileDifference.FileDiffer differ = FileDifference.defaultFileDiffer(codebase1, codebase2);
+    if (parallelism > 1 && differ != FileDifference.CONCRETE_FILE_DIFFER) {
+      return diffCodebases(codebase1, codebase2, differ, getSharedPool(parallelism));
+    }
+    return diffCodebases(codebase1, codebase2, differ);
+  }
+
+  private static synchronized ForkJoinPool getSharedPool(int parallelism) {
+    if (sharedPool == null || sharedPool.getParallelism() != parallelism) {
+      if (sharedPool != null) {
+        // Lets the old pool's threads exit once any diff still running on it is done.
+        sharedPool.shutdown();
+      }
+      sharedPool = new ForkJoinPool(parallelism);
+    }
+    return sharedPool;
   }
 
   /**
@@ -46,20 +80,141 @@ public class CodebaseDifference {
    */
   public static CodebaseDifference diffCodebases(Codebase codebase1, Codebase codebase2,
                                                  FileDifference.FileDiffer differ) {
-    Set<String> filenames = Sets.union(
-        codebase1.getRelativeFilenames(),
-        codebase2.getRelativeFilenames());
+    List<String> filenames = getFilenames(codebase1, codebase2);
+    FileDifference[] fileDiffs = new FileDifference[filenames.size()];
+    new DiffTask(codebase1, codebase2, differ, filenames, fileDiffs, 0, fileDiffs.length)
+        .diffFiles();
+    return new CodebaseDifference(codebase1, codebase2, collectDifferent(fileDiffs));
+  }
+
+  /**
+   * Diff two Codebases with a custom FileDiffer, splitting the files across the threads of pool.
+   * The differ must be safe to call from several threads at once. The result is the same as that
+   * of {@link #diffCodebases(Codebase, Codebase, FileDifference.FileDiffer)}, in the same order.
+   */
+  public static CodebaseDifference diffCodebases(Codebase codebase1, Codebase codebase2,
+      FileDifference.FileDiffer differ, ForkJoinPool pool) {
+    List<String> filenames = getFilenames(codebase1, codebase2);
+    // Each task writes only its own slots of the array, and invoke() returns only once all tasks
+    // are done, so the results need no further synchronization and keep the sequential order.
+    FileDifference[] fileDiffs = new FileDifference[filenames.size()];
+    pool.invoke(
+        new DiffTask(codebase1, codebase2, differ, filenames, fileDiffs, 0, fileDiffs.length));
+    return new CodebaseDifference(codebase1, codebase2, collectDifferent(fileDiffs));
+  }
 
-    ImmutableSet.Builder<FileDifference> fileDiffs = ImmutableSet.builder();
+  /**
+   * Returns whether two Codebases differ, stopping at the first file that does. Content diffs
+   * are not computed where the FileDiffer can tell without them.
+   */
+  public static boolean codebasesDiffer(Codebase codebase1, Codebase codebase2) {
+    return codebasesDiffer(
+        codebase1, codebase2, FileDifference.defaultFileDiffer(codebase1, codebase2));
+  }
+
+  /**
+   * Returns whether two Codebases differ according to a custom FileDiffer, stopping at the first
+   * file that does.
+   */
+  public static boolean codebasesDiffer(Codebase codebase1, Codebase codebase2,
+                                        FileDifference.FileDiffer differ) {
+    for (String filename : getFilenames(codebase1, codebase2)) {
+      if (differ.diffFiles(filename, codebase1.getFile(filename), codebase2.getFile(filename))
+          .isDifferent()) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-    for (String filename: filenames) {
+  /**
+   * Receives the FileDifferences of two Codebases one at a time, as they are computed.
+   */
+  public interface FileDifferenceVisitor {
+    void visit(FileDifference fileDiff) throws IOException;
+  }
+
+  /**
+   * Diff two Codebases file by file, handing each FileDifference that is different to visitor as
+   * soon as it is computed, in the same order as {@link #diffCodebases(Codebase, Codebase)}.
+   * Unlike diffCodebases, nothing is kept once visited, so memory use is bounded by the largest
+   * single file diff rather than by the whole diff.
+   *
+   * @return whether the Codebases are different
+   */
+  public static boolean visitDifferences(Codebase codebase1, Codebase codebase2,
+      FileDifference.FileDiffer differ, FileDifferenceVisitor visitor) throws IOException {
+    boolean different = false;
+    for (String filename : getFilenames(codebase1, codebase2)) {
       FileDifference fileDiff = differ.diffFiles(
           filename, codebase1.getFile(filename), codebase2.getFile(filename));
       if (fileDiff.isDifferent()) {
-        fileDiffs.add(fileDiff);
+        different = true;
+        visitor.visit(fileDiff);
       }
     }
+    return different;
+  }
 
-    return new CodebaseDifference(codebase1, codebase2, fileDiffs.build());
+  private static List<String> getFilenames(Codebase codebase1, Codebase codebase2) {
+    return ImmutableList.copyOf(Sets.union(
+        codebase1.getRelativeFilenames(),
+        codebase2.getRelativeFilenames()));
+  }
+
+  private static Set<FileDifference> collectDifferent(FileDifference[] fileDiffs) {
+    ImmutableSet.Builder<FileDifference> different = ImmutableSet.builder();
+    for (FileDifference fileDiff : fileDiffs) {
+      if (fileDiff.isDifferent()) {
+        different.add(fileDiff);
+      }
+    }
+    return different.build();
+  }
+
+  /**
+   * Diffs filenames[start, end) into the same slots of fileDiffs, splitting the range in halves
+   * until it is small enough to diff in one go.
+   */
+  @SuppressWarnings("serial")  // Never serialized.
+  private static class DiffTask extends RecursiveAction {
+    private final Codebase codebase1;
+    private final Codebase codebase2;
+    private final FileDifference.FileDiffer differ;
+    private final List<String> filenames;
+    private final FileDifference[] fileDiffs;
+    private final int start;
+    private final int end;
+
+    DiffTask(Codebase codebase1, Codebase codebase2, FileDifference.FileDiffer differ,
+        List<String> filenames, FileDifference[] fileDiffs, int start, int end) {
+      this.codebase1 = codebase1;
+      this.codebase2 = codebase2;
+      this.differ = differ;
+      this.filenames = filenames;
+      this.fileDiffs = fileDiffs;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= FILES_PER_TASK) {
+        diffFiles();
+        return;
+      }
+      int middle = (start + end) >>> 1;
+      invokeAll(
+          new DiffTask(codebase1, codebase2, differ, filenames, fileDiffs, start, middle),
+          new DiffTask(codebase1, codebase2, differ, filenames, fileDiffs, middle, end));
+    }
+
+    void diffFiles() {
+      for (int i = start; i < end; i++) {
+        String filename = filenames.get(i);
+        fileDiffs[i] = differ.diffFiles(
+            filename, codebase1.getFile(filename), codebase2.getFile(filename));
+      }
+    }
   }
 }
@@ -2,6 +2,9 @@
 
 package com.google.devtools.moe.client.tools;
 
+import java.io.IOException;
+import java.io.Writer;
+
 /**
  * Interface for rendering differences between Codebases.
  *
@@ -16,4 +19,9 @@ public interface CodebaseDifferenceRenderer {
    * Render the difference.
    */
   public String render(CodebaseDifference diff);
+
+  /**
+   * Render the difference to out.
+   */
+  public void render(CodebaseDifference diff, Writer out) throws IOException;
 }
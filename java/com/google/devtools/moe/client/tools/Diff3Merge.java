@@ -0,0 +1,200 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.tools;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.MoeProblem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A three-way merge of text files in the JVM, in place of the RCS {@code merge(1)} tool.
+ *
+ * <p>{@link #mergeFiles(File, File, File)} behaves like {@code merge target orig mod}: it merges
+ * the changes that lead from orig to mod into target. As with {@code diff3 -E -m}, which merge
+ * runs, changes made on only one side are taken, identical changes on both sides are taken once,
+ * and overlapping or adjoining changes that differ are left as conflicts:
+ *
+ * <pre>{@code
+ * <<<<<<< target
+ * target's lines
+ * =======
+ * mod's lines
+ * >>>>>>> mod
+ * }</pre>
+ *
+ * <p>Files are merged byte for byte (as ISO-8859-1), so text in any ASCII-compatible encoding
+ * survives unchanged. Binary files are merged only if at most one side changed them.
+ *
+ * <p>CodebaseMerger uses this instead of merge(1) when the system property
+ * {@code moe.in_process_merge} is true.
+ */
+public class Diff3Merge {
+
+  /** The system property that makes CodebaseMerger merge files in the JVM. */
+  static final String ENABLED_PROPERTY = "moe.in_process_merge";
+
+  private Diff3Merge() {}
+
+  /**
+   * Returns whether CodebaseMerger should merge files in the JVM.
+   */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(ENABLED_PROPERTY);
+  }
+
+  /**
+   * The outcome of a merge: the merged lines, and whether any of them are in conflict.
+   */
+  public static class Result {
+    public final List<String> lines;
+    public final boolean hasConflicts;
+
+    Result(List<String> lines, boolean hasConflicts) {
+      this.lines = lines;
+      this.hasConflicts = hasConflicts;
+    }
+  }
+
+  /**
+   * Merges the changes that lead from orig to mod into target, which is overwritten with the
+   * result. Conflict markers are labelled with target's and mod's paths, as merge(1) does.
+   *
+   * @return true if the merge was clean, false if target now holds conflicts
+   */
+  public static boolean mergeFiles(File target, File orig, File mod) {
+    try {
+      ByteBuffer targetBytes = ByteBuffer.wrap(Files.toByteArray(target));
+      ByteBuffer origBytes = ByteBuffer.wrap(Files.toByteArray(orig));
+      ByteBuffer modBytes = ByteBuffer.wrap(Files.toByteArray(mod));
+
+      if (MyersDiff.isBinary(targetBytes) || MyersDiff.isBinary(origBytes)
+          || MyersDiff.isBinary(modBytes)) {
+        if (origBytes.equals(targetBytes)) {
+          Files.copy(mod, target);
+          return true;
+        }
+        // Either mod didn't change anything, or both sides changed the file: in the latter case,
+        // target is left as is for the conflict to be resolved by hand.
+        return origBytes.equals(modBytes) || targetBytes.equals(modBytes);
+      }
+
+      Result result = merge(
+          MyersDiff.splitLines(targetBytes, Charsets.ISO_8859_1),
+          MyersDiff.splitLines(origBytes, Charsets.ISO_8859_1),
+          MyersDiff.splitLines(modBytes, Charsets.ISO_8859_1),
+          toLatin1(target.getAbsolutePath()),
+          toLatin1(mod.getAbsolutePath()));
+      StringBuilder merged = new StringBuilder();
+      for (String line : result.lines) {
+        merged.append(line);
+      }
+      Files.write(merged.toString(), target, Charsets.ISO_8859_1);
+      return !result.hasConflicts;
+    } catch (IOException e) {
+      throw new MoeProblem(
+          String.format("Couldn't merge %s and %s into %s: %s", orig, mod, target, e));
+    }
+  }
+
+  /** Returns s's UTF-8 bytes as the characters of an ISO-8859-1 string. */
+  private static String toLatin1(String s) {
+    return new String(s.getBytes(Charsets.UTF_8), Charsets.ISO_8859_1);
+  }
+
+  /**
+   * Merges the changes that lead from orig to mod into target. Each line ends in its newline,
+   * except possibly the last one.
+   */
+  @VisibleForTesting
+  static Result merge(List<String> target, List<String> orig, List<String> mod,
+      String targetLabel, String modLabel) {
+    List<MyersDiff.Hunk> targetHunks = MyersDiff.diff(orig, target);
+    List<MyersDiff.Hunk> modHunks = MyersDiff.diff(orig, mod);
+
+    ImmutableList.Builder<String> merged = ImmutableList.builder();
+    boolean hasConflicts = false;
+    int origPos = 0;
+    int t = 0;
+    int m = 0;
+    while (t < targetHunks.size() || m < modHunks.size()) {
+      // Start a group of overlapping hunks with whichever comes first in orig, then pull in the
+      // hunks from either side that overlap or adjoin the group, until none does.
+      int groupStart;
+      int groupEnd;
+      int firstT = t;
+      int firstM = m;
+      if (m == modHunks.size()
+          || (t < targetHunks.size() && targetHunks.get(t).start1 <= modHunks.get(m).start1)) {
+        groupStart = targetHunks.get(t).start1;
+        groupEnd = targetHunks.get(t).end1;
+        t++;
+      } else {
+        groupStart = modHunks.get(m).start1;
+        groupEnd = modHunks.get(m).end1;
+        m++;
+      }
+      while (true) {
+        if (t < targetHunks.size() && targetHunks.get(t).start1 <= groupEnd) {
+          groupEnd = Math.max(groupEnd, targetHunks.get(t).end1);
+          t++;
+        } else if (m < modHunks.size() && modHunks.get(m).start1 <= groupEnd) {
+          groupEnd = Math.max(groupEnd, modHunks.get(m).end1);
+          m++;
+        } else {
+          break;
+        }
+      }
+
+      merged.addAll(orig.subList(origPos, groupStart));
+      origPos = groupEnd;
+
+      List<String> targetSide =
+          side(orig, target, targetHunks.subList(firstT, t), groupStart, groupEnd);
+      List<String> modSide = side(orig, mod, modHunks.subList(firstM, m), groupStart, groupEnd);
+      if (firstM == m || targetSide.equals(modSide)) {
+        merged.addAll(targetSide);
+      } else if (firstT == t) {
+        merged.addAll(modSide);
+      } else {
+        hasConflicts = true;
+        merged.add("<<<<<<< " + targetLabel + "\n");
+        addTerminated(merged, targetSide);
+        merged.add("=======\n");
+        addTerminated(merged, modSide);
+        merged.add(">>>>>>> " + modLabel + "\n");
+      }
+    }
+    merged.addAll(orig.subList(origPos, orig.size()));
+    return new Result(merged.build(), hasConflicts);
+  }
+
+  /**
+   * Returns the lines that one side has in place of orig[groupStart, groupEnd), given the side's
+   * hunks within that range.
+   */
+  private static List<String> side(List<String> orig, List<String> lines,
+      List<MyersDiff.Hunk> hunks, int groupStart, int groupEnd) {
+    if (hunks.isEmpty()) {
+      return orig.subList(groupStart, groupEnd);
+    }
+    MyersDiff.Hunk first = hunks.get(0);
+    MyersDiff.Hunk last = hunks.get(hunks.size() - 1);
+    return lines.subList(
+        first.start2 - (first.start1 - groupStart), last.end2 + (groupEnd - last.end1));
+  }
+
+  /** Adds lines, ending the last one in a newline so that a conflict marker can follow. */
+  private static void addTerminated(ImmutableList.Builder<String> merged, List<String> lines) {
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      merged.add((i == lines.size() - 1 && !line.endsWith("\n")) ? line + "\n" : line);
+    }
+  }
+}
@@ -2,19 +2,27 @@
 
 package com.google.devtools.moe.client.tools;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.CharStreams;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.Lifetimes;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.codebase.Codebase;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 
 /**
  * Describes the difference between a file in two Codebases.
  *
- * It is a dumb data object, and has no behavior.
+ * It is a dumb data object, except that its content diff may be computed on first access, and
+ * that a large content diff is kept on disk rather than in memory.
  *
  * @author dbentley@google.com (Daniel Bentley)
  */
@@ -44,7 +52,20 @@ public class FileDifference {
   // There are three ways a pair of files can differ: existence, executability, and content.
   public final Comparison existence;
   public final Comparison executability;
-  public final String contentDiff;
+  public final boolean contentsDiffer;
+
+  /**
+   * Content diffs longer than this many characters are kept in a temp file, which lives as long
+   * as the current task, rather than in memory.
+   */
+  @VisibleForTesting
+  static final int SPILL_THRESHOLD = 64 * 1024;
+
+  // The content diff is in at most one of these at a time: still to be computed by
+  // contentDiffer, in memory, or spilled to a file.
+  private ContentDiffer contentDiffer;
+  private String contentDiff;
+  private File spilledContentDiff;
 
   public FileDifference(String relativeFilename, File file1, File file2,
                         Comparison existence, Comparison executability,
@@ -54,12 +75,98 @@ public class FileDifference {
     this.file2 = file2;
     this.existence = existence;
     this.executability = executability;
-    this.contentDiff = contentDiff;
+    this.contentsDiffer = (contentDiff != null);
+    store(contentDiff);
+  }
+
+  /**
+   * Creates a FileDifference whose content diff is only computed, by contentDiffer, when first
+   * asked for. contentsDiffer must already say whether there is any content diff.
+   */
+  public FileDifference(String relativeFilename, File file1, File file2,
+                        Comparison existence, Comparison executability,
+                        boolean contentsDiffer, ContentDiffer contentDiffer) {
+    this.relativeFilename = relativeFilename;
+    this.file1 = file1;
+    this.file2 = file2;
+    this.existence = existence;
+    this.executability = executability;
+    this.contentsDiffer = contentsDiffer;
+    this.contentDiffer = contentsDiffer ? contentDiffer : null;
+  }
+
+  /**
+   * Computes the diff of two files' contents, for a FileDifference that computes it lazily.
+   */
+  public static interface ContentDiffer {
+    /**
+     * Returns the diff of file1's and file2's contents, or null if they are the same.
+     */
+    public String diffContents(File file1, File file2);
   }
 
   /** @return whether this FileDifference in fact indicates a difference between files */
   public boolean isDifferent() {
-    return executability != Comparison.SAME || existence != Comparison.SAME || contentDiff != null;
+    return executability != Comparison.SAME || existence != Comparison.SAME || contentsDiffer;
+  }
+
+  /**
+   * Returns the diff of the files' contents, or null if they are the same. The diff is computed
+   * on first access if it wasn't given up front.
+   */
+  public synchronized String getContentDiff() {
+    computeContentDiff();
+    if (spilledContentDiff != null) {
+      try {
+        return AppContext.RUN.fileSystem.fileToString(spilledContentDiff);
+      } catch (IOException e) {
+        throw new MoeProblem(
+            String.format("Couldn't read the diff of %s: %s", relativeFilename, e));
+      }
+    }
+    return contentDiff;
+  }
+
+  /**
+   * Writes the diff of the files' contents to out, if they differ. Unlike
+   * {@link #getContentDiff()}, a diff spilled to disk is copied without reading all of it into
+   * memory.
+   */
+  public synchronized void writeContentDiff(Writer out) throws IOException {
+    computeContentDiff();
+    if (spilledContentDiff != null) {
+      Reader in = AppContext.RUN.fileSystem.newReader(spilledContentDiff);
+      try {
+        CharStreams.copy(in, out);
+      } finally {
+        in.close();
+      }
+    } else if (contentDiff != null) {
+      out.write(contentDiff);
+    }
+  }
+
+  private void computeContentDiff() {
+    if (contentDiffer != null) {
+      store(contentDiffer.diffContents(file1, file2));
+      contentDiffer = null;
+    }
+  }
+
+  private void store(String diff) {
+    if (diff == null || diff.length() <= SPILL_THRESHOLD) {
+      contentDiff = diff;
+      return;
+    }
+    FileSystem fileSystem = AppContext.RUN.fileSystem;
+    File spill = fileSystem.getTemporaryDirectory("content_diff_", Lifetimes.currentTask());
+    try {
+      fileSystem.write(diff, spill);
+    } catch (IOException e) {
+      throw new MoeProblem(
+          String.format("Couldn't write the diff of %s to %s: %s", relativeFilename, spill, e));
+    }
+    spilledContentDiff = spill;
   }
 
   /**
@@ -131,4 +238,31 @@ public class FileDifference {
   }
 
   public static FileDiffer CONCRETE_FILE_DIFFER = new ConcreteFileDiffer();
+
+  /**
+   * The system property that makes {@link #defaultFileDiffer()} diff files in the JVM instead of
+   * forking diff for each one.
+   */
+  static final String IN_PROCESS_PROPERTY = "moe.in_process_diff";
+
+  public static final FileDiffer IN_PROCESS_FILE_DIFFER = new InProcessFileDiffer();
+
+  /**
+   * Returns the FileDiffer to diff real files with: {@link #IN_PROCESS_FILE_DIFFER} if the system
+   * property {@code moe.in_process_diff} is true, {@link #CONCRETE_FILE_DIFFER} otherwise.
+   */
+  public static FileDiffer defaultFileDiffer() {
+    return Boolean.getBoolean(IN_PROCESS_PROPERTY) ? IN_PROCESS_FILE_DIFFER : CONCRETE_FILE_DIFFER;
+  }
+
+  /**
+   * Returns the FileDiffer to diff the files of two Codebases with. Like
+   * {@link #defaultFileDiffer()}, but an in-process differ reads existence and executable bits
+   * from the Codebases' manifests.
+   */
+  public static FileDiffer defaultFileDiffer(Codebase codebase1, Codebase codebase2) {
+    return Boolean.getBoolean(IN_PROCESS_PROPERTY)
+        ? new InProcessFileDiffer(codebase1.getManifest(), codebase2.getManifest())
+        : CONCRETE_FILE_DIFFER;
+  }
 }
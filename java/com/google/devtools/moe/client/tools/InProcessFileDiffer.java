@@ -0,0 +1,181 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.tools;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.devtools.moe.client.AppContext;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.codebase.CodebaseManifest;
+import com.google.devtools.moe.client.tools.FileDifference.Comparison;
+import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * A {@link FileDiffer} that diffs file contents in the JVM instead of forking {@code diff -N}.
+ *
+ * <p>Files of equal size are first compared byte for byte through memory-mapped buffers, so
+ * identical files are never split into lines. Files that differ are diffed line by line with
+ * {@link MyersDiff} only when the FileDifference's content diff is first asked for, re-reading the
+ * files then. The result is in the same "normal" format as {@code diff -N}: e.g. {@code 2,3c2},
+ * {@code < old}, {@code ---}, {@code > new}. Missing files are treated as empty, and binary files
+ * are reported as {@code Binary files X and Y differ}, as diff does.
+ */
+public class InProcessFileDiffer implements FileDiffer {
+
+  private final CodebaseManifest manifest1;
+  private final CodebaseManifest manifest2;
+
+  /**
+   * Creates a differ that checks files' existence and executable bits through
+   * {@link AppContext#RUN}'s FileSystem.
+   */
+  public InProcessFileDiffer() {
+    this(null, null);
+  }
+
+  /**
+   * Creates a differ for files of two Codebases that answers existence and executable bits from
+   * the Codebases' manifests instead of stat'ing each file again.
+   */
+  public InProcessFileDiffer(CodebaseManifest manifest1, CodebaseManifest manifest2) {
+    this.manifest1 = manifest1;
+    this.manifest2 = manifest2;
+  }
+
+  @Override
+  public FileDifference diffFiles(String relativeFilename, File file1, File file2) {
+    boolean file1Exists;
+    boolean file2Exists;
+    boolean file1Executable;
+    boolean file2Executable;
+    if (manifest1 != null) {
+      file1Exists = manifest1.exists(relativeFilename);
+      file2Exists = manifest2.exists(relativeFilename);
+      file1Executable = manifest1.isExecutable(relativeFilename);
+      file2Executable = manifest2.isExecutable(relativeFilename);
+    } else {
+      FileSystem fileSystem = AppContext.RUN.fileSystem;
+      file1Exists = fileSystem.exists(file1);
+      file2Exists = fileSystem.exists(file2);
+      file1Executable = fileSystem.isExecutable(file1);
+      file2Executable = fileSystem.isExecutable(file2);
+    }
+
+    Preconditions.checkArgument(file1Exists || file2Exists,
+                                "Neither file exists: %s, %s", file1, file2);
+
+    Comparison existence = Comparison.diffBools(file1Exists, file2Exists);
+    Comparison executability = Comparison.diffBools(file1Executable, file2Executable);
+
+    boolean contentsDiffer;
+    try {
+      contentsDiffer = !read(file1, file1Exists).equals(read(file2, file2Exists));
+    } catch (IOException e) {
+      throw new MoeProblem(String.format("Couldn't diff %s and %s: %s", file1, file2, e));
+    }
+
+    final boolean contents1Exist = file1Exists;
+    final boolean contents2Exist = file2Exists;
+    return new FileDifference(
+        relativeFilename, file1, file2, existence, executability, contentsDiffer,
+        new FileDifference.ContentDiffer() {
+          @Override
+          public String diffContents(File file1, File file2) {
+            try {
+              return InProcessFileDiffer.diffContents(
+                  read(file1, contents1Exist), read(file2, contents2Exist),
+                  file1.getAbsolutePath(), file2.getAbsolutePath());
+            } catch (IOException e) {
+              throw new MoeProblem(
+                  String.format("Couldn't diff %s and %s: %s", file1, file2, e));
+            }
+          }
+        });
+  }
+
+  /** Returns a file's contents, or no contents if it doesn't exist. */
+  private static ByteBuffer read(File file, boolean exists) throws IOException {
+    return exists ? map(file) : ByteBuffer.allocate(0);
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      // The mapping stays valid after the channel is closed.
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the diff of two files' contents in diff's normal format, or null if they are the same.
+   */
+  @VisibleForTesting
+  static String diffContents(ByteBuffer contents1, ByteBuffer contents2, String name1,
+      String name2) {
+    if (contents1.equals(contents2)) {
+      return null;
+    }
+    if (MyersDiff.isBinary(contents1) || MyersDiff.isBinary(contents2)) {
+      return String.format("Binary files %s and %s differ\n", name1, name2);
+    }
+    return diffLines(MyersDiff.splitLines(contents1), MyersDiff.splitLines(contents2));
+  }
+
+  /**
+   * Returns the diff of two lists of lines in diff's normal format, or null if they are equal.
+   */
+  @VisibleForTesting
+  static String diffLines(List<String> lines1, List<String> lines2) {
+    StringBuilder out = new StringBuilder();
+    for (MyersDiff.Hunk hunk : MyersDiff.diff(lines1, lines2)) {
+      appendHunk(out, lines1, hunk.start1, hunk.end1, lines2, hunk.start2, hunk.end2);
+    }
+    return (out.length() == 0) ? null : out.toString();
+  }
+
+  /**
+   * Appends a hunk replacing lines1[start1, end1) with lines2[start2, end2), e.g. "3,4c3".
+   */
+  private static void appendHunk(StringBuilder out, List<String> lines1, int start1, int end1,
+      List<String> lines2, int start2, int end2) {
+    if (start1 == end1) {
+      out.append(start1).append('a').append(range(start2, end2)).append('\n');
+    } else if (start2 == end2) {
+      out.append(range(start1, end1)).append('d').append(start2).append('\n');
+    } else {
+      out.append(range(start1, end1)).append('c').append(range(start2, end2)).append('\n');
+    }
+    appendLines(out, "< ", lines1, start1, end1);
+    if (start1 != end1 && start2 != end2) {
+      out.append("---\n");
+    }
+    appendLines(out, "> ", lines2, start2, end2);
+  }
+
+  /** Returns the 1-based line range of [start, end), e.g. "3" or "3,5". */
+  private static String range(int start, int end) {
+    return (end - start == 1) ? String.valueOf(end) : (start + 1) + "," + end;
+  }
+
+  private static void appendLines(
+      StringBuilder out, String prefix, List<String> lines, int start, int end) {
+    for (int i = start; i < end; i++) {
+      String line = lines.get(i);
+      out.append(prefix).append(line);
+      if (!line.endsWith("\n")) {
+        out.append("\n\\ No newline at end of file\n");
+      }
+    }
+  }
+}
@@ -0,0 +1,261 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.tools;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A line diff by Myers' O(ND) algorithm, in its linear-space form: find the middle snake of the
+ * edit graph, then recurse on either side of it. Shared by {@link InProcessFileDiffer} and
+ * {@link Diff3Merge}.
+ */
+final class MyersDiff {
+
+  /** How far into a file to look for a NUL byte when deciding whether it is binary. */
+  private static final int BINARY_PROBE_LENGTH = 32 * 1024;
+
+  /**
+   * A maximal run of changed lines: lines1[start1, end1) are replaced by lines2[start2, end2).
+   * One of the ranges may be empty.
+   */
+  static class Hunk {
+    final int start1;
+    final int end1;
+    final int start2;
+    final int end2;
+
+    Hunk(int start1, int end1, int start2, int end2) {
+      this.start1 = start1;
+      this.end1 = end1;
+      this.start2 = start2;
+      this.end2 = end2;
+    }
+  }
+
+  private final int[] a;
+  private final int[] b;
+  private final boolean[] deleted;
+  private final boolean[] inserted;
+  private final int[] forward;
+  private final int[] backward;
+
+  private MyersDiff(int[] a, int[] b) {
+    this.a = a;
+    this.b = b;
+    this.deleted = new boolean[a.length];
+    this.inserted = new boolean[b.length];
+    int size = a.length + b.length + 3;
+    this.forward = new int[size];
+    this.backward = new int[size];
+  }
+
+  /**
+   * Returns the hunks that turn lines1 into lines2, in order.
+   */
+  static List<Hunk> diff(List<String> lines1, List<String> lines2) {
+    // Compare lines by number rather than by string.
+    Map<String, Integer> ids = Maps.newHashMap();
+    MyersDiff myers = new MyersDiff(toIds(lines1, ids), toIds(lines2, ids));
+    myers.diff(0, lines1.size(), 0, lines2.size());
+    shiftDown(myers.a, myers.deleted);
+    shiftDown(myers.b, myers.inserted);
+    return myers.collectHunks();
+  }
+
+  /**
+   * Returns whether contents look binary to diff: whether they have a NUL byte near the start.
+   */
+  static boolean isBinary(ByteBuffer contents) {
+    int end = Math.min(contents.limit(), BINARY_PROBE_LENGTH);
+    for (int i = 0; i < end; i++) {
+      if (contents.get(i) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Splits UTF-8 contents into lines, each ending in its newline, except a last line without one.
+   */
+  static List<String> splitLines(ByteBuffer contents) {
+    return splitLines(contents, Charsets.UTF_8);
+  }
+
+  /**
+   * Splits contents into lines, each ending in its newline, except a last line without one.
+   */
+  static List<String> splitLines(ByteBuffer contents, Charset charset) {
+    byte[] bytes = new byte[contents.limit()];
+    contents.duplicate().get(bytes);
+    String text = new String(bytes, charset);
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    int start = 0;
+    for (int end = text.indexOf('\n'); end >= 0; end = text.indexOf('\n', start)) {
+      lines.add(text.substring(start, end + 1));
+      start = end + 1;
+    }
+    if (start < text.length()) {
+      lines.add(text.substring(start));
+    }
+    return lines.build();
+  }
+
+  private static int[] toIds(List<String> lines, Map<String, Integer> ids) {
+    int[] result = new int[lines.size()];
+    for (int i = 0; i < result.length; i++) {
+      Integer id = ids.get(lines.get(i));
+      if (id == null) {
+        id = ids.size();
+        ids.put(lines.get(i), id);
+      }
+      result[i] = id;
+    }
+    return result;
+  }
+
+  /**
+   * Slides each run of changed lines down past the unchanged lines equal to its first line, as
+   * diff does, so that ambiguous changes are reported at the same place: e.g. adding "b" to
+   * "a b" gives "a b +b", not "a +b b".
+   */
+  private static void shiftDown(int[] lines, boolean[] changed) {
+    int i = 0;
+    while (i < lines.length) {
+      if (!changed[i]) {
+        i++;
+        continue;
+      }
+      int start = i;
+      int end = i;
+      while (end < lines.length && changed[end]) {
+        end++;
+      }
+      while (end < lines.length && lines[start] == lines[end]) {
+        changed[start++] = false;
+        changed[end++] = true;
+        // The run may now join the next one.
+        while (end < lines.length && changed[end]) {
+          end++;
+        }
+      }
+      i = end;
+    }
+  }
+
+  private List<Hunk> collectHunks() {
+    ImmutableList.Builder<Hunk> hunks = ImmutableList.builder();
+    int i = 0;
+    int j = 0;
+    while (i < a.length || j < b.length) {
+      if (i < a.length && j < b.length && !deleted[i] && !inserted[j]) {
+        i++;
+        j++;
+        continue;
+      }
+      int iEnd = i;
+      while (iEnd < a.length && deleted[iEnd]) {
+        iEnd++;
+      }
+      int jEnd = j;
+      while (jEnd < b.length && inserted[jEnd]) {
+        jEnd++;
+      }
+      hunks.add(new Hunk(i, iEnd, j, jEnd));
+      i = iEnd;
+      j = jEnd;
+    }
+    return hunks.build();
+  }
+
+  /**
+   * Marks the lines of a[aStart, aEnd) that are deleted and of b[bStart, bEnd) that are inserted.
+   */
+  private void diff(int aStart, int aEnd, int bStart, int bEnd) {
+    while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+      aStart++;
+      bStart++;
+    }
+    while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+      aEnd--;
+      bEnd--;
+    }
+    if (aStart == aEnd) {
+      for (int j = bStart; j < bEnd; j++) {
+        inserted[j] = true;
+      }
+      return;
+    }
+    if (bStart == bEnd) {
+      for (int i = aStart; i < aEnd; i++) {
+        deleted[i] = true;
+      }
+      return;
+    }
+
+    int[] snake = middleSnake(aStart, aEnd, bStart, bEnd);
+    diff(aStart, snake[0], bStart, snake[1]);
+    diff(snake[2], aEnd, snake[3], bEnd);
+  }
+
+  /**
+   * Returns {x, y, u, v}: the middle snake runs from (x, y) to (u, v) in absolute line numbers.
+   */
+  private int[] middleSnake(int aStart, int aEnd, int bStart, int bEnd) {
+    int n = aEnd - aStart;
+    int m = bEnd - bStart;
+    int delta = n - m;
+    boolean odd = (delta & 1) != 0;
+    int max = (n + m + 1) / 2;
+    // Diagonal k is at index offset + k; both arrays hold furthest-reaching x values, the
+    // backward one measured from the ends of the ranges.
+    int offset = max + 1;
+    forward[offset + 1] = 0;
+    backward[offset + 1] = 0;
+
+    for (int d = 0; d <= max; d++) {
+      for (int k = -d; k <= d; k += 2) {
+        int x = (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1]))
+            ? forward[offset + k + 1]
+            : forward[offset + k - 1] + 1;
+        int y = x - k;
+        int x0 = x;
+        int y0 = y;
+        while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+          x++;
+          y++;
+        }
+        forward[offset + k] = x;
+        int c = delta - k;
+        if (odd && c >= -(d - 1) && c <= d - 1 && x + backward[offset + c] >= n) {
+          return new int[] {aStart + x0, bStart + y0, aStart + x, bStart + y};
+        }
+      }
+      for (int c = -d; c <= d; c += 2) {
+        int x = (c == -d || (c != d && backward[offset + c - 1] < backward[offset + c + 1]))
+            ? backward[offset + c + 1]
+            : backward[offset + c - 1] + 1;
+        int y = x - c;
+        int x0 = x;
+        int y0 = y;
+        while (x < n && y < m && a[aEnd - 1 - x] == b[bEnd - 1 - y]) {
+          x++;
+          y++;
+        }
+        backward[offset + c] = x;
+        int k = delta - c;
+        if (!odd && k >= -d && k <= d && x + forward[offset + k] >= n) {
+          return new int[] {aEnd - x, bEnd - y, aEnd - x0, bEnd - y0};
+        }
+      }
+    }
+    throw new IllegalStateException("No middle snake found");
+  }
+}
@@ -2,45 +2,72 @@
 
 package com.google.devtools.moe.client.tools;
 
+import com.google.devtools.moe.client.codebase.Codebase;
+
 import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 
 /**
  * Renders a CodebaseDifference into a patch file.
  *
+ * <p>The patch can also be rendered piecemeal, with {@link #renderHeader} and then
+ * {@link #renderFileDifference} for each FileDifference as it is computed, so that a large diff
+ * need never be held in memory at once.
+ *
  * @author dbentley@google.com (Daniel Bentley)
  */
 public class PatchCodebaseDifferenceRenderer implements CodebaseDifferenceRenderer {
 
+  @Override
   public String render(CodebaseDifference d) {
-    StringBuilder r = new StringBuilder();
-
-    r.append(String.format("diff %s %s\n", d.codebase1.toString(), d.codebase2.toString()));
+    StringWriter out = new StringWriter();
+    try {
+      render(d, out);
+    } catch (IOException e) {
+      // StringWriter doesn't throw IOExceptions.
+      throw new AssertionError(e);
+    }
+    return out.toString();
+  }
 
+  @Override
+  public void render(CodebaseDifference d, Writer out) throws IOException {
+    renderHeader(d.codebase1, d.codebase2, out);
     for (FileDifference fd : d.fileDiffs) {
-      renderFileDifferenceToStringBuilder(d, fd, r);
+      renderFileDifference(d.codebase1, d.codebase2, fd, out);
     }
-
-    return r.toString();
   }
 
-  /* package */ void renderFileDifferenceToStringBuilder(
-      CodebaseDifference d, FileDifference fd, StringBuilder r) {
+  /**
+   * Writes the line that starts the patch of codebase1 against codebase2.
+   */
+  public void renderHeader(Codebase codebase1, Codebase codebase2, Writer out)
+      throws IOException {
+    out.write(String.format("diff %s %s\n", codebase1.toString(), codebase2.toString()));
+  }
 
-    r.append(String.format(
+  /**
+   * Writes the patch of one file of codebase1 against codebase2.
+   */
+  public void renderFileDifference(
+      Codebase codebase1, Codebase codebase2, FileDifference fd, Writer out) throws IOException {
+    out.write(String.format(
         "diff --moe %s %s\n",
-        new File(d.codebase1.toString(), fd.relativeFilename).getPath(),
-        new File(d.codebase2.toString(), fd.relativeFilename).getPath()));
+        new File(codebase1.toString(), fd.relativeFilename).getPath(),
+        new File(codebase2.toString(), fd.relativeFilename).getPath()));
 
     if (fd.executability == FileDifference.Comparison.ONLY1) {
-      r.append("-mode:executable\n");
-    } if (fd.executability == FileDifference.Comparison.ONLY2) {
-        r.append("+mode:executable\n");
+      out.write("-mode:executable\n");
+    } else if (fd.executability == FileDifference.Comparison.ONLY2) {
+      out.write("+mode:executable\n");
     }
 
-    r.append(String.format(
-        "<<< %s/%s\n", d.codebase1.toString(), fd.relativeFilename));
-    r.append(String.format(
-        ">>> %s/%s\n", d.codebase2.toString(), fd.relativeFilename));
+    out.write(String.format(
+        "<<< %s/%s\n", codebase1.toString(), fd.relativeFilename));
+    out.write(String.format(
+        ">>> %s/%s\n", codebase2.toString(), fd.relativeFilename));
 
 
     // NB(dbentley): For generating a patch, we don't care if the existence of files
@@ -49,9 +76,9 @@ public class PatchCodebaseDifferenceRenderer implements CodebaseDifferenceRender
     // TODO(dbentley): what about if we add an empty, unexecutable file? Uhh, hmm....
     // Mercurial seems to not show this diff, so maybe we're all right.
 
-    if (fd.contentDiff != null) {
-      r.append(fd.contentDiff);
-      r.append("\n");
+    if (fd.contentsDiffer) {
+      fd.writeContentDiff(out);
+      out.write("\n");
     }
 
   }
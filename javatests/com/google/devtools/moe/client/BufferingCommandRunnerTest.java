@@ -0,0 +1,123 @@
+// Copyright 2011 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link BufferingCommandRunner}.
+ */
+public class BufferingCommandRunnerTest extends TestCase {
+
+  BufferingCommandRunner c;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    c = new BufferingCommandRunner();
+  }
+
+  public void testLongStdout() throws Exception {
+    String data = c.runCommand(
+        "perl", ImmutableList.of("-e", "print (\"*\" x 17000)"), "");
+    assertEquals(17000, data.length());
+  }
+
+  public void testLongStderr() throws Exception {
+    String data = c.runCommand(
+        "perl", ImmutableList.of("-e", "print STDERR (\"*\" x 17000)"), "");
+    assertEquals(0, data.length());
+  }
+
+  /**
+   * Tests that a process with a large stdout and stderr doesn't produce stream contention or
+   * deadlock behavior.
+   */
+  public void testLongStdoutAndStderr() throws Exception {
+    int bytesOutput = 1000000;
+    String perlScript = "print STDOUT ('*' x %1$d); print STDERR ('*' x %1$d); exit %2$d";
+
+    String stdout = c.runCommand(
+        "perl",
+        ImmutableList.of("-e", String.format(perlScript, bytesOutput, 0)),
+        "");
+    assertEquals(bytesOutput, stdout.length());
+
+    try {
+      c.runCommand(
+          "perl",
+          ImmutableList.of("-e", String.format(perlScript, bytesOutput, 1)),
+          "");
+      fail("Non-zero return code didn't raise CommandException.");
+
+    } catch (CommandException expected) {
+      assertEquals("returnStatus", 1, expected.returnStatus);
+      assertEquals("stdout length", bytesOutput, expected.stdout.length());
+      assertEquals("stderr length", bytesOutput, expected.stderr.length());
+    }
+  }
+
+  public void testStreamingStdout() throws Exception {
+    CommandRunner.OutputHandler<Long> counter = new CommandRunner.OutputHandler<Long>() {
+      @Override public Long handleOutput(InputStream stdout) throws IOException {
+        long count = 0;
+        byte[] buffer = new byte[4096];
+        for (int read; (read = stdout.read(buffer)) != -1; ) {
+          count += read;
+        }
+        return count;
+      }
+    };
+    long length = c.runCommandStreaming("perl",
+        ImmutableList.of("-e", "print STDOUT ('*' x 1000000); print STDERR ('*' x 1000000)"),
+        "", counter);
+    assertEquals(1000000, length);
+  }
+
+  public void testStreamingHandlerStopsEarly() throws Exception {
+    CommandRunner.OutputHandler<Integer> firstByte = new CommandRunner.OutputHandler<Integer>() {
+      @Override public Integer handleOutput(InputStream stdout) throws IOException {
+        return stdout.read();
+      }
+    };
+    assertEquals(Integer.valueOf('*'), c.runCommandStreaming("perl",
+        ImmutableList.of("-e", "print ('*' x 1000000)"), "", firstByte));
+  }
+
+  public void testStreamingNonZeroExit() throws Exception {
+    CommandRunner.OutputHandler<Integer> firstByte = new CommandRunner.OutputHandler<Integer>() {
+      @Override public Integer handleOutput(InputStream stdout) throws IOException {
+        return stdout.read();
+      }
+    };
+    try {
+      c.runCommandStreaming("perl",
+          ImmutableList.of("-e", "print 'out'; print STDERR 'err'; exit 2"), "", firstByte);
+      fail("Non-zero return code didn't raise CommandException.");
+    } catch (CommandException expected) {
+      assertEquals(2, expected.returnStatus);
+      assertEquals("", expected.stdout);
+      assertEquals("err", expected.stderr);
+    }
+  }
+
+  public void testTimeout() throws Exception {
+    try {
+      c.runCommand("perl", ImmutableList.of("-e", "sleep 30"), "", 200);
+      fail("Long-running process wasn't killed.");
+    } catch (MoeProblem expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().startsWith("Process timed out"));
+    }
+  }
+
+  public void testFinishesBeforeTimeout() throws Exception {
+    assertEquals("done", c.runCommand(
+        "perl", ImmutableList.of("-e", "print 'done'"), "", 60000));
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link TarExtractor}, on archives built by hand.
+ */
+public class TarExtractorTest extends TestCase {
+
+  private File dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = Files.createTempDir();
+  }
+
+  /** Appends a ustar entry: its header, then its contents padded to a whole block. */
+  private static void entry(ByteArrayOutputStream tar, String name, char type, int mode,
+      String linkName, byte[] contents) throws IOException {
+    byte[] header = new byte[512];
+    put(header, 0, name);
+    put(header, 100, String.format("%07o", mode));
+    put(header, 108, "0000000");
+    put(header, 116, "0000000");
+    put(header, 124, String.format("%011o", contents.length));
+    put(header, 136, String.format("%011o", 1000000000L));
+    put(header, 148, "        ");
+    header[156] = (byte) type;
+    put(header, 157, linkName);
+    put(header, 257, "ustar\u000000");
+    int checksum = 0;
+    for (byte b : header) {
+      checksum += b & 0xff;
+    }
+    put(header, 148, String.format("%06o\0 ", checksum));
+    tar.write(header);
+    tar.write(contents);
+    tar.write(new byte[(512 - contents.length % 512) % 512]);
+  }
+
+  private static void put(byte[] header, int offset, String value) {
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    System.arraycopy(bytes, 0, header, offset, bytes.length);
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(Charsets.UTF_8);
+  }
+
+  private static byte[] end(ByteArrayOutputStream tar) throws IOException {
+    tar.write(new byte[1024]);
+    return tar.toByteArray();
+  }
+
+  public void testExtract() throws Exception {
+    ByteArrayOutputStream tar = new ByteArrayOutputStream();
+    entry(tar, "d/", '5', 0755, "", new byte[0]);
+    entry(tar, "d/script", '0', 0755, "", bytes("#!/bin/sh\n"));
+    entry(tar, "d/data", '0', 0644, "", bytes(Strings.repeat("x", 1000)));
+    entry(tar, "link", '2', 0777, "d/data", new byte[0]);
+    TarExtractor.extract(new ByteArrayInputStream(end(tar)), dir);
+
+    File script = new File(dir, "d/script");
+    assertEquals("#!/bin/sh\n", Files.toString(script, Charsets.UTF_8));
+    assertTrue(script.canExecute());
+    assertEquals(1000000000000L, script.lastModified());
+    assertFalse(new File(dir, "d/data").canExecute());
+    assertEquals(1000, new File(dir, "d/data").length());
+    assertEquals("d/data",
+        java.nio.file.Files.readSymbolicLink(new File(dir, "link").toPath()).toString());
+  }
+
+  public void testExtract_paxPathAndGzip() throws Exception {
+    String longName = Strings.repeat("long/", 40) + "file";
+    String record = " path=" + longName + "\n";
+    // A pax record's length counts its own digits.
+    int length = record.length() + 3;
+    ByteArrayOutputStream tar = new ByteArrayOutputStream();
+    entry(tar, "pax_global_header", 'g', 0666, "", bytes("52 comment=0123456789abcdef\n"));
+    entry(tar, "PaxHeader", 'x', 0644, "", bytes(length + record));
+    entry(tar, "truncated", '0', 0644, "", bytes("contents"));
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(gzipped);
+    out.write(end(tar));
+    out.close();
+
+    TarExtractor.extract(new ByteArrayInputStream(gzipped.toByteArray()), dir);
+    assertEquals("contents", Files.toString(new File(dir, longName), Charsets.UTF_8));
+    assertFalse(new File(dir, "truncated").exists());
+  }
+
+  public void testExtract_filter() throws Exception {
+    ByteArrayOutputStream tar = new ByteArrayOutputStream();
+    entry(tar, "./d/", '5', 0755, "", new byte[0]);
+    entry(tar, "./d/kept", '0', 0644, "", bytes("kept"));
+    entry(tar, "./d/ignored_file", '0', 0644, "", bytes(Strings.repeat("x", 600)));
+    entry(tar, "./ignored_link", '2', 0777, "d/kept", new byte[0]);
+    long files = IgnoredFiles.getFiles();
+    long bytes = IgnoredFiles.getBytes();
+    TarExtractor.extract(new ByteArrayInputStream(end(tar)), dir,
+        Utils.nonMatchingPredicateFromRes(ImmutableList.of("^d/ignored_", "_link$")));
+
+    assertEquals("kept", Files.toString(new File(dir, "d/kept"), Charsets.UTF_8));
+    assertFalse(new File(dir, "d/ignored_file").exists());
+    assertFalse(new File(dir, "ignored_link").exists());
+    assertEquals(files + 2, IgnoredFiles.getFiles());
+    assertEquals(bytes + 600, IgnoredFiles.getBytes());
+  }
+
+  public void testExtract_outsideDestination() throws Exception {
+    ByteArrayOutputStream tar = new ByteArrayOutputStream();
+    entry(tar, "../escape", '0', 0644, "", bytes("x"));
+    try {
+      TarExtractor.extract(new ByteArrayInputStream(end(tar)), dir);
+      fail("Extracted outside the destination");
+    } catch (IOException expected) {}
+    assertFalse(new File(dir.getParentFile(), "escape").exists());
+  }
+
+  public void testExtract_notTar() throws Exception {
+    try {
+      TarExtractor.extract(new ByteArrayInputStream(bytes(Strings.repeat("not a tar", 100))), dir);
+      fail("Extracted a non-tar");
+    } catch (IOException expected) {}
+  }
+}
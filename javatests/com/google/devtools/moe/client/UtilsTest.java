@@ -4,10 +4,13 @@ package com.google.devtools.moe.client;
 
 import static org.easymock.EasyMock.expect;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
 import com.google.devtools.moe.client.testing.AppContextForTesting;
+import com.google.devtools.moe.client.testing.InMemoryFileSystem;
 
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
@@ -28,6 +31,14 @@ public class UtilsTest extends TestCase {
                             ImmutableList.of("ba+r")));
   }
 
+  public void testFilterByPaths() throws Exception {
+    ImmutableSet<String> filenames =
+        ImmutableSet.of("a/x", "ab/x", "b/c/x", "b/d", "top", "topper");
+    assertEquals(ImmutableSet.of("a/x", "b/c/x", "top"),
+        Utils.filterByPaths(filenames, ImmutableList.of("a", "b/c/", "top")));
+    assertEquals(filenames, Utils.filterByPaths(filenames, ImmutableList.<String>of()));
+  }
+
   public void testCheckKeys() throws Exception {
     Utils.checkKeys(
         ImmutableMap.of("foo", "bar"), ImmutableSet.of("foo", "baz"));
@@ -87,8 +98,14 @@ public class UtilsTest extends TestCase {
     EasyMock.replay(mockcmd);
     AppContext.RUN.cmd = mockcmd;
 
-    // Run the .expandToDirectory method.
-    File directory = Utils.expandToDirectory(file);
+    // Run the .expandToDirectory method, forking tar.
+    System.setProperty(TarExtractor.ENABLED_PROPERTY, "false");
+    File directory;
+    try {
+      directory = Utils.expandToDirectory(file);
+    } finally {
+      System.clearProperty(TarExtractor.ENABLED_PROPERTY);
+    }
     assertNotNull(directory);
     assertEquals("/test", directory.toString());
 
@@ -127,11 +144,55 @@ public class UtilsTest extends TestCase {
         ImmutableList.of("-xf", "/dummy/path/45.tar"),
         "/dummy/path/45.expanded")).andReturn("");
     control.replay();
-    File expanded = Utils.expandTar(new File("/dummy/path/45.tar"));
-    assertEquals(new File("/dummy/path/45.expanded"), expanded);
+    System.setProperty(TarExtractor.ENABLED_PROPERTY, "false");
+    try {
+      File expanded = Utils.expandTar(new File("/dummy/path/45.tar"));
+      assertEquals(new File("/dummy/path/45.expanded"), expanded);
+    } finally {
+      System.clearProperty(TarExtractor.ENABLED_PROPERTY);
+    }
+    control.verify();
+  }
+
+  public void testExpandTar_inProcess() throws Exception {
+    AppContextForTesting.initForTest();
+    AppContext.RUN.cmd = new BufferingCommandRunner();
+    AppContext.RUN.fileSystem = new SystemFileSystem(AppContext.RUN.ui);
+    File dir = Files.createTempDir();
+    Files.write("contents", new File(dir, "file"), Charsets.UTF_8);
+    File tar = new File(dir, "archive.tar");
+    AppContext.RUN.cmd.runCommand(
+        "tar", ImmutableList.of("cf", tar.getAbsolutePath(), "file"), dir.getAbsolutePath());
+
+    // By default, tar isn't forked to extract the archive.
+    IMocksControl control = EasyMock.createControl();
+    AppContext.RUN.cmd = control.createMock(CommandRunner.class);
+    control.replay();
+    Ui.Task task = AppContext.RUN.ui.pushTask("expand", "Expand tar");
+    File expanded = Utils.expandTar(tar);
+    assertEquals("contents", Files.toString(new File(expanded, "file"), Charsets.UTF_8));
+    AppContext.RUN.ui.popTask(task, "");
     control.verify();
   }
 
+  public void testFilterFiles() throws Exception {
+    AppContextForTesting.initForTest();
+    InMemoryFileSystem fileSystem = new InMemoryFileSystem(ImmutableMap.of(
+        "/codebase/kept", "kept",
+        "/codebase/dir/ignored", "12345"));
+    AppContext.RUN.fileSystem = fileSystem;
+    long files = IgnoredFiles.getFiles();
+    long bytes = IgnoredFiles.getBytes();
+
+    Utils.filterFiles(new File("/codebase"),
+        Utils.nonMatchingPredicateFromRes(ImmutableList.of("ignored$")));
+    assertTrue(fileSystem.exists(new File("/codebase/kept")));
+    assertFalse(fileSystem.exists(new File("/codebase/dir/ignored")));
+    // The ignored file's size is read through the FileSystem, before it is deleted.
+    assertEquals(files + 1, IgnoredFiles.getFiles());
+    assertEquals(bytes + 5, IgnoredFiles.getBytes());
+  }
+
   public void testCopyDirectory() throws Exception {
     AppContextForTesting.initForTest();
     IMocksControl control = EasyMock.createControl();
@@ -0,0 +1,99 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.codebase;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link CodebaseFingerprint}.
+ */
+public class CodebaseFingerprintTest extends TestCase {
+
+  private File dir1;
+  private File dir2;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir1 = Files.createTempDir();
+    dir2 = Files.createTempDir();
+  }
+
+  private static File write(File dir, String relativeFilename, String contents) throws Exception {
+    File file = new File(dir, relativeFilename);
+    Files.createParentDirs(file);
+    Files.write(contents, file, Charsets.UTF_8);
+    return file;
+  }
+
+  private void writeBoth(String relativeFilename, String contents) throws Exception {
+    write(dir1, relativeFilename, contents);
+    write(dir2, relativeFilename, contents);
+  }
+
+  private void assertSameFingerprint() {
+    assertEquals(CodebaseFingerprint.compute(dir1), CodebaseFingerprint.compute(dir2));
+  }
+
+  private void assertDifferentFingerprint() {
+    assertFalse(CodebaseFingerprint.compute(dir1).equals(CodebaseFingerprint.compute(dir2)));
+  }
+
+  public void testSameFiles() throws Exception {
+    writeBoth("a", "a");
+    writeBoth("sub/b", "b");
+    writeBoth("sub/deeper/c", "c");
+    assertSameFingerprint();
+  }
+
+  public void testDifferentContents() throws Exception {
+    writeBoth("a", "a");
+    write(dir1, "sub/b", "b");
+    write(dir2, "sub/b", "B");
+    assertDifferentFingerprint();
+  }
+
+  public void testDifferentExecutableBit() throws Exception {
+    writeBoth("a", "a");
+    new File(dir1, "a").setExecutable(true);
+    assertDifferentFingerprint();
+  }
+
+  public void testMovedFile() throws Exception {
+    write(dir1, "sub1/a", "a");
+    write(dir2, "sub2/a", "a");
+    assertDifferentFingerprint();
+  }
+
+  public void testIgnoresEmptyDirectories() throws Exception {
+    writeBoth("a", "a");
+    assertTrue(new File(dir1, "empty/emptier").mkdirs());
+    assertSameFingerprint();
+  }
+
+  public void testRereadsFilesWithSameSizeAndMtime() throws Exception {
+    File file = write(dir1, "a", "a");
+    long mtime = System.currentTimeMillis() - 60000;
+    file.setLastModified(mtime);
+    String before = CodebaseFingerprint.compute(dir1);
+
+    write(dir1, "a", "b");
+    file.setLastModified(mtime);
+    assertFalse(before.equals(CodebaseFingerprint.compute(dir1)));
+  }
+
+  public void testCodebaseMemoizesFingerprint() throws Exception {
+    writeBoth("a", "a");
+    Codebase codebase = new Codebase(dir1, "public", null);
+    String fingerprint = codebase.getFingerprint();
+    write(dir1, "b", "b");
+    assertEquals(fingerprint, codebase.getFingerprint());
+    assertEquals(CodebaseFingerprint.compute(dir2),
+        new Codebase(dir2, "public", null).getFingerprint());
+  }
+}
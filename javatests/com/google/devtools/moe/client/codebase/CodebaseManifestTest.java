@@ -0,0 +1,71 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.codebase;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link CodebaseManifest}.
+ */
+public class CodebaseManifestTest extends TestCase {
+
+  public void testScan() throws Exception {
+    File root = Files.createTempDir();
+    Files.write("abc", new File(root, "a"), Charsets.UTF_8);
+    File script = new File(root, "sub/run.sh");
+    Files.createParentDirs(script);
+    Files.write("#!/bin/sh\n", script, Charsets.UTF_8);
+    script.setExecutable(true);
+    assertTrue(new File(root, "empty").mkdir());
+
+    CodebaseManifest manifest = CodebaseManifest.scan(root);
+    assertEquals(ImmutableSet.of("a", "sub/run.sh"), manifest.getRelativeFilenames());
+    assertEquals(3, manifest.getEntry("a").size);
+    assertFalse(manifest.isExecutable("a"));
+    assertTrue(manifest.isExecutable("sub/run.sh"));
+    assertTrue(manifest.exists("a"));
+    assertFalse(manifest.exists("empty"));
+    assertNull(manifest.getEntry("missing"));
+    assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", manifest.getContentHash("a"));
+  }
+
+  public void testScan_executableMatchesCanExecute() throws Exception {
+    File root = Files.createTempDir();
+    String[] modes = {"rwxr-xr-x", "rw-r--r--", "rwx------", "rw-r-xr--", "rw-r--r-x"};
+    for (String mode : modes) {
+      File file = new File(root, mode);
+      Files.write("x", file, Charsets.UTF_8);
+      java.nio.file.Files.setPosixFilePermissions(
+          file.toPath(), PosixFilePermissions.fromString(mode));
+    }
+    CodebaseManifest manifest = CodebaseManifest.scan(root);
+    for (String mode : modes) {
+      assertEquals(mode, new File(root, mode).canExecute(), manifest.isExecutable(mode));
+    }
+  }
+
+  public void testScan_symlinks() throws Exception {
+    File root = Files.createTempDir();
+    assertTrue(new File(root, "dir").mkdir());
+    Files.write("x", new File(root, "dir/file"), Charsets.UTF_8);
+    java.nio.file.Files.createSymbolicLink(
+        new File(root, "link").toPath(), new File(root, "dir").toPath());
+
+    CodebaseManifest manifest = CodebaseManifest.scan(root);
+    // Like FileSystem.findFiles, list symbolic links to directories rather than following them.
+    assertEquals(ImmutableSet.of("dir/file", "link"), manifest.getRelativeFilenames());
+    assertEquals(-1, manifest.getEntry("link").size);
+  }
+
+  public void testScan_missingRoot() throws Exception {
+    File root = new File(Files.createTempDir(), "missing");
+    assertTrue(CodebaseManifest.scan(root).getRelativeFilenames().isEmpty());
+  }
+}
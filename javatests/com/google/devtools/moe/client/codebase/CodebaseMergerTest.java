@@ -4,11 +4,14 @@ package com.google.devtools.moe.client.codebase;
 
 import static org.easymock.EasyMock.expect;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.SystemFileSystem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.testing.AppContextForTesting;
 
@@ -388,6 +391,11 @@ public class CodebaseMergerTest extends TestCase {
     expect(dest.getRelativeFilenames()).andReturn(ImmutableSet.of("foo"));
     expect(mod.getRelativeFilenames()).andReturn(ImmutableSet.of("foo", "bar"));
 
+    // Triage finds no file in all three codebases, so every file goes to generateMergedFile(...).
+    expect(orig.getManifest()).andReturn(CodebaseManifest.scan(new File("orig"))).anyTimes();
+    expect(dest.getManifest()).andReturn(CodebaseManifest.scan(new File("dest"))).anyTimes();
+    expect(mod.getManifest()).andReturn(CodebaseManifest.scan(new File("mod"))).anyTimes();
+
     // generateMergedFile(...) on foo
     File origFile = new File("orig/foo");
     expect(orig.getFile("foo")).andReturn(origFile);
@@ -446,4 +454,79 @@ public class CodebaseMergerTest extends TestCase {
     assertTrue(merger.getMergedFiles().contains(mergedFile.getAbsolutePath().toString()));
     assertTrue(merger.getFailedToMergeFiles().isEmpty());
   }
+
+  private static Codebase writeCodebase(String name, String... filesAndContents)
+      throws Exception {
+    File root = Files.createTempDir();
+    for (int i = 0; i < filesAndContents.length; i += 2) {
+      Files.write(filesAndContents[i + 1], new File(root, filesAndContents[i]), Charsets.UTF_8);
+    }
+    return new Codebase(root, name, null);
+  }
+
+  /**
+   * Test merge() with in-process merging: files changed on one side only are triaged by hash and
+   * copied, and only the file changed on both sides is merged.
+   */
+  public void testMerge_inProcess() throws Exception {
+    AppContext.RUN.fileSystem = new SystemFileSystem(AppContext.RUN.ui);
+    Codebase orig = writeCodebase("orig",
+        "same", "s\n", "destOnly", "a\n", "modOnly", "a\n", "both", "a\nb\nc\n",
+        "conflict", "a\n");
+    Codebase dest = writeCodebase("dest",
+        "same", "s\n", "destOnly", "D\n", "modOnly", "a\n", "both", "A\nb\nc\n",
+        "conflict", "D\n");
+    Codebase mod = writeCodebase("mod",
+        "same", "s\n", "destOnly", "a\n", "modOnly", "M\n", "both", "a\nb\nC\n",
+        "conflict", "M\n");
+
+    System.setProperty("moe.in_process_merge", "true");
+    // Temporary directories live as long as the current task.
+    Ui.Task task = AppContext.RUN.ui.pushTask("merge", "Merge codebases");
+    CodebaseMerger merger;
+    Codebase merged;
+    try {
+      merger = new CodebaseMerger(orig, mod, dest);
+      assertFalse(merger.triageMergedFile("both"));
+      assertTrue(merger.triageMergedFile("modOnly"));
+      merged = merger.merge();
+    } finally {
+      System.clearProperty("moe.in_process_merge");
+    }
+
+    // Check the results before popping the task cleans them up.
+    assertEquals("s\n", Files.toString(merged.getFile("same"), Charsets.UTF_8));
+    assertEquals("D\n", Files.toString(merged.getFile("destOnly"), Charsets.UTF_8));
+    assertEquals("M\n", Files.toString(merged.getFile("modOnly"), Charsets.UTF_8));
+    assertEquals("A\nb\nC\n", Files.toString(merged.getFile("both"), Charsets.UTF_8));
+    assertEquals(4, merger.getMergedFiles().size());
+    assertEquals(ImmutableSet.of(merged.getFile("conflict").getAbsolutePath()),
+        merger.getFailedToMergeFiles());
+    AppContext.RUN.ui.popTask(task, "");
+  }
+
+  /**
+   * Test merge() with merge(1): files changed on one side only are still triaged by hash, and
+   * merge(1) only runs on the file changed on both sides.
+   */
+  public void testMerge_triagedBeforeMerge1() throws Exception {
+    AppContext.RUN.fileSystem = new SystemFileSystem(AppContext.RUN.ui);
+    Codebase orig = writeCodebase("orig", "same", "s\n", "destOnly", "a\n", "both", "a\n");
+    Codebase dest = writeCodebase("dest", "same", "s\n", "destOnly", "D\n", "both", "D\n");
+    Codebase mod = writeCodebase("mod", "same", "s\n", "destOnly", "a\n", "both", "M\n");
+
+    Ui.Task task = AppContext.RUN.ui.pushTask("merge", "Merge codebases");
+    CodebaseMerger merger = new CodebaseMerger(orig, mod, dest);
+    // Only "both" is merged by merge(1).
+    expect(cmd.runCommand(EasyMock.eq("merge"), EasyMock.<List<String>>anyObject(),
+        EasyMock.<String>anyObject())).andReturn("");
+    control.replay();
+    Codebase merged = merger.merge();
+    control.verify();
+
+    assertEquals("s\n", Files.toString(merged.getFile("same"), Charsets.UTF_8));
+    assertEquals("D\n", Files.toString(merged.getFile("destOnly"), Charsets.UTF_8));
+    assertEquals(3, merger.getMergedFiles().size());
+    AppContext.RUN.ui.popTask(task, "");
+  }
 }
@@ -2,10 +2,17 @@
 
 package com.google.devtools.moe.client.codebase;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.parser.RepositoryExpression;
 import com.google.devtools.moe.client.parser.Term;
+import com.google.devtools.moe.client.testing.AppContextForTesting;
 
 import java.io.File;
 
@@ -31,4 +38,20 @@ public class CodebaseTest extends TestCase {
       fail();
     } catch (MoeProblem p) {}
   }
+
+  public void testGetRelativeFilenames_fromManifest() throws Exception {
+    AppContextForTesting.initForTest();
+    AppContext.RUN.fileSystem = new SystemFileSystem(AppContext.RUN.ui);
+    File root = Files.createTempDir();
+    assertTrue(new File(root, "dir").mkdir());
+    Files.write("a", new File(root, "dir/a"), Charsets.UTF_8);
+    Files.write("b", new File(root, "b"), Charsets.UTF_8);
+    Codebase c = new Codebase(root, "internal", null);
+
+    assertEquals(ImmutableSet.of("b", "dir/a"), c.getRelativeFilenames());
+    // The names come from the one walk of the directory.
+    assertSame(c.getManifest().getRelativeFilenames(), c.getRelativeFilenames());
+    assertEquals(Utils.makeFilenamesRelative(AppContext.RUN.fileSystem.findFiles(root), root),
+        c.getRelativeFilenames());
+  }
 }
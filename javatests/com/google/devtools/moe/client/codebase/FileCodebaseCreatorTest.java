@@ -10,6 +10,7 @@ import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.TarExtractor;
 import com.google.devtools.moe.client.testing.AppContextForTesting;
 import com.google.devtools.moe.client.testing.FileCodebaseCreator;
 
@@ -168,7 +169,14 @@ public class FileCodebaseCreatorTest extends TestCase {
     AppContext.RUN.cmd = mockcmd;
 
     control.replay();
-    File codebasePath = FileCodebaseCreator.getCodebasePath(fileFolder);
+    // Fork tar, as mocked above, rather than extract the archive in-process.
+    System.setProperty(TarExtractor.ENABLED_PROPERTY, "false");
+    File codebasePath;
+    try {
+      codebasePath = FileCodebaseCreator.getCodebasePath(fileFolder);
+    } finally {
+      System.clearProperty(TarExtractor.ENABLED_PROPERTY);
+    }
     control.verify();
 
     assertNotNull(codebasePath);
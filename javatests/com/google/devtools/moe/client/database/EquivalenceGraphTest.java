@@ -0,0 +1,56 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.database;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.moe.client.repositories.Revision;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for EquivalenceGraph.
+ */
+public class EquivalenceGraphTest extends TestCase {
+
+  private final Revision internal1 = new Revision("1", "internal");
+  private final Revision internal2 = new Revision("2", "internal");
+  private final Revision git = new Revision("a", "public_git");
+  private final Revision hg = new Revision("b", "public_hg");
+  private final Revision svn = new Revision("3", "public_svn");
+
+  public void testFindEquivalences_transitive() {
+    EquivalenceGraph graph = new EquivalenceGraph();
+    graph.add(new Equivalence(internal1, git));
+    graph.add(new Equivalence(git, hg));
+
+    assertEquals(ImmutableSet.of(hg), graph.findEquivalences(internal1, "public_hg"));
+    assertEquals(ImmutableSet.of(internal1), graph.findEquivalences(hg, "internal"));
+    assertEquals(ImmutableSet.of(git), graph.findEquivalences(hg, "public_git"));
+    assertTrue(graph.findEquivalences(internal1, "public_svn").isEmpty());
+    assertTrue(graph.findEquivalences(svn, "internal").isEmpty());
+  }
+
+  public void testFindEquivalences_mergesClasses() {
+    EquivalenceGraph graph = new EquivalenceGraph();
+    graph.add(new Equivalence(internal1, git));
+    graph.add(new Equivalence(internal2, hg));
+    graph.add(new Equivalence(hg, svn));
+    assertTrue(graph.findEquivalences(internal1, "public_svn").isEmpty());
+
+    graph.add(new Equivalence(internal2, git));
+    assertEquals(ImmutableSet.of(svn), graph.findEquivalences(internal1, "public_svn"));
+    assertEquals(ImmutableSet.of(internal2), graph.findEquivalences(internal1, "internal"));
+    assertEquals(ImmutableSet.of(internal1, internal2), graph.findEquivalences(svn, "internal"));
+  }
+
+  public void testDbStorage_findTransitiveEquivalences() throws Exception {
+    FileDb db = FileDb.makeDbFromDbText("{}");
+    db.noteEquivalence(new Equivalence(internal1, git));
+    db.noteEquivalence(new Equivalence(hg, internal1));
+
+    assertTrue(db.findEquivalences(git, "public_hg").isEmpty());
+    assertEquals(ImmutableSet.of(hg), db.findTransitiveEquivalences(git, "public_hg"));
+    assertTrue(new EquivalenceMatcher("public_hg", db, true).matches(git));
+    assertFalse(new EquivalenceMatcher("public_hg", db).matches(git));
+  }
+}
@@ -8,6 +8,7 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.project.InvalidProject;
 import com.google.devtools.moe.client.repositories.Revision;
 import com.google.devtools.moe.client.testing.AppContextForTesting;
 
@@ -15,6 +16,7 @@ import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 
 import java.io.File;
+import java.io.StringReader;
 
 import junit.framework.TestCase;
 
@@ -101,6 +103,50 @@ public class FileDbTest extends TestCase {
                  ImmutableSet.of(new Revision("r2", "name2"), new Revision("r3", "name2")));
   }
 
+  public void testFindEquivalences_afterNoteEquivalence() throws Exception {
+    FileDb db = FileDb.makeDbFromDbText("{\"equivalences\":[]}");
+    Revision r1 = new Revision("r1", "name1");
+    assertTrue(db.findEquivalences(r1, "name2").isEmpty());
+
+    db.noteEquivalence(new Equivalence(r1, new Revision("r2", "name2")));
+    db.noteEquivalence(new Equivalence(new Revision("r2", "name2"), r1));
+    db.noteEquivalence(new Equivalence(new Revision("r3", "name3"), r1));
+    assertEquals(ImmutableSet.of(new Revision("r2", "name2")), db.findEquivalences(r1, "name2"));
+    assertEquals(ImmutableSet.of(r1), db.findEquivalences(new Revision("r3", "name3"), "name1"));
+    assertEquals(2, db.getEquivalences().size());
+  }
+
+  public void testMakeDbFromDbText_migrationsAndUnknownFields() throws Exception {
+    String dbText = Joiner.on("\n").join(
+        "{",
+        "  'comment': {'ignored': [1, 2]},",
+        "  'equivalences': null,",
+        "  'migrations': [",
+        "    {",
+        "      'fromRevision': {",
+        "        'revId': 'r1',",
+        "        'repositoryName': 'name1'",
+        "      },",
+        "      'toRevision': {",
+        "        'revId': 'r2',",
+        "        'repositoryName': 'name2'",
+        "      }",
+        "    }",
+        "  ]",
+        "}");
+    FileDb db = FileDb.makeDbFromDbText(dbText);
+    assertTrue(db.getEquivalences().isEmpty());
+    assertFalse(db.noteMigration(new SubmittedMigration(
+        new Revision("r1", "name1"), new Revision("r2", "name2"))));
+  }
+
+  public void testMakeDbFromDbText_invalid() throws Exception {
+    try {
+      FileDb.makeDbFromDbText("{'equivalences': {}}");
+      fail("Parsed a DB whose equivalences aren't a list.");
+    } catch (InvalidProject expected) {}
+  }
+
   public void testMakeDbFromFile() throws Exception {
     IMocksControl control = EasyMock.createControl();
     FileSystem fileSystem = control.createMock(FileSystem.class);
@@ -123,7 +169,7 @@ public class FileDbTest extends TestCase {
         "  ]",
         "}");
 
-    expect(fileSystem.fileToString(dbFile)).andReturn(dbText);
+    expect(fileSystem.newReader(dbFile)).andReturn(new StringReader(dbText));
 
     control.replay();
     assertEquals(
@@ -0,0 +1,144 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.database;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.devtools.moe.client.testing.AppContextForTesting;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ */
+public class JournalDbTest extends TestCase {
+
+  private static final Equivalence EQUIVALENCE =
+      new Equivalence(new Revision("r1", "name1"), new Revision("r2", "name2"));
+  private static final SubmittedMigration MIGRATION =
+      new SubmittedMigration(new Revision("r3", "name1"), new Revision("r4", "name2"));
+
+  private File dbFile;
+  private File journalFile;
+
+  @Override
+  public void setUp() {
+    AppContextForTesting.initForTest();
+    dbFile = new File(Files.createTempDir(), "db.json");
+    journalFile = new File(dbFile.getPath() + ".journal");
+  }
+
+  public void testImportsFileDbFormat() throws Exception {
+    Files.write("{\"equivalences\":[{\"rev1\":{\"revId\":\"r1\",\"repositoryName\":\"name1\"},"
+        + "\"rev2\":{\"revId\":\"r2\",\"repositoryName\":\"name2\"}}]}", dbFile, Charsets.UTF_8);
+
+    JournalDb db = JournalDb.makeDbFromFile(dbFile.getPath());
+    assertEquals(ImmutableSet.of(EQUIVALENCE), db.getEquivalences());
+    assertEquals(ImmutableSet.of(new Revision("r2", "name2")),
+        db.findEquivalences(new Revision("r1", "name1"), "name2"));
+  }
+
+  public void testWriteAppendsToJournal() throws Exception {
+    JournalDb db = JournalDb.makeDbFromFile(dbFile.getPath());
+    db.noteEquivalence(EQUIVALENCE);
+    assertTrue(db.noteMigration(MIGRATION));
+    db.writeToLocation(dbFile.getPath());
+
+    assertFalse(dbFile.exists());
+    assertEquals(2, Files.readLines(journalFile, Charsets.UTF_8).size());
+
+    JournalDb reloaded = JournalDb.makeDbFromFile(dbFile.getPath());
+    assertEquals(ImmutableSet.of(EQUIVALENCE), reloaded.getEquivalences());
+    assertFalse(reloaded.noteMigration(MIGRATION));
+
+    // Nothing new was noted, so the journal doesn't grow.
+    reloaded.noteEquivalence(EQUIVALENCE);
+    reloaded.writeToLocation(dbFile.getPath());
+    assertEquals(2, Files.readLines(journalFile, Charsets.UTF_8).size());
+  }
+
+  public void testCompact() throws Exception {
+    JournalDb db = JournalDb.makeDbFromFile(dbFile.getPath());
+    db.noteEquivalence(EQUIVALENCE);
+    db.noteMigration(MIGRATION);
+    db.compact();
+
+    assertFalse(journalFile.exists());
+    FileDb snapshot = FileDb.makeDbFromDbText(Files.toString(dbFile, Charsets.UTF_8));
+    assertEquals(ImmutableSet.of(EQUIVALENCE), snapshot.getEquivalences());
+    assertFalse(snapshot.noteMigration(MIGRATION));
+  }
+
+  public void testDropsPartlyWrittenRecord() throws Exception {
+    JournalDb db = JournalDb.makeDbFromFile(dbFile.getPath());
+    db.noteEquivalence(EQUIVALENCE);
+    db.noteMigration(MIGRATION);
+    db.writeToLocation(dbFile.getPath());
+
+    RandomAccessFile journal = new RandomAccessFile(journalFile, "rw");
+    journal.setLength(journal.length() - 5);
+    journal.close();
+
+    db = JournalDb.makeDbFromFile(dbFile.getPath());
+    assertEquals(ImmutableSet.of(EQUIVALENCE), db.getEquivalences());
+    assertTrue(db.noteMigration(MIGRATION));
+    db.writeToLocation(dbFile.getPath());
+
+    db = JournalDb.makeDbFromFile(dbFile.getPath());
+    assertFalse(db.noteMigration(MIGRATION));
+  }
+
+  public void testSkipsBlankLines() throws Exception {
+    JournalDb db = JournalDb.makeDbFromFile(dbFile.getPath());
+    db.noteEquivalence(EQUIVALENCE);
+    db.noteMigration(MIGRATION);
+    db.writeToLocation(dbFile.getPath());
+
+    // As if edited by hand, or concatenated with another journal.
+    List<String> lines = Files.readLines(journalFile, Charsets.UTF_8);
+    Files.write("\n" + lines.get(0) + "\n  \n" + lines.get(1) + "\n\n", journalFile,
+        Charsets.UTF_8);
+
+    db = JournalDb.makeDbFromFile(dbFile.getPath());
+    assertEquals(ImmutableSet.of(EQUIVALENCE), db.getEquivalences());
+    assertFalse(db.noteMigration(MIGRATION));
+  }
+
+  public void testMergesConcurrentWriters() throws Exception {
+    Equivalence other = new Equivalence(new Revision("r5", "name1"), new Revision("r6", "name2"));
+    JournalDb first = JournalDb.makeDbFromFile(dbFile.getPath());
+    JournalDb second = JournalDb.makeDbFromFile(dbFile.getPath());
+
+    first.noteEquivalence(EQUIVALENCE);
+    second.noteEquivalence(other);
+    first.writeToLocation(dbFile.getPath());
+    second.writeToLocation(dbFile.getPath());
+
+    assertEquals(ImmutableSet.of(EQUIVALENCE, other), second.getEquivalences());
+    assertEquals(ImmutableSet.of(EQUIVALENCE, other),
+        JournalDb.makeDbFromFile(dbFile.getPath()).getEquivalences());
+  }
+
+  public void testMergesAfterConcurrentCompaction() throws Exception {
+    Equivalence other = new Equivalence(new Revision("r5", "name1"), new Revision("r6", "name2"));
+    JournalDb first = JournalDb.makeDbFromFile(dbFile.getPath());
+    first.noteMigration(MIGRATION);
+    first.writeToLocation(dbFile.getPath());
+    JournalDb second = JournalDb.makeDbFromFile(dbFile.getPath());
+
+    first.noteEquivalence(EQUIVALENCE);
+    first.compact();
+    second.noteEquivalence(other);
+    second.writeToLocation(dbFile.getPath());
+
+    JournalDb reloaded = JournalDb.makeDbFromFile(dbFile.getPath());
+    assertEquals(ImmutableSet.of(EQUIVALENCE, other), reloaded.getEquivalences());
+    assertFalse(reloaded.noteMigration(MIGRATION));
+    assertEquals(1, Files.readLines(journalFile, Charsets.UTF_8).size());
+  }
+}
@@ -2,11 +2,16 @@
 
 package com.google.devtools.moe.client.directives;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import com.google.devtools.moe.client.AppContext;
+import com.google.devtools.moe.client.SystemFileSystem;
 import com.google.devtools.moe.client.testing.AppContextForTesting;
 import com.google.devtools.moe.client.testing.InMemoryProjectContextFactory;
 import com.google.devtools.moe.client.testing.RecordingUi;
 
+import java.io.File;
+
 import junit.framework.TestCase;
 
 /**
@@ -35,4 +40,35 @@ public class LastEquivalenceDirectiveTest extends TestCase {
     assertEquals("Last equivalence: internal{1} == public{1}",
                  ((RecordingUi) AppContext.RUN.ui).lastInfo);
   }
+
+  public void testPerform_transitive() throws Exception {
+    AppContext.RUN.fileSystem = new SystemFileSystem(AppContext.RUN.ui);
+    ((InMemoryProjectContextFactory) AppContext.RUN.contextFactory).projectConfigs.put(
+        "moe_config.txt",
+        "{\"name\": \"foo\", \"repositories\": {" +
+        "\"internal\": {\"type\": \"dummy\"}}}");
+    // internal{1} is equivalent to public_hg{7} only through public_svn{5}.
+    File db = File.createTempFile("moe_db_", ".txt");
+    Files.write("{\"equivalences\":[" +
+        "{\"rev1\":{\"revId\":\"1\",\"repositoryName\":\"internal\"}," +
+        "\"rev2\":{\"revId\":\"5\",\"repositoryName\":\"public_svn\"}}," +
+        "{\"rev1\":{\"revId\":\"5\",\"repositoryName\":\"public_svn\"}," +
+        "\"rev2\":{\"revId\":\"7\",\"repositoryName\":\"public_hg\"}}]}",
+        db, Charsets.UTF_8);
+    LastEquivalenceDirective d = new LastEquivalenceDirective();
+    LastEquivalenceDirective.LastEquivalenceOptions options =
+        ((LastEquivalenceDirective.LastEquivalenceOptions) d.getFlags());
+    options.configFilename = "moe_config.txt";
+    options.dbLocation = db.getAbsolutePath();
+    options.fromRepository = "internal(revision=1)";
+    options.withRepository = "public_hg";
+    assertEquals(0, d.perform());
+    assertTrue(((RecordingUi) AppContext.RUN.ui).lastInfo,
+        ((RecordingUi) AppContext.RUN.ui).lastInfo.startsWith("No equivalence was found"));
+
+    options.transitive = true;
+    assertEquals(0, d.perform());
+    assertEquals("Last equivalence: internal{1} == public_hg{7}",
+                 ((RecordingUi) AppContext.RUN.ui).lastInfo);
+  }
 }
@@ -15,6 +15,7 @@ import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 
 import java.io.File;
+import java.io.StringReader;
 
 import junit.framework.TestCase;
 
@@ -112,7 +113,7 @@ public class NoteEquivalenceDirectiveTest extends TestCase {
         "}").replace('\'', '"');
 
     expect(mockFs.exists(new File("/foo/db.txt"))).andReturn(true);
-    expect(mockFs.fileToString(new File("/foo/db.txt"))).andReturn(dbString);
+    expect(mockFs.newReader(new File("/foo/db.txt"))).andReturn(new StringReader(dbString));
     mockFs.write(dbString,  new File("/foo/db.txt"));
 
     control.replay();
@@ -159,7 +160,7 @@ public class NoteEquivalenceDirectiveTest extends TestCase {
         )).replace('\'', '"');
 
     expect(mockFs.exists(new File("/foo/db.txt"))).andReturn(true);
-    expect(mockFs.fileToString(new File("/foo/db.txt"))).andReturn(oldDbString);
+    expect(mockFs.newReader(new File("/foo/db.txt"))).andReturn(new StringReader(oldDbString));
     mockFs.write(newDbString,  new File("/foo/db.txt"));
 
     control.replay();
@@ -5,9 +5,7 @@ package com.google.devtools.moe.client.dvcs;
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.base.Suppliers;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.codebase.Codebase;
@@ -50,7 +48,6 @@ public class AbstractDvcsCodebaseCreatorTest extends TestCase {
     mockRepoConfig = control.createMock(RepositoryConfig.class);
 
     expect(mockRepo.getConfig()).andReturn(mockRepoConfig).anyTimes();
-    expect(mockRepoConfig.getIgnoreFileRes()).andReturn(ImmutableList.<String>of());
     expect(mockRepo.getRepositoryName()).andReturn(MOCK_REPO_NAME);
 
     codebaseCreator = new AbstractDvcsCodebaseCreator(
@@ -65,10 +62,6 @@ public class AbstractDvcsCodebaseCreatorTest extends TestCase {
 
   public void testCreate_noGivenRev() throws Exception {
     String archiveTempDir = "/tmp/git_archive_mockrepo_head";
-    // Short-circuit Utils.filterFilesByPredicate(ignore_files_re).
-    expect(AppContext.RUN.fileSystem.findFiles(new File(archiveTempDir)))
-        .andReturn(ImmutableSet.<File>of());
-
     expect(mockRevHistory.findHighestRevision(null))
         .andReturn(new Revision("mock head changeset ID", MOCK_REPO_NAME));
     expect(mockRepo.archiveAtRevision("mock head changeset ID"))
@@ -88,10 +81,6 @@ public class AbstractDvcsCodebaseCreatorTest extends TestCase {
   public void testCreate_givenRev() throws Exception {
     String givenRev = "givenrev";
     String archiveTempDir = "/tmp/git_reclone_mockrepo_head_" + givenRev;
-    // Short-circuit Utils.filterFilesByPredicate(ignore_files_re).
-    expect(AppContext.RUN.fileSystem.findFiles(new File(archiveTempDir)))
-        .andReturn(ImmutableSet.<File>of());
-
     expect(mockRevHistory.findHighestRevision(givenRev))
         .andReturn(new Revision(givenRev, MOCK_REPO_NAME));
     expect(mockRepo.archiveAtRevision(givenRev)).andReturn(new File(archiveTempDir));
@@ -0,0 +1,87 @@
+// Copyright 2011 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.dvcs.git;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.BufferingCommandRunner;
+import com.google.devtools.moe.client.CommandRunner;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link GitCatFileBatch} against a real git repository.
+ */
+public class GitCatFileBatchTest extends TestCase {
+
+  private final CommandRunner cmd = new BufferingCommandRunner();
+  private File repo;
+  private String head;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    repo = Files.createTempDir();
+    git("init", "-q");
+    Files.write("hello\n", new File(repo, "a.txt"), Charsets.UTF_8);
+    git("add", "a.txt");
+    git("-c", "user.name=Foo", "-c", "user.email=foo@google.com",
+        "commit", "-q", "-m", "message");
+    head = git("rev-parse", "HEAD").trim();
+  }
+
+  private String git(String... args) throws Exception {
+    return cmd.runCommand("git", ImmutableList.copyOf(args), repo.getAbsolutePath());
+  }
+
+  public void testGetCommit() throws Exception {
+    GitCatFileBatch batch = new GitCatFileBatch(repo);
+    GitCatFileBatch.GitObject commit = batch.get("HEAD^{commit}");
+    assertEquals(head, commit.hash);
+    assertEquals("commit", commit.type);
+    assertTrue(new String(commit.content, "UTF-8").endsWith("\n\nmessage\n"));
+
+    GitCatFileBatch.GitObject blob = batch.get("HEAD:a.txt");
+    assertEquals("blob", blob.type);
+    assertEquals("hello\n", new String(blob.content, "UTF-8"));
+    batch.close();
+  }
+
+  public void testMissing() throws Exception {
+    GitCatFileBatch batch = new GitCatFileBatch(repo);
+    assertNull(batch.get("no_such_branch^{commit}"));
+    assertEquals(head, batch.get(head).hash);
+    batch.close();
+  }
+
+  public void testManyQueriesAreChunked() throws Exception {
+    GitCatFileBatch batch = new GitCatFileBatch(repo);
+    List<String> names = Lists.newArrayList();
+    for (int i = 0; i < 5000; i++) {
+      names.add((i % 2 == 0) ? "HEAD" : "missing_" + i);
+    }
+    List<GitCatFileBatch.GitObject> objects = batch.get(names);
+    assertEquals(5000, objects.size());
+    for (int i = 0; i < 5000; i++) {
+      if (i % 2 == 0) {
+        assertEquals(head, objects.get(i).hash);
+      } else {
+        assertNull(objects.get(i));
+      }
+    }
+    batch.close();
+  }
+
+  public void testRestartsAfterClose() throws Exception {
+    GitCatFileBatch batch = new GitCatFileBatch(repo);
+    assertEquals(head, batch.get("HEAD").hash);
+    batch.close();
+    assertEquals(head, batch.get("HEAD").hash);
+    batch.close();
+  }
+}
@@ -4,12 +4,20 @@ package com.google.devtools.moe.client.dvcs.git;
 
 import static org.easymock.EasyMock.expect;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import com.google.devtools.moe.client.AppContext;
+import com.google.devtools.moe.client.BufferingCommandRunner;
 import com.google.devtools.moe.client.CommandRunner;
+import com.google.devtools.moe.client.CommandRunner.OutputHandler;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.FileSystem.Lifetime;
 import com.google.devtools.moe.client.Lifetimes;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.TarExtractor;
+import com.google.devtools.moe.client.Ui;
+import com.google.devtools.moe.client.dvcs.MirrorCache;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 import com.google.devtools.moe.client.testing.AppContextForTesting;
 
@@ -80,6 +88,200 @@ public class GitClonedRepositoryTest extends TestCase {
     control.verify();
   }
 
+  public void testCloneLocally_fromMirror() throws Exception {
+    File mirrorCache = Files.createTempDir();
+    File mirror = new File(mirrorCache, MirrorCache.mirrorName("git", repositoryURL));
+    mirror.mkdir();
+
+    expect(mockFS.getTemporaryDirectory(
+        EasyMock.eq("git_clone_" + repositoryName + "_"), EasyMock.<Lifetime>anyObject()))
+        .andReturn(new File(localCloneTempDir));
+    expect(cmd.runCommand(
+        "git", ImmutableList.of("fetch", "--prune", "origin"), mirror.getAbsolutePath()))
+        .andReturn("");
+    expect(cmd.runCommand(
+        "git", ImmutableList.of("clone", mirror.getAbsolutePath(), localCloneTempDir), ""))
+        .andReturn("");
+    expect(cmd.runCommand(
+        "git", ImmutableList.of("remote", "set-url", "origin", repositoryURL), localCloneTempDir))
+        .andReturn("");
+
+    control.replay();
+    System.setProperty(MirrorCache.DIRECTORY_PROPERTY, mirrorCache.getAbsolutePath());
+    // The mirror must be brought up to date, whatever earlier tests did with the cache.
+    MirrorCache.resetForTesting();
+    try {
+      new GitClonedRepository(repositoryName, repositoryConfig)
+          .cloneLocallyAtHead(Lifetimes.persistent());
+    } finally {
+      System.clearProperty(MirrorCache.DIRECTORY_PROPERTY);
+      MirrorCache.resetForTesting();
+    }
+    control.verify();
+  }
+
+  public void testCloneFromLocalClone() throws Exception {
+    String writerCloneTempDir = "/tmp/git_clone_mockrepo_67890";
+    expectCloneLocally();
+    expect(mockFS.getTemporaryDirectory(
+        EasyMock.eq("git_clone_" + repositoryName + "_"), EasyMock.<Lifetime>anyObject()))
+        .andReturn(new File(writerCloneTempDir));
+    expect(cmd.runCommand(
+        "git", ImmutableList.of("clone", localCloneTempDir, writerCloneTempDir), ""))
+        .andReturn("");
+    // Remote-tracking branches, e.g. of import_branches, are only in the head clone.
+    expect(cmd.runCommand(
+        "git",
+        ImmutableList.of(
+            "fetch", localCloneTempDir, "+refs/remotes/origin/*:refs/remotes/origin/*"),
+        writerCloneTempDir))
+        .andReturn("");
+    expect(cmd.runCommand(
+        "git", ImmutableList.of("remote", "set-url", "origin", repositoryURL), writerCloneTempDir))
+        .andReturn("");
+
+    control.replay();
+    GitClonedRepository headClone = new GitClonedRepository(repositoryName, repositoryConfig);
+    headClone.cloneLocallyAtHead(Lifetimes.persistent());
+    GitClonedRepository writerClone =
+        GitClonedRepository.cloneFromLocalClone(headClone, Lifetimes.persistent());
+    assertEquals(repositoryName, writerClone.getRepositoryName());
+    assertEquals(writerCloneTempDir, writerClone.getLocalTempDir().getAbsolutePath());
+    control.verify();
+  }
+
+  /**
+   * Archives a real git repository, unpacking 'git archive' in-process, which must leave out the
+   * files matching ignore_file_res.
+   */
+  public void testArchiveAtRevision_inProcessLeavesOutIgnoredFiles() throws Exception {
+    AppContext.RUN.cmd = new BufferingCommandRunner();
+    AppContext.RUN.fileSystem = new SystemFileSystem(AppContext.RUN.ui);
+    File repo = Files.createTempDir();
+    git(repo, "init", "-q");
+    assertTrue(new File(repo, "dir").mkdir());
+    Files.write("kept", new File(repo, "dir/kept.txt"), Charsets.UTF_8);
+    Files.write("ignored", new File(repo, "dir/ignored_file.txt"), Charsets.UTF_8);
+    git(repo, "add", "dir");
+    git(repo, "-c", "user.name=Foo", "-c", "user.email=foo@google.com",
+        "commit", "-q", "-m", "message");
+
+    RepositoryConfig config = control.createMock(RepositoryConfig.class);
+    expect(config.getUrl()).andReturn(repo.getAbsolutePath()).anyTimes();
+    expect(config.getPaths()).andReturn(ImmutableList.<String>of()).anyTimes();
+    expect(config.getIgnoreFileRes()).andReturn(ImmutableList.of("/ignored_")).anyTimes();
+    control.replay();
+
+    Ui.Task task = AppContext.RUN.ui.pushTask("archive", "Archive");
+    GitClonedRepository clone = new GitClonedRepository(repositoryName, config);
+    clone.cloneLocallyAtHead(Lifetimes.currentTask());
+    try {
+      File archive = clone.archiveAtRevision(null);
+      assertEquals("kept", Files.toString(new File(archive, "dir/kept.txt"), Charsets.UTF_8));
+      assertFalse(new File(archive, "dir/ignored_file.txt").exists());
+    } finally {
+      AppContext.RUN.ui.popTask(task, "");
+    }
+    control.verify();
+  }
+
+  public void testArchiveAtRevision_onlyExistingPaths() throws Exception {
+    String revId = "1";
+    String archiveDir = "/tmp/git_archive_mockrepo_1_12345";
+    expectCloneLocally();
+    expect(repositoryConfig.getPaths())
+        .andReturn(ImmutableList.of("java/", "README", "new")).anyTimes();
+    expect(repositoryConfig.getIgnoreFileRes()).andReturn(ImmutableList.<String>of()).anyTimes();
+    expect(mockFS.getTemporaryDirectory(
+        EasyMock.eq("git_archive_mockrepo_1_"), EasyMock.<Lifetime>anyObject()))
+        .andReturn(new File(archiveDir));
+    mockFS.makeDirs(new File(archiveDir));
+    // "new" was created after revision 1.
+    expect(cmd.runCommand(
+        "git",
+        ImmutableList.of("ls-tree", "--name-only", "-z", revId, "--", "java", "README", "new"),
+        localCloneTempDir))
+        .andReturn("README\0java\0");
+    // git's output is extracted as it is produced, without a tarball or tar.
+    expect(cmd.runCommandStreaming(
+        EasyMock.eq("git"),
+        EasyMock.eq(ImmutableList.of("archive", "--format=tar", revId, "--", "java/", "README")),
+        EasyMock.eq(localCloneTempDir),
+        EasyMock.<OutputHandler<Void>>anyObject()))
+        .andReturn(null);
+
+    control.replay();
+    GitClonedRepository repo = new GitClonedRepository(repositoryName, repositoryConfig);
+    repo.cloneLocallyAtHead(Lifetimes.persistent());
+    AppContext.RUN.ui.pushTask("archive", "Archive");
+    assertEquals(new File(archiveDir), repo.archiveAtRevision(revId));
+    control.verify();
+  }
+
+  public void testArchiveAtRevision_forkedTar() throws Exception {
+    String revId = "1";
+    String archiveDir = "/tmp/git_archive_mockrepo_1_12345";
+    String tarball = "/tmp/git_tarball_mockrepo_1.tar.12345";
+    expectCloneLocally();
+    expect(repositoryConfig.getPaths()).andReturn(ImmutableList.<String>of()).anyTimes();
+    expect(repositoryConfig.getIgnoreFileRes()).andReturn(ImmutableList.<String>of()).anyTimes();
+    expect(mockFS.getTemporaryDirectory(
+        EasyMock.eq("git_archive_mockrepo_1_"), EasyMock.<Lifetime>anyObject()))
+        .andReturn(new File(archiveDir));
+    mockFS.makeDirs(new File(archiveDir));
+    expect(mockFS.getTemporaryDirectory(
+        EasyMock.eq("git_tarball_mockrepo_1.tar."), EasyMock.<Lifetime>anyObject()))
+        .andReturn(new File(tarball));
+    expect(cmd.runCommand(
+        "git",
+        ImmutableList.of("archive", "--format=tar", "--output=" + tarball, revId, "--"),
+        localCloneTempDir))
+        .andReturn("");
+    expect(cmd.runCommand("tar", ImmutableList.of("xf", tarball, "-C", archiveDir), ""))
+        .andReturn("");
+
+    control.replay();
+    GitClonedRepository repo = new GitClonedRepository(repositoryName, repositoryConfig);
+    repo.cloneLocallyAtHead(Lifetimes.persistent());
+    AppContext.RUN.ui.pushTask("archive", "Archive");
+    System.setProperty(TarExtractor.ENABLED_PROPERTY, "false");
+    try {
+      assertEquals(new File(archiveDir), repo.archiveAtRevision(revId));
+    } finally {
+      System.clearProperty(TarExtractor.ENABLED_PROPERTY);
+    }
+    control.verify();
+  }
+
+  public void testArchiveAtRevision_noExistingPaths() throws Exception {
+    String revId = "1";
+    String archiveDir = "/tmp/git_archive_mockrepo_1_12345";
+    expectCloneLocally();
+    expect(repositoryConfig.getPaths()).andReturn(ImmutableList.of("new")).anyTimes();
+    expect(repositoryConfig.getIgnoreFileRes()).andReturn(ImmutableList.<String>of()).anyTimes();
+    expect(mockFS.getTemporaryDirectory(
+        EasyMock.eq("git_archive_mockrepo_1_"), EasyMock.<Lifetime>anyObject()))
+        .andReturn(new File(archiveDir));
+    mockFS.makeDirs(new File(archiveDir));
+    expect(cmd.runCommand(
+        "git", ImmutableList.of("ls-tree", "--name-only", "-z", revId, "--", "new"),
+        localCloneTempDir))
+        .andReturn("");
+
+    // No 'git archive', which would fail on the pathspec: the codebase is empty.
+    control.replay();
+    GitClonedRepository repo = new GitClonedRepository(repositoryName, repositoryConfig);
+    repo.cloneLocallyAtHead(Lifetimes.persistent());
+    AppContext.RUN.ui.pushTask("archive", "Archive");
+    assertEquals(new File(archiveDir), repo.archiveAtRevision(revId));
+    control.verify();
+  }
+
+  private static String git(File repo, String... args) throws Exception {
+    return AppContext.RUN.cmd.runCommand(
+        "git", ImmutableList.copyOf(args), repo.getAbsolutePath());
+  }
+
   public void testUpdateToRevId_nonHeadRevId() throws Exception {
     String updateRevId = "notHead";
     String headRevId = "head";
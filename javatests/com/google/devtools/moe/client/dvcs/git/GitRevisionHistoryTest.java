@@ -4,11 +4,19 @@ package com.google.devtools.moe.client.dvcs.git;
 
 import static org.easymock.EasyMock.expect;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.AppContext;
+import com.google.devtools.moe.client.BufferingCommandRunner;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.devtools.moe.client.CommandRunner.OutputHandler;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.FileSystem.Lifetime;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.database.Equivalence;
 import com.google.devtools.moe.client.database.EquivalenceMatcher;
@@ -21,9 +29,14 @@ import com.google.devtools.moe.client.testing.AppContextForTesting;
 import com.google.devtools.moe.client.testing.DummyDb;
 
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.easymock.IExpectationSetters;
 import org.easymock.IMocksControl;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.util.List;
 import java.util.Set;
 
@@ -34,11 +47,6 @@ import junit.framework.TestCase;
  */
 public class GitRevisionHistoryTest extends TestCase {
 
-  private static final String LOG_FORMAT_COMMIT_ID = "%H";
-  private static final Joiner METADATA_JOINER = Joiner.on(GitRevisionHistory.LOG_DELIMITER); 
-  private static final String LOG_FORMAT_ALL_METADATA =
-      METADATA_JOINER.join("%H", "%an", "%ad", "%P", "%B");
-
   private IMocksControl control;
   private String repositoryName = "mockrepo";
   private String localCloneTempDir = "/tmp/git_tipclone_mockrepo_12345";
@@ -61,19 +69,75 @@ public class GitRevisionHistoryTest extends TestCase {
     return mockRepo;
   }
   
-  private IExpectationSetters<String> expectLogCommand(
-      GitClonedRepository mockRepo, String logFormat, String revName) throws CommandException {
-    return expect(mockRepo.runGitCommand(
-        "log",
-        "--max-count=1",
-        "--format=" + logFormat,
-        revName));
+  private IExpectationSetters<GitCatFileBatch.GitObject> expectCatFileCommit(
+      GitClonedRepository mockRepo, String revName) {
+    return expect(mockRepo.catFile(revName + "^{commit}"));
+  }
+
+  /**
+   * Expects a 'git log -z' starting at the given revision, and answers it by passing the given
+   * records to the output handler.
+   */
+  private void expectLog(GitClonedRepository mockRepo, String revName, String... records)
+      throws CommandException {
+    final byte[] output;
+    try {
+      output = Joiner.on("").join(records).getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+    expect(mockRepo.runGitCommandStreaming(
+        EasyMock.<OutputHandler<List<RevisionMetadata>>>anyObject(),
+        EasyMock.eq("log"),
+        EasyMock.eq("-z"),
+        EasyMock.startsWith("--max-count="),
+        EasyMock.eq("--format=" + GitRevisionHistory.NUL_DELIMITED_LOG_FORMAT),
+        EasyMock.eq("--date=rfc"),
+        EasyMock.eq(revName)))
+        .andAnswer(new IAnswer<List<RevisionMetadata>>() {
+          @SuppressWarnings("unchecked")
+          @Override public List<RevisionMetadata> answer() throws Throwable {
+            OutputHandler<List<RevisionMetadata>> handler =
+                (OutputHandler<List<RevisionMetadata>>) EasyMock.getCurrentArguments()[0];
+            return handler.handleOutput(new ByteArrayInputStream(output));
+          }
+        });
+  }
+
+  /**
+   * Makes one commit's output of 'git log -z' in the NUL-delimited format.
+   *
+   * @param parents  the parent hashes, separated by spaces
+   */
+  private static String logRecord(
+      String hash, String author, String parents, String description) {
+    return Joiner.on('\0').join(hash, author, author + " <" + author + "@google.com>",
+        "Tue, 15 Nov 2011 17:18:20 -0800", parents, description) + "\0";
+  }
+
+  /**
+   * Makes a commit object as 'git cat-file --batch' would return it.
+   *
+   * @param parents  the parent hashes, separated by spaces
+   */
+  private static GitCatFileBatch.GitObject commit(
+      String hash, String author, String parents, String description) throws Exception {
+    StringBuilder content = new StringBuilder("tree 4b825dc642cb6eb9a060e54bf8d69288fbee4904\n");
+    for (String parent : Splitter.on(' ').omitEmptyStrings().split(parents)) {
+      content.append("parent ").append(parent).append("\n");
+    }
+    content.append("author ").append(author).append(" <" + author + "@google.com>")
+        .append(" 1321406300 -0800\n");
+    content.append("committer ").append(author).append(" <" + author + "@google.com>")
+        .append(" 1321406300 -0800\n");
+    content.append("\n").append(description);
+    return new GitCatFileBatch.GitObject(hash, "commit", content.toString().getBytes("UTF-8"));
   }
   
   public void testFindHighestRevision() throws Exception {
     GitClonedRepository mockRepo = mockClonedRepo(repositoryName);
 
-    expectLogCommand(mockRepo, LOG_FORMAT_COMMIT_ID, "master").andReturn("mockHashID");
+    expectCatFileCommit(mockRepo, "master").andReturn(commit("mockHashID", "foo", "", "desc"));
 
     control.replay();
 
@@ -88,21 +152,14 @@ public class GitRevisionHistoryTest extends TestCase {
   public void testFindHighestRevision_nonExistentHashThrows() throws Exception {
     GitClonedRepository mockRepo = mockClonedRepo(repositoryName);
 
-    expectLogCommand(mockRepo, LOG_FORMAT_COMMIT_ID, "bogusHash")
-        .andThrow(
-            new CommandException(
-                "git",
-                ImmutableList.<String>of("mock args"),
-                "mock stdout",
-                "mock stderr: unknown revision",
-                1));
+    expectCatFileCommit(mockRepo, "bogusHash").andReturn(null);
 
     control.replay();
 
     try {
       GitRevisionHistory rh = new GitRevisionHistory(Suppliers.ofInstance(mockRepo));
       Revision rev = rh.findHighestRevision("bogusHash");
-      fail("'git log' didn't fail on bogus hash ID");
+      fail("'git cat-file' didn't fail on bogus hash ID");
     } catch (MoeProblem expected) {}
 
     control.verify();
@@ -111,17 +168,21 @@ public class GitRevisionHistoryTest extends TestCase {
   public void testGetMetadata() throws Exception {
     GitClonedRepository mockRepo = mockClonedRepo(repositoryName);
 
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "f00d").andReturn(METADATA_JOINER.join(
-        "f00d", "foo@google.com", "date", "d34d b33f", "description\n"));
+    expectCatFileCommit(mockRepo, "f00d").andReturn(
+        commit("f00d", "foo", "d34d b33f", "description\n"));
+    expect(mockRepo.runGitCommand("check-mailmap", "foo <foo@google.com>"))
+        .andReturn("foo <foo@google.com>\n");
 
     control.replay();
 
     GitRevisionHistory rh = new GitRevisionHistory(Suppliers.ofInstance(mockRepo));
     RevisionMetadata result = rh.getMetadata(new Revision("f00d", "mockrepo"));
     assertEquals("f00d", result.id);
-    assertEquals("foo@google.com", result.author);
-    assertEquals("date", result.date);
-    assertEquals("description\n", result.description);
+    assertEquals("foo", result.author);
+    assertEquals("foo <foo@google.com>", result.fullAuthor);
+    assertEquals("Tue, 15 Nov 2011 17:18:20 -0800", result.date);
+    assertEquals(1321406300000L, result.normalizedDate.getTime());
+    assertEquals("description\n\n", result.description);
     assertEquals(ImmutableList.of(new Revision("d34d", repositoryName),
                                   new Revision("b33f", repositoryName)),
                  result.parents);
@@ -129,22 +190,120 @@ public class GitRevisionHistoryTest extends TestCase {
     control.verify();
   }
 
-  public void testParseMetadata_multiLine() {
+  /**
+   * Reads one commit through both getMetadata and getAncestorMetadata in a real git repository
+   * with a .mailmap, which both must apply.
+   */
+  public void testGetMetadata_mailmap() throws Exception {
+    AppContext.RUN.cmd = new BufferingCommandRunner();
+    AppContext.RUN.fileSystem = control.createMock(FileSystem.class);
+    File repo = Files.createTempDir();
+    File clone = new File(Files.createTempDir(), "clone");
+    git(repo, "init", "-q");
+    Files.write("Right Name <right@google.com> <wrong@google.com>\n",
+        new File(repo, ".mailmap"), Charsets.UTF_8);
+    git(repo, "add", ".mailmap");
+    git(repo, "-c", "user.name=Wrong Name", "-c", "user.email=wrong@google.com",
+        "commit", "-q", "-m", "message");
+    String head = git(repo, "rev-parse", "HEAD").trim();
+
+    RepositoryConfig repositoryConfig = control.createMock(RepositoryConfig.class);
+    expect(repositoryConfig.getUrl()).andReturn(repo.getAbsolutePath()).anyTimes();
+    Lifetime lifetime = control.createMock(Lifetime.class);
+    expect(AppContext.RUN.fileSystem.getTemporaryDirectory("git_clone_mockrepo_", lifetime))
+        .andReturn(clone);
+    control.replay();
+
+    GitClonedRepository headClone = new GitClonedRepository(repositoryName, repositoryConfig);
+    headClone.cloneLocallyAtHead(lifetime);
+    GitRevisionHistory rh = new GitRevisionHistory(Suppliers.ofInstance(headClone));
+    Revision revision = new Revision(head, repositoryName);
+    RevisionMetadata fromCatFile = rh.getMetadata(revision);
+    RevisionMetadata fromLog = rh.getAncestorMetadata(revision, 1).get(0);
+    assertEquals("Right Name <right@google.com>", fromLog.fullAuthor);
+    assertEquals(fromLog.fullAuthor, fromCatFile.fullAuthor);
+    assertEquals(fromLog.author, fromCatFile.author);
+    control.verify();
+  }
+
+  private static String git(File repo, String... args) throws Exception {
+    return AppContext.RUN.cmd.runCommand(
+        "git", ImmutableList.copyOf(args), repo.getAbsolutePath());
+  }
+
+  public void testParseNulDelimitedLog() throws Exception {
     GitRevisionHistory rh = new GitRevisionHistory(Suppliers.ofInstance(
         mockClonedRepo(repositoryName)));
 
     control.replay();
-    RevisionMetadata rm = rh.parseMetadata(METADATA_JOINER.join(
-            "f00d", "foo@google.com", "date1", "d34d b33f", "desc with \n\nmultiple lines\n"));
+    List<RevisionMetadata> rms = rh.parseNulDelimitedLog(new StringReader(
+        logRecord("f00d", "foo", "d34d b33f", "desc with \n\nmultiple lines\n---\n")
+        + logRecord("d34d", "bar", "", "root")));
     control.verify();
 
+    assertEquals(2, rms.size());
+    RevisionMetadata rm = rms.get(0);
     assertEquals("f00d", rm.id);
-    assertEquals("foo@google.com", rm.author);
-    assertEquals("date1", rm.date);
-    assertEquals("desc with \n\nmultiple lines\n", rm.description);
+    assertEquals("foo", rm.author);
+    assertEquals("foo <foo@google.com>", rm.fullAuthor);
+    assertEquals("Tue, 15 Nov 2011 17:18:20 -0800", rm.date);
+    assertEquals("desc with \n\nmultiple lines\n---\n\n", rm.description);
     assertEquals(ImmutableList.of(new Revision("d34d", repositoryName),
                                   new Revision("b33f", repositoryName)),
                  rm.parents);
+    assertEquals("d34d", rms.get(1).id);
+    assertEquals("root\n", rms.get(1).description);
+    assertEquals(ImmutableList.of(), rms.get(1).parents);
+  }
+
+  public void testReadUntil() throws Exception {
+    StringReader in = new StringReader("a--b----c-");
+    assertEquals("a", GitRevisionHistory.readUntil(in, "--"));
+    assertEquals("b", GitRevisionHistory.readUntil(in, "--"));
+    assertEquals("", GitRevisionHistory.readUntil(in, "--"));
+    assertEquals("c-", GitRevisionHistory.readUntil(in, "--"));
+    assertNull(GitRevisionHistory.readUntil(in, "--"));
+  }
+
+  public void testGetAncestorMetadata() throws Exception {
+    GitClonedRepository mockRepo = mockClonedRepo(repositoryName);
+
+    expectLog(mockRepo, "f00d",
+        logRecord("f00d", "foo", "d34d b33f", "subject\n\nbody\n"),
+        logRecord("b33f", "bar", "", "root\n"),
+        logRecord("d34d", "foo", "", "other root\n"));
+
+    control.replay();
+
+    GitRevisionHistory rh = new GitRevisionHistory(Suppliers.ofInstance(mockRepo));
+    List<RevisionMetadata> result = rh.getAncestorMetadata(new Revision("f00d", "mockrepo"), 3);
+    assertEquals(3, result.size());
+    assertEquals("f00d", result.get(0).id);
+    assertEquals("foo <foo@google.com>", result.get(0).fullAuthor);
+    assertEquals("Tue, 15 Nov 2011 17:18:20 -0800", result.get(0).date);
+    // Like git log without -z, the message is followed by a newline.
+    assertEquals("subject\n\nbody\n\n", result.get(0).description);
+    assertEquals(ImmutableList.of(new Revision("d34d", repositoryName),
+                                  new Revision("b33f", repositoryName)),
+                 result.get(0).parents);
+    assertEquals("b33f", result.get(1).id);
+    assertEquals("bar", result.get(1).author);
+    assertEquals(ImmutableList.of(), result.get(1).parents);
+    assertEquals("d34d", result.get(2).id);
+
+    control.verify();
+  }
+
+  public void testParseNulDelimitedLog_truncated() throws Exception {
+    GitRevisionHistory rh = new GitRevisionHistory(Suppliers.ofInstance(
+        mockClonedRepo(repositoryName)));
+
+    control.replay();
+    try {
+      rh.parseNulDelimitedLog(new StringReader("f00d\0foo\0"));
+      fail("Truncated log parsed successfully.");
+    } catch (MoeProblem expected) {}
+    control.verify();
   }
 
   /**
@@ -152,9 +311,11 @@ public class GitRevisionHistoryTest extends TestCase {
    *
    * @param mockRepo the mock repository to use
    */
-  private void mockFindHeadRevisions(GitClonedRepository mockRepo) throws CommandException {
-    expectLogCommand(mockRepo, LOG_FORMAT_COMMIT_ID, "branch1").andReturn("mockHashID1");
-    expectLogCommand(mockRepo, LOG_FORMAT_COMMIT_ID, "branch2").andReturn("mockHashID2");
+  private void mockFindHeadRevisions(GitClonedRepository mockRepo) throws Exception {
+    expectCatFileCommit(mockRepo, "branch1").andReturn(
+        commit("mockHashID1", "uid", "parent", "description"));
+    expectCatFileCommit(mockRepo, "branch2").andReturn(
+        commit("mockHashID2", "uid", "", "description"));
   }
 
   public void testFindHeadRevisions() throws Exception {
@@ -179,16 +340,11 @@ public class GitRevisionHistoryTest extends TestCase {
     DummyDb db = new DummyDb(false);
 
     // Breadth-first search order.
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "mockHashID1")
-        .andReturn(METADATA_JOINER.join(
-            "mockHashID1", "uid@google.com", "date", "parent", "description"));
-
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "mockHashID2")
-        .andReturn(METADATA_JOINER.join(
-            "mockHashID2", "uid@google.com", "date", "", "description"));
+    expectLog(mockRepo, "mockHashID1",
+        logRecord("mockHashID1", "uid", "parent", "description"),
+        logRecord("parent", "uid", "", "description"));
 
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "parent")
-        .andReturn(METADATA_JOINER.join("parent", "uid@google.com", "date", "", "description"));
+    expectLog(mockRepo, "mockHashID2", logRecord("mockHashID2", "uid", "", "description"));
 
     control.replay();
 
@@ -226,13 +382,11 @@ public class GitRevisionHistoryTest extends TestCase {
     };
 
     // Breadth-first search order.
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "mockHashID1")
-        .andReturn(METADATA_JOINER.join(
-            "mockHashID1", "uid@google.com", "date", "parent1", "description"));
+    expectLog(mockRepo, "mockHashID1",
+        logRecord("mockHashID1", "uid", "parent1", "description"),
+        logRecord("parent1", "uid", "", "description"));
 
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "mockHashID2")
-        .andReturn(METADATA_JOINER.join(
-            "mockHashID2", "uid@google.com", "date", "", "description"));
+    expectLog(mockRepo, "mockHashID2", logRecord("mockHashID2", "uid", "", "description"));
 
     control.replay();
 
@@ -286,14 +440,12 @@ public class GitRevisionHistoryTest extends TestCase {
   public void testFindLastEquivalence() throws Exception {
     GitClonedRepository mockRepo = mockClonedRepo("repo2");
 
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "4")
-        .andReturn(METADATA_JOINER.join("4", "author", "date", "3a 3b", "description"));
-
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "3a")
-        .andReturn(METADATA_JOINER.join("3a", "author", "date", "2", "description"));
-
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "3b")
-        .andReturn(METADATA_JOINER.join("3b", "author", "date", "2", "description"));
+    // One log reads the whole history.
+    expectLog(mockRepo, "4",
+        logRecord("4", "author", "3a 3b", "description"),
+        logRecord("3b", "author", "2", "description"),
+        logRecord("3a", "author", "2", "description"),
+        logRecord("2", "author", "", "description"));
 
     control.replay();
 
@@ -358,17 +510,12 @@ public class GitRevisionHistoryTest extends TestCase {
   public void testFindLastEquivalenceNull() throws Exception {
     GitClonedRepository mockRepo = mockClonedRepo("repo2");
 
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "4")
-        .andReturn(METADATA_JOINER.join("4", "author", "date", "3a 3b", "description"));
-
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "3a")
-        .andReturn(METADATA_JOINER.join("3a", "author", "date", "2", "description"));
-
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "3b")
-        .andReturn(METADATA_JOINER.join("3b", "author", "date", "2", "description"));
-
-    expectLogCommand(mockRepo, LOG_FORMAT_ALL_METADATA, "2")
-        .andReturn(METADATA_JOINER.join("2", "author", "date", "", "description"));
+    // One log reads the whole history.
+    expectLog(mockRepo, "4",
+        logRecord("4", "author", "3a 3b", "description"),
+        logRecord("3b", "author", "2", "description"),
+        logRecord("3a", "author", "2", "description"),
+        logRecord("2", "author", "", "description"));
 
     control.replay();
 
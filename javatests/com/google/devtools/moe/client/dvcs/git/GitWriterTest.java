@@ -61,6 +61,7 @@ public class GitWriterTest extends TestCase {
     expect(mockRevClone.getLocalTempDir()).andReturn(writerRoot).anyTimes();
     expect(mockRevClone.getConfig()).andReturn(mockRepoConfig).anyTimes();
     expect(mockRepoConfig.getProjectSpace()).andReturn(projectSpace).anyTimes();
+    expect(mockRepoConfig.getPaths()).andReturn(ImmutableList.<String>of()).anyTimes();
   }
 
   public void testPutCodebase_emptyCodebase() throws Exception {
@@ -5,8 +5,10 @@ package com.google.devtools.moe.client.dvcs.hg;
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.CommandRunner;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.FileSystem.Lifetime;
 import com.google.devtools.moe.client.Lifetimes;
@@ -17,6 +19,7 @@ import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 
 import java.io.File;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -76,4 +79,104 @@ public class HgClonedRepositoryTest extends TestCase {
 
     control.verify();
   }
+
+  public void testArchiveAtRevision() throws Exception {
+    AppContextForTesting.initForTest();
+    IMocksControl control = EasyMock.createControl();
+    String repositoryName = "mockrepo";
+    String localCloneTempDir = "/tmp/hg_clone_mockrepo_12345";
+    String archiveTempDir = "/tmp/hg_archive_mockrepo_2_12345";
+    RepositoryConfig repositoryConfig = control.createMock(RepositoryConfig.class);
+    expect(repositoryConfig.getUrl()).andReturn("http://foo/hg").anyTimes();
+    expect(repositoryConfig.getPaths()).andReturn(ImmutableList.of("java", "README")).anyTimes();
+    expect(repositoryConfig.getIgnoreFileRes())
+        .andReturn(ImmutableList.of("^java/internal/", "(?i)\\.BAK$")).anyTimes();
+    FileSystem mockFS = control.createMock(FileSystem.class);
+    AppContext.RUN.fileSystem = mockFS;
+    CommandRunner cmd = control.createMock(CommandRunner.class);
+    AppContext.RUN.cmd = cmd;
+
+    expect(mockFS.getTemporaryDirectory(
+        EasyMock.eq("hg_clone_" + repositoryName + "_"), EasyMock.<Lifetime>anyObject()))
+        .andReturn(new File(localCloneTempDir));
+    expect(cmd.runCommand(EasyMock.eq("hg"), EasyMock.<List<String>>anyObject(), EasyMock.eq("")))
+        .andReturn("");
+    expect(mockFS.getTemporaryDirectory(
+        EasyMock.eq("hg_archive_" + repositoryName + "_2_"), EasyMock.<Lifetime>anyObject()))
+        .andReturn(new File(archiveTempDir));
+    // Only the configured paths are archived, and the ignored files hg can match are left out.
+    expect(cmd.runCommand("hg", ImmutableList.of(
+        "archive", "--rev=2", "--include=path:java", "--include=path:README",
+        "--exclude=re:.*(?:^java/internal/)", archiveTempDir), localCloneTempDir))
+        .andReturn("");
+    mockFS.deleteRecursively(new File(archiveTempDir, ".hg_archival.txt"));
+    // The regex with an inline flag, which hg would reject, is applied afterwards.
+    File kept = new File(archiveTempDir, "java/Foo.java");
+    File ignored = new File(archiveTempDir, "java/Foo.java.bak");
+    expect(mockFS.findFiles(new File(archiveTempDir)))
+        .andReturn(ImmutableSet.of(kept, ignored));
+    expect(mockFS.getSize(ignored)).andReturn(10L);
+    mockFS.deleteRecursively(ignored);
+
+    control.replay();
+    HgClonedRepository repo = new HgClonedRepository(repositoryName, repositoryConfig);
+    repo.cloneLocallyAtHead(Lifetimes.persistent());
+    AppContext.RUN.ui.pushTask("archive", "Archive");
+    assertEquals(new File(archiveTempDir), repo.archiveAtRevision("2"));
+    control.verify();
+  }
+
+  public void testArchiveAtRevision_noExistingPaths() throws Exception {
+    AppContextForTesting.initForTest();
+    IMocksControl control = EasyMock.createControl();
+    String repositoryName = "mockrepo";
+    String localCloneTempDir = "/tmp/hg_clone_mockrepo_12345";
+    String archiveTempDir = "/tmp/hg_archive_mockrepo_1_12345";
+    RepositoryConfig repositoryConfig = control.createMock(RepositoryConfig.class);
+    expect(repositoryConfig.getUrl()).andReturn("http://foo/hg").anyTimes();
+    expect(repositoryConfig.getPaths()).andReturn(ImmutableList.of("new")).anyTimes();
+    expect(repositoryConfig.getIgnoreFileRes()).andReturn(ImmutableList.<String>of()).anyTimes();
+    FileSystem mockFS = control.createMock(FileSystem.class);
+    AppContext.RUN.fileSystem = mockFS;
+    CommandRunner cmd = control.createMock(CommandRunner.class);
+    AppContext.RUN.cmd = cmd;
+
+    expect(mockFS.getTemporaryDirectory(
+        EasyMock.eq("hg_clone_" + repositoryName + "_"), EasyMock.<Lifetime>anyObject()))
+        .andReturn(new File(localCloneTempDir));
+    expect(cmd.runCommand(EasyMock.eq("hg"), EasyMock.<List<String>>anyObject(), EasyMock.eq("")))
+        .andReturn("");
+    expect(mockFS.getTemporaryDirectory(
+        EasyMock.eq("hg_archive_" + repositoryName + "_1_"), EasyMock.<Lifetime>anyObject()))
+        .andReturn(new File(archiveTempDir));
+    // "new" was created after revision 1, so hg finds nothing to archive.
+    List<String> archiveArgs =
+        ImmutableList.of("archive", "--rev=1", "--include=path:new", archiveTempDir);
+    expect(cmd.runCommand("hg", archiveArgs, localCloneTempDir))
+        .andThrow(new CommandException("hg", archiveArgs, "",
+            "abort: no files match the archive pattern\n", 255));
+    mockFS.makeDirs(new File(archiveTempDir));
+
+    control.replay();
+    HgClonedRepository repo = new HgClonedRepository(repositoryName, repositoryConfig);
+    repo.cloneLocallyAtHead(Lifetimes.persistent());
+    AppContext.RUN.ui.pushTask("archive", "Archive");
+    assertEquals(new File(archiveTempDir), repo.archiveAtRevision("1"));
+    control.verify();
+  }
+
+  public void testIsPortableToHg() {
+    assertTrue(HgClonedRepository.isPortableToHg("^java/.*\\.txt$"));
+    assertTrue(HgClonedRepository.isPortableToHg("(?:a|b)[^]x\\d-]+?\\bc{2,3}"));
+    assertTrue(HgClonedRepository.isPortableToHg("(?<!x)y(?=z)"));
+    assertFalse(HgClonedRepository.isPortableToHg("(?<name>a)"));
+    assertFalse(HgClonedRepository.isPortableToHg("(?i)a"));
+    assertFalse(HgClonedRepository.isPortableToHg("a*+"));
+    assertFalse(HgClonedRepository.isPortableToHg("a{2}+"));
+    assertFalse(HgClonedRepository.isPortableToHg("\\p{Alpha}"));
+    assertFalse(HgClonedRepository.isPortableToHg("\\Qa.b\\E"));
+    assertFalse(HgClonedRepository.isPortableToHg("[a-z&&[^q]]"));
+    assertFalse(HgClonedRepository.isPortableToHg("[a[b]]"));
+    assertFalse(HgClonedRepository.isPortableToHg("a\\"));
+  }
 }
@@ -0,0 +1,126 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.dvcs.hg;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.devtools.moe.client.testing.AppContextForTesting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link HgCommandServer}'s side of the command server protocol, against canned
+ * server output.
+ */
+public class HgCommandServerTest extends TestCase {
+
+  private static final String HELLO = "capabilities: getencoding runcommand\nencoding: UTF-8";
+
+  private final ByteArrayOutputStream serverOutput = new ByteArrayOutputStream();
+  private final DataOutputStream frames = new DataOutputStream(serverOutput);
+  private final ByteArrayOutputStream serverInput = new ByteArrayOutputStream();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    AppContextForTesting.initForTest();
+    frame('o', HELLO);
+  }
+
+  private void frame(char channel, String data) throws IOException {
+    byte[] bytes = data.getBytes("UTF-8");
+    frames.writeByte(channel);
+    frames.writeInt(bytes.length);
+    frames.write(bytes);
+  }
+
+  private void result(int returnStatus) throws IOException {
+    frames.writeByte('r');
+    frames.writeInt(4);
+    frames.writeInt(returnStatus);
+  }
+
+  private HgCommandServer connect() throws IOException {
+    return new HgCommandServer(
+        new ByteArrayInputStream(serverOutput.toByteArray()), serverInput);
+  }
+
+  public void testRunCommand() throws Exception {
+    frame('o', "M foo\n");
+    frame('d', "debug output is ignored");
+    frame('o', "A bar\n");
+    result(0);
+
+    HgCommandServer server = connect();
+    assertEquals("M foo\nA bar\n", server.runCommand(ImmutableList.of("status")));
+
+    DataInputStream request =
+        new DataInputStream(new ByteArrayInputStream(serverInput.toByteArray()));
+    byte[] command = new byte["runcommand\n".length()];
+    request.readFully(command);
+    assertEquals("runcommand\n", new String(command, "US-ASCII"));
+    byte[] args = new byte[request.readInt()];
+    request.readFully(args);
+    assertEquals("status", new String(args, "UTF-8"));
+  }
+
+  public void testArgumentsAreNulSeparated() throws Exception {
+    result(0);
+
+    HgCommandServer server = connect();
+    server.runCommand(ImmutableList.of("commit", "--message", "multi\nline"));
+
+    DataInputStream request =
+        new DataInputStream(new ByteArrayInputStream(serverInput.toByteArray()));
+    request.readFully(new byte["runcommand\n".length()]);
+    byte[] args = new byte[request.readInt()];
+    request.readFully(args);
+    assertEquals("commit\0--message\0multi\nline", new String(args, "UTF-8"));
+  }
+
+  public void testNonZeroExit() throws Exception {
+    frame('o', "partial");
+    frame('e', "abort: no repository found\n");
+    result(255);
+
+    HgCommandServer server = connect();
+    try {
+      server.runCommand(ImmutableList.of("log"));
+      fail("Non-zero return code didn't raise CommandException.");
+    } catch (CommandException expected) {
+      assertEquals(255, expected.returnStatus);
+      assertEquals("partial", expected.stdout);
+      assertEquals("abort: no repository found\n", expected.stderr);
+      assertEquals(ImmutableList.of("log"), expected.args);
+    }
+  }
+
+  public void testInputRequestGetsEndOfFile() throws Exception {
+    frames.writeByte('L');
+    frames.writeInt(4096);
+    result(0);
+
+    HgCommandServer server = connect();
+    server.runCommand(ImmutableList.of("push"));
+
+    byte[] sent = serverInput.toByteArray();
+    DataInputStream tail =
+        new DataInputStream(new ByteArrayInputStream(sent, sent.length - 4, 4));
+    assertEquals(0, tail.readInt());
+  }
+
+  public void testHelloWithoutRunCommand() throws Exception {
+    serverOutput.reset();
+    frame('o', "capabilities: getencoding\nencoding: UTF-8");
+    try {
+      connect();
+      fail("Connected to a server that can't run commands.");
+    } catch (IOException expected) {}
+  }
+}
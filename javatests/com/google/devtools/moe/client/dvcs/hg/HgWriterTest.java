@@ -71,6 +71,7 @@ public class HgWriterTest extends TestCase {
     expect(mockRevClone.getConfig()).andReturn(mockRepoConfig).anyTimes();
     expect(mockRepoConfig.getIgnoreFileRes()).andReturn(ImmutableList.<String>of()).anyTimes();
     expect(mockRepoConfig.getProjectSpace()).andReturn(PROJECT_SPACE).anyTimes();
+    expect(mockRepoConfig.getPaths()).andReturn(ImmutableList.<String>of()).anyTimes();
   }
 
   public void testPutCodebase_emptyCodebase() throws Exception {
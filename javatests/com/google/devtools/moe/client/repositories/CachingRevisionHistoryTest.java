@@ -0,0 +1,108 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.repositories;
+
+import static org.easymock.EasyMock.expect;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link CachingRevisionHistory} and the {@link RevisionMetadataCache} it reads.
+ */
+public class CachingRevisionHistoryTest extends TestCase {
+
+  private static final String REPO = "mockrepo";
+
+  private final IMocksControl control = EasyMock.createControl();
+  private final AbstractRevisionHistory delegate =
+      control.createMock(AbstractRevisionHistory.class);
+  private File cacheFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cacheFile = new File(Files.createTempDir(), REPO + ".revisions");
+  }
+
+  private static RevisionMetadata metadata(String id, String... parentIds) {
+    ImmutableList.Builder<Revision> parents = ImmutableList.builder();
+    for (String parentId : parentIds) {
+      parents.add(new Revision(parentId, REPO));
+    }
+    return new RevisionMetadata(id, "author", "date", "description\nof " + id, parents.build(),
+        "Author <author@example.com>", new Date(1000L));
+  }
+
+  private CachingRevisionHistory newHistory() {
+    return new CachingRevisionHistory(delegate, new RevisionMetadataCache(REPO, cacheFile));
+  }
+
+  public void testGetMetadata_readsThroughOnce() {
+    Revision rev = new Revision("2", REPO);
+    expect(delegate.getMetadata(rev)).andReturn(metadata("2", "1"));
+
+    control.replay();
+    CachingRevisionHistory history = newHistory();
+    assertEquals(metadata("2", "1"), history.getMetadata(rev));
+    assertEquals(metadata("2", "1"), history.getMetadata(rev));
+    control.verify();
+  }
+
+  public void testGetMetadata_persistsAcrossRuns() {
+    Revision rev = new Revision("2", REPO);
+    expect(delegate.getMetadata(rev)).andReturn(
+        new RevisionMetadata("2", "author", "date", "desc", ImmutableList.<Revision>of()));
+
+    control.replay();
+    newHistory().getMetadata(rev);
+    int hits = RevisionMetadataCache.getHits();
+    // A new cache on the same file answers without the delegate.
+    assertEquals(
+        new RevisionMetadata("2", "author", "date", "desc", ImmutableList.<Revision>of()),
+        newHistory().getMetadata(rev));
+    assertEquals(hits + 1, RevisionMetadataCache.getHits());
+    control.verify();
+  }
+
+  public void testGetAncestorMetadata_servesCachedAncestors() {
+    Revision rev = new Revision("3", REPO);
+    expect(delegate.getAncestorMetadata(rev, 10)).andReturn(ImmutableList.of(
+        metadata("3", "2"), metadata("2", "1"), metadata("1")));
+
+    control.replay();
+    newHistory().getAncestorMetadata(rev, 10);
+    assertEquals(ImmutableList.of(metadata("3", "2"), metadata("2", "1")),
+        newHistory().getAncestorMetadata(rev, 2));
+    control.verify();
+  }
+
+  public void testLoad_dropsTruncatedRecord() throws Exception {
+    expect(delegate.getMetadata(new Revision("1", REPO))).andReturn(metadata("1"));
+    expect(delegate.getMetadata(new Revision("2", REPO))).andReturn(metadata("2", "1"));
+    expect(delegate.getMetadata(new Revision("2", REPO))).andReturn(metadata("2", "1"));
+
+    control.replay();
+    CachingRevisionHistory history = newHistory();
+    history.getMetadata(new Revision("1", REPO));
+    history.getMetadata(new Revision("2", REPO));
+
+    RandomAccessFile file = new RandomAccessFile(cacheFile, "rw");
+    file.setLength(file.length() - 3);
+    file.close();
+
+    history = newHistory();
+    assertEquals(metadata("1"), history.getMetadata(new Revision("1", REPO)));
+    assertEquals(metadata("2", "1"), history.getMetadata(new Revision("2", REPO)));
+    control.verify();
+  }
+}
@@ -6,10 +6,11 @@ import static org.easymock.EasyMock.expect;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.CommandRunner;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.codebase.CodebaseCreator;
 import com.google.devtools.moe.client.project.RepositoryConfig;
@@ -20,6 +21,7 @@ import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 
 import java.io.File;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -43,6 +45,7 @@ public class SvnCodebaseCreatorTest extends TestCase {
     expect(mockConfig.getUrl()).andReturn("http://foo/svn/trunk/").anyTimes();
     expect(mockConfig.getProjectSpace()).andReturn("internal").anyTimes();
     expect(mockConfig.getIgnoreFileRes()).andReturn(ImmutableList.<String>of()).anyTimes();
+    expect(mockConfig.getPaths()).andReturn(ImmutableList.<String>of()).anyTimes();
 
     expect(revisionHistory.findHighestRevision("46")).andReturn(result);
     expect(fileSystem.getTemporaryDirectory("svn_export_testing_45_")).
@@ -51,9 +54,6 @@ public class SvnCodebaseCreatorTest extends TestCase {
         "svn",
         ImmutableList.of("--no-auth-cache", "export", "http://foo/svn/trunk/", "-r", "45",
                          "/dummy/path/45"), "")).andReturn("");
-    // Short-circuit Utils.filterFiles for ignore_files_re.
-    expect(AppContext.RUN.fileSystem.findFiles(new File("/dummy/path/45")))
-        .andReturn(ImmutableSet.<File>of());
 
     control.replay();
     CodebaseCreator cc = new SvnCodebaseCreator("testing", mockConfig, revisionHistory);
@@ -62,4 +62,108 @@ public class SvnCodebaseCreatorTest extends TestCase {
     assertEquals("internal", r.getProjectSpace());
     control.verify();
   }
+
+  public void testExportPaths() throws Exception {
+    AppContextForTesting.initForTest();
+    IMocksControl control = EasyMock.createControl();
+    SvnRevisionHistory revisionHistory = control.createMock(SvnRevisionHistory.class);
+    FileSystem fileSystem = control.createMock(FileSystem.class);
+    CommandRunner cmd = control.createMock(CommandRunner.class);
+    AppContext.RUN.cmd = cmd;
+    AppContext.RUN.fileSystem = fileSystem;
+
+    RepositoryConfig mockConfig = control.createMock(RepositoryConfig.class);
+    expect(mockConfig.getUrl()).andReturn("http://foo/svn/trunk").anyTimes();
+    expect(mockConfig.getProjectSpace()).andReturn("internal").anyTimes();
+    expect(mockConfig.getIgnoreFileRes()).andReturn(ImmutableList.<String>of()).anyTimes();
+    expect(mockConfig.getPaths()).andReturn(ImmutableList.of("java/open", "README")).anyTimes();
+
+    expect(revisionHistory.findHighestRevision("45")).andReturn(new Revision("45", ""));
+    expect(fileSystem.getTemporaryDirectory("svn_export_testing_45_")).
+        andReturn(new File("/dummy/path/45"));
+    // Each path is exported on its own, to the same place in the codebase.
+    fileSystem.makeDirsForFile(new File("/dummy/path/45/java/open"));
+    expect(cmd.runCommand(
+        "svn",
+        ImmutableList.of("--no-auth-cache", "export", "http://foo/svn/trunk/java/open", "-r",
+                         "45", "/dummy/path/45/java/open"), "")).andReturn("");
+    fileSystem.makeDirsForFile(new File("/dummy/path/45/README"));
+    expect(cmd.runCommand(
+        "svn",
+        ImmutableList.of("--no-auth-cache", "export", "http://foo/svn/trunk/README", "-r", "45",
+                         "/dummy/path/45/README"), "")).andReturn("");
+
+    control.replay();
+    CodebaseCreator cc = new SvnCodebaseCreator("testing", mockConfig, revisionHistory);
+    cc.create(ImmutableMap.of("revision", "45"));
+    control.verify();
+  }
+
+  public void testExportPaths_missingAtRevision() throws Exception {
+    AppContextForTesting.initForTest();
+    IMocksControl control = EasyMock.createControl();
+    SvnRevisionHistory revisionHistory = control.createMock(SvnRevisionHistory.class);
+    FileSystem fileSystem = control.createMock(FileSystem.class);
+    CommandRunner cmd = control.createMock(CommandRunner.class);
+    AppContext.RUN.cmd = cmd;
+    AppContext.RUN.fileSystem = fileSystem;
+
+    RepositoryConfig mockConfig = control.createMock(RepositoryConfig.class);
+    expect(mockConfig.getUrl()).andReturn("http://foo/svn/trunk").anyTimes();
+    expect(mockConfig.getProjectSpace()).andReturn("internal").anyTimes();
+    expect(mockConfig.getIgnoreFileRes()).andReturn(ImmutableList.<String>of()).anyTimes();
+    expect(mockConfig.getPaths()).andReturn(ImmutableList.of("new", "README")).anyTimes();
+
+    expect(revisionHistory.findHighestRevision("45")).andReturn(new Revision("45", ""));
+    expect(fileSystem.getTemporaryDirectory("svn_export_testing_45_")).
+        andReturn(new File("/dummy/path/45"));
+    // "new" was created after revision 45, so it is left out of the codebase.
+    fileSystem.makeDirsForFile(new File("/dummy/path/45/new"));
+    List<String> newArgs = ImmutableList.of("--no-auth-cache", "export",
+        "http://foo/svn/trunk/new", "-r", "45", "/dummy/path/45/new");
+    expect(cmd.runCommand("svn", newArgs, "")).andThrow(new CommandException("svn", newArgs, "",
+        "svn: E170000: URL 'http://foo/svn/trunk/new' doesn't exist\n", 1));
+    fileSystem.makeDirsForFile(new File("/dummy/path/45/README"));
+    expect(cmd.runCommand(
+        "svn",
+        ImmutableList.of("--no-auth-cache", "export", "http://foo/svn/trunk/README", "-r", "45",
+                         "/dummy/path/45/README"), "")).andReturn("");
+
+    control.replay();
+    CodebaseCreator cc = new SvnCodebaseCreator("testing", mockConfig, revisionHistory);
+    assertEquals("/dummy/path/45",
+        cc.create(ImmutableMap.of("revision", "45")).getPath().getAbsolutePath());
+    control.verify();
+  }
+
+  public void testExportPaths_otherFailure() throws Exception {
+    AppContextForTesting.initForTest();
+    IMocksControl control = EasyMock.createControl();
+    SvnRevisionHistory revisionHistory = control.createMock(SvnRevisionHistory.class);
+    FileSystem fileSystem = control.createMock(FileSystem.class);
+    CommandRunner cmd = control.createMock(CommandRunner.class);
+    AppContext.RUN.cmd = cmd;
+    AppContext.RUN.fileSystem = fileSystem;
+
+    RepositoryConfig mockConfig = control.createMock(RepositoryConfig.class);
+    expect(mockConfig.getUrl()).andReturn("http://foo/svn/trunk").anyTimes();
+    expect(mockConfig.getPaths()).andReturn(ImmutableList.of("README")).anyTimes();
+
+    expect(revisionHistory.findHighestRevision("45")).andReturn(new Revision("45", ""));
+    expect(fileSystem.getTemporaryDirectory("svn_export_testing_45_")).
+        andReturn(new File("/dummy/path/45"));
+    fileSystem.makeDirsForFile(new File("/dummy/path/45/README"));
+    List<String> args = ImmutableList.of("--no-auth-cache", "export",
+        "http://foo/svn/trunk/README", "-r", "45", "/dummy/path/45/README");
+    expect(cmd.runCommand("svn", args, "")).andThrow(new CommandException("svn", args, "",
+        "svn: E175002: Unable to connect to a repository\n", 1));
+
+    control.replay();
+    CodebaseCreator cc = new SvnCodebaseCreator("testing", mockConfig, revisionHistory);
+    try {
+      cc.create(ImmutableMap.of("revision", "45"));
+      fail("Exported despite svn failing");
+    } catch (MoeProblem expected) {}
+    control.verify();
+  }
 }
@@ -18,14 +18,12 @@ import com.google.devtools.moe.client.testing.AppContextForTesting;
 import com.google.devtools.moe.client.testing.DummyDb;
 
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.easymock.IMocksControl;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
+import java.io.ByteArrayInputStream;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import junit.framework.TestCase;
 
 /**
@@ -34,6 +32,30 @@ import junit.framework.TestCase;
  */
 public class SvnRevisionHistoryTest extends TestCase {
 
+  /**
+   * Expects a streamed 'svn log --xml' over the given range, and answers it by passing the given
+   * output to the output handler.
+   */
+  private static void expectStreamingLog(CommandRunner cmd, String range, String log)
+      throws CommandException {
+    final byte[] output = log.getBytes();
+    expect(cmd.runCommandStreaming(
+        EasyMock.eq("svn"),
+        EasyMock.eq(ImmutableList.of("--no-auth-cache", "log", "--xml", "-l", "51", "-r", range,
+                                     "http://foo/svn/trunk/")),
+        EasyMock.eq(""),
+        EasyMock.<CommandRunner.OutputHandler<List<RevisionMetadata>>>anyObject()))
+        .andAnswer(new IAnswer<List<RevisionMetadata>>() {
+          @SuppressWarnings("unchecked")
+          @Override public List<RevisionMetadata> answer() throws Throwable {
+            CommandRunner.OutputHandler<List<RevisionMetadata>> handler =
+                (CommandRunner.OutputHandler<List<RevisionMetadata>>)
+                    EasyMock.getCurrentArguments()[3];
+            return handler.handleOutput(new ByteArrayInputStream(output));
+          }
+        });
+  }
+
   public void testParseRevisions() {
     List<Revision> rs = SvnRevisionHistory.parseRevisions(
         "<log><logentry revision=\"1\"/></log>",
@@ -94,6 +116,37 @@ public class SvnRevisionHistoryTest extends TestCase {
     assertEquals(ImmutableList.of(), rs.get(1).parents);
   }
 
+  public void testParseMetadata_fromStream() throws Exception {
+    SvnRevisionHistory history = new SvnRevisionHistory("internal_svn",
+        "http://foo/svn/trunk/");
+    String log = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+        "<log><logentry revision=\"3\"><author>uid@google.com</author>" +
+        "<date>yyyy-mm-dd</date><msg>multi\nline &amp; escaped</msg></logentry>" +
+        "<logentry revision=\"2\"><date>zzzz-nn-ee</date></logentry></log>";
+    List<RevisionMetadata> rs =
+        history.parseMetadata(new ByteArrayInputStream(log.getBytes("UTF-8")));
+    assertEquals(2, rs.size());
+    assertEquals("3", rs.get(0).id);
+    assertEquals("uid@google.com", rs.get(0).author);
+    assertEquals("multi\nline & escaped", rs.get(0).description);
+    assertEquals(ImmutableList.of(new Revision("2", "internal_svn")), rs.get(0).parents);
+    assertEquals("2", rs.get(1).id);
+    assertEquals("None", rs.get(1).author);
+    assertEquals("zzzz-nn-ee", rs.get(1).date);
+    assertEquals(ImmutableList.of(), rs.get(1).parents);
+  }
+
+  public void testParseMetadata_skipsOtherElements() {
+    SvnRevisionHistory history = new SvnRevisionHistory("internal_svn",
+        "http://foo/svn/trunk/");
+    List<RevisionMetadata> rs = history.parseMetadata(
+        "<log><logentry revision=\"7\"><author>user</author><text/>" +
+        "<paths><path action=\"M\">/trunk/Foo.java</path></paths>" +
+        "<date>yyyy-mm-dd</date><msg>description</msg></logentry></log>");
+    assertEquals(ImmutableList.of(new RevisionMetadata("7", "user", "yyyy-mm-dd", "description",
+        ImmutableList.<Revision>of())), rs);
+  }
+
   public void testGetMetadata() {
     AppContextForTesting.initForTest();
     IMocksControl control = EasyMock.createControl();
@@ -128,53 +181,47 @@ public class SvnRevisionHistoryTest extends TestCase {
     control.verify();
   }
 
-  /**
-   * Tests parsing of this SVN log entry:
-   *
-   * {@code
-   * <logentry>
-   *   <author>user</author>
-   *   <text/>
-   *   <date>yyyy-mm-dd</date>
-   *   <msg>description</msg>
-   * </logentry>
-   * }
-   */
-  public void testParseMetadataNodeList() throws Exception {
-    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-
-    Element logEntry = doc.createElement("logentry");
-    doc.appendChild(logEntry);
-
-    Element author = doc.createElement("author");
-    author.appendChild(doc.createTextNode("user"));
-    logEntry.appendChild(author);
-
-    // The XML parser often throws in random child nodes like this.
-    logEntry.appendChild(doc.createElement("text"));
-
-    Element date = doc.createElement("date");
-    date.appendChild(doc.createTextNode("yyyy-mm-dd"));
-    logEntry.appendChild(date);
-
-    Element msg = doc.createElement("msg");
-    msg.appendChild(doc.createTextNode("description"));
-    logEntry.appendChild(msg);
-
-    SvnRevisionHistory history = new SvnRevisionHistory("internal_svn", "http://foo/svn/trunk/");
+  public void testGetAncestorMetadata() throws Exception {
+    AppContextForTesting.initForTest();
+    IMocksControl control = EasyMock.createControl();
+    CommandRunner cmd = control.createMock(CommandRunner.class);
+    AppContext.RUN.cmd = cmd;
 
-    RevisionMetadata result = history.parseMetadataNodeList(
-        "7",
-        doc.getElementsByTagName("logentry").item(0).getChildNodes(),
-        ImmutableList.of(new Revision("6", "internal")));
+    expect(cmd.runCommandStreaming(
+        EasyMock.eq("svn"),
+        EasyMock.eq(ImmutableList.of("--no-auth-cache", "log", "--xml", "-l", "3", "-r", "9:1",
+                                     "http://foo/svn/trunk/")),
+        EasyMock.eq(""),
+        EasyMock.<CommandRunner.OutputHandler<List<RevisionMetadata>>>anyObject()))
+        .andAnswer(new IAnswer<List<RevisionMetadata>>() {
+          @SuppressWarnings("unchecked")
+          @Override public List<RevisionMetadata> answer() throws Throwable {
+            CommandRunner.OutputHandler<List<RevisionMetadata>> handler =
+                (CommandRunner.OutputHandler<List<RevisionMetadata>>)
+                    EasyMock.getCurrentArguments()[3];
+            return handler.handleOutput(new ByteArrayInputStream((
+                "<log><logentry revision=\"9\"><msg>nine</msg></logentry>" +
+                "<logentry revision=\"7\"><msg>seven</msg></logentry>" +
+                "<logentry revision=\"4\"><msg>four</msg></logentry></log>").getBytes()));
+          }
+        });
 
-    RevisionMetadata expected = new RevisionMetadata("7", "user", "yyyy-mm-dd", "description",
-        ImmutableList.of(new Revision("6", "internal")));
+    control.replay();
+    SvnRevisionHistory history = new SvnRevisionHistory("internal_svn",
+        "http://foo/svn/trunk/");
+    List<RevisionMetadata> rs = history.getAncestorMetadata(new Revision("9", "internal_svn"), 2);
+    control.verify();
 
-    assertEquals(expected, result);
+    // The extra entry read gives the last returned revision its parent.
+    assertEquals(2, rs.size());
+    assertEquals("9", rs.get(0).id);
+    assertEquals(ImmutableList.of(new Revision("7", "internal_svn")), rs.get(0).parents);
+    assertEquals("7", rs.get(1).id);
+    assertEquals("seven", rs.get(1).description);
+    assertEquals(ImmutableList.of(new Revision("4", "internal_svn")), rs.get(1).parents);
   }
 
-  public void testFindNewRevisions() {
+  public void testFindNewRevisions() throws Exception {
     AppContextForTesting.initForTest();
     IMocksControl control = EasyMock.createControl();
     CommandRunner cmd = control.createMock(CommandRunner.class);
@@ -195,38 +242,15 @@ public class SvnRevisionHistoryTest extends TestCase {
       throw new RuntimeException(e);
     }
 
-    // revision 3 metadata
-    try {
-      expect(cmd.runCommand(
-          "svn",
-          ImmutableList.of("--no-auth-cache", "log", "--xml", "-l", "2", "-r", "3:1",
-                           "http://foo/svn/trunk/"),
-          "")).andReturn("<log><logentry revision=\"3\">" +
-                             "<author>uid@google.com</author>" +
-                             "<date>yyyy-mm-dd</date>" +
-                             "<msg>message</msg></logentry>" +
-                             "<logentry revision =\"2\">" +
-                             "<author>user@google.com</author>" +
-                             "<date>zzzz-nn-ee</date>" +
-                             "<msg>description</msg></logentry></log>");
-    } catch (CommandException e) {
-      throw new RuntimeException(e);
-    }
-
-
-    // revision 2 metadata
-    try {
-      expect(cmd.runCommand(
-          "svn",
-          ImmutableList.of("--no-auth-cache", "log", "--xml", "-l", "2", "-r", "2:1",
-                           "http://foo/svn/trunk/"),
-          "")).andReturn("<log><logentry revision=\"2\">" +
-                             "<author>uid@google.com</author>" +
-                             "<date>yyyy-mm-dd</date>" +
-                             "<msg>description</msg></logentry></log>");
-    } catch (CommandException e) {
-      throw new RuntimeException(e);
-    }
+    // metadata for revision 3 and its ancestors
+    expectStreamingLog(cmd, "3:1", "<log><logentry revision=\"3\">" +
+                                   "<author>uid@google.com</author>" +
+                                   "<date>yyyy-mm-dd</date>" +
+                                   "<msg>message</msg></logentry>" +
+                                   "<logentry revision =\"2\">" +
+                                   "<author>user@google.com</author>" +
+                                   "<date>zzzz-nn-ee</date>" +
+                                   "<msg>description</msg></logentry></log>");
 
     control.replay();
     SvnRevisionHistory history = new SvnRevisionHistory("internal_svn",
@@ -283,27 +307,19 @@ public class SvnRevisionHistoryTest extends TestCase {
     CommandRunner cmd = control.createMock(CommandRunner.class);
     AppContext.RUN.cmd = cmd;
 
-    expect(cmd.runCommand("svn", ImmutableList.of("--no-auth-cache", "log", "--xml", "-l", "2",
-        "-r", "4:1", "http://foo/svn/trunk/"), ""))
-        .andReturn("<log><logentry revision=\"4\">" +
-                   "<author>uid@google.com</author>" +
-                   "<date>yyyy-mm-dd</date>" +
-                   "<msg>message</msg></logentry>" +
-                   "<logentry revision =\"3\">" +
-                   "<author>user@google.com</author>" +
-                   "<date>zzzz-nn-ee</date>" +
-                   "<msg>description</msg></logentry></log>");
-
-    expect(cmd.runCommand("svn", ImmutableList.of("--no-auth-cache", "log", "--xml", "-l", "2",
-        "-r", "3:1", "http://foo/svn/trunk/"), ""))
-        .andReturn("<log><logentry revision=\"3\">" +
-                   "<author>uid@google.com</author>" +
-                   "<date>yyyy-mm-dd</date>" +
-                   "<msg>message</msg></logentry>" +
-                   "<logentry revision =\"2\">" +
-                   "<author>user@google.com</author>" +
-                   "<date>zzzz-nn-ee</date>" +
-                   "<msg>description</msg></logentry></log>");
+    // One log reads the whole history.
+    expectStreamingLog(cmd, "4:1", "<log><logentry revision=\"4\">" +
+                                   "<author>uid@google.com</author>" +
+                                   "<date>yyyy-mm-dd</date>" +
+                                   "<msg>message</msg></logentry>" +
+                                   "<logentry revision =\"3\">" +
+                                   "<author>user@google.com</author>" +
+                                   "<date>zzzz-nn-ee</date>" +
+                                   "<msg>description</msg></logentry>" +
+                                   "<logentry revision =\"2\">" +
+                                   "<author>user@google.com</author>" +
+                                   "<date>zzzz-nn-ee</date>" +
+                                   "<msg>description</msg></logentry></log>");
 
     control.replay();
 
@@ -362,23 +378,14 @@ public class SvnRevisionHistoryTest extends TestCase {
     CommandRunner cmd = control.createMock(CommandRunner.class);
     AppContext.RUN.cmd = cmd;
 
-    expect(cmd.runCommand("svn", ImmutableList.of("--no-auth-cache", "log", "--xml", "-l", "2",
-        "-r", "2:1", "http://foo/svn/trunk/"), ""))
-        .andReturn("<log><logentry revision=\"2\">" +
-                   "<author>uid@google.com</author>" +
-                   "<date>yyyy-mm-dd</date>" +
-                   "<msg>message</msg></logentry>" +
-                   "<logentry revision =\"1\">" +
-                   "<author>user@google.com</author>" +
-                   "<date>zzzz-nn-ee</date>" +
-                   "<msg>description</msg></logentry></log>");
-
-    expect(cmd.runCommand("svn", ImmutableList.of("--no-auth-cache", "log", "--xml", "-l", "2",
-        "-r", "1:1", "http://foo/svn/trunk/"), ""))
-        .andReturn("<log><logentry revision=\"1\">" +
-                   "<author>uid@google.com</author>" +
-                   "<date>yyyy-mm-dd</date>" +
-                   "<msg>message</msg></logentry></log>");
+    expectStreamingLog(cmd, "2:1", "<log><logentry revision=\"2\">" +
+                                   "<author>uid@google.com</author>" +
+                                   "<date>yyyy-mm-dd</date>" +
+                                   "<msg>message</msg></logentry>" +
+                                   "<logentry revision =\"1\">" +
+                                   "<author>user@google.com</author>" +
+                                   "<date>zzzz-nn-ee</date>" +
+                                   "<msg>description</msg></logentry></log>");
 
     control.replay();
 
@@ -45,6 +45,7 @@ public class SvnWriterTest extends TestCase {
     expect(mockConfig.getUrl()).andReturn("http://foo/svn/trunk/").anyTimes();
     expect(mockConfig.getProjectSpace()).andReturn("public").anyTimes();
     expect(mockConfig.getIgnoreFileRes()).andReturn(ImmutableList.<String>of()).anyTimes();
+    expect(mockConfig.getPaths()).andReturn(ImmutableList.<String>of()).anyTimes();
 
     fileSystem = control.createMock(FileSystem.class);
     cmd = control.createMock(CommandRunner.class);
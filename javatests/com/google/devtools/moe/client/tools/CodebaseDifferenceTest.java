@@ -4,7 +4,9 @@ package com.google.devtools.moe.client.tools;
 
 import static org.easymock.EasyMock.expect;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.tools.FileDifference.Comparison;
 
@@ -12,6 +14,10 @@ import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import junit.framework.TestCase;
 
@@ -66,4 +72,109 @@ public class CodebaseDifferenceTest extends TestCase {
     assertEquals(true, d.areDifferent());
   }
 
+  private static Codebase codebaseWithFiles(String path, final Set<String> filenames) {
+    return new Codebase(new File(path), "public", null) {
+      @Override
+      public Set<String> getRelativeFilenames() {
+        return filenames;
+      }
+    };
+  }
+
+  public void testParallelMatchesSequential() throws Exception {
+    ImmutableSet.Builder<String> filenames1 = ImmutableSet.builder();
+    ImmutableSet.Builder<String> filenames2 = ImmutableSet.builder();
+    for (int i = 0; i < 1000; i++) {
+      filenames1.add("file" + i);
+      filenames2.add("file" + (i + 500));
+    }
+    Codebase c1 = codebaseWithFiles("/1", filenames1.build());
+    Codebase c2 = codebaseWithFiles("/2", filenames2.build());
+    // Files numbered 0-499 are only in c1, 1000-1499 only in c2; of the rest, every third
+    // differs in content.
+    FileDifference.FileDiffer differ = new FileDifference.FileDiffer() {
+      @Override
+      public FileDifference diffFiles(String filename, File file1, File file2) {
+        int i = Integer.parseInt(filename.substring("file".length()));
+        Comparison existence =
+            (i < 500) ? Comparison.ONLY1 : (i >= 1000) ? Comparison.ONLY2 : Comparison.SAME;
+        String contentDiff = (i % 3 == 0) ? "diff of " + filename : null;
+        return new FileDifference(filename, file1, file2, existence, Comparison.SAME, contentDiff);
+      }
+    };
+
+    CodebaseDifference sequential = CodebaseDifference.diffCodebases(c1, c2, differ);
+    CodebaseDifference parallel =
+        CodebaseDifference.diffCodebases(c1, c2, differ, new ForkJoinPool(4));
+
+    assertEquals(1000 + 500 / 3 + 1, sequential.fileDiffs.size());
+    assertEquals(describe(sequential), describe(parallel));
+  }
+
+  public void testDiffCodebases_concreteDifferIsSequential() throws Exception {
+    ImmutableSet.Builder<String> filenames = ImmutableSet.builder();
+    for (int i = 0; i < 100; i++) {
+      filenames.add("file" + i);
+    }
+    Codebase c1 = codebaseWithFiles("/1", filenames.build());
+    Codebase c2 = codebaseWithFiles("/2", filenames.build());
+    final Set<Thread> threads = Collections.synchronizedSet(Sets.<Thread>newHashSet());
+    FileDifference.FileDiffer concreteFileDiffer = FileDifference.CONCRETE_FILE_DIFFER;
+    FileDifference.CONCRETE_FILE_DIFFER = new FileDifference.FileDiffer() {
+      @Override
+      public FileDifference diffFiles(String filename, File file1, File file2) {
+        threads.add(Thread.currentThread());
+        return new FileDifference(filename, file1, file2, Comparison.SAME, Comparison.SAME, null);
+      }
+    };
+    System.setProperty(CodebaseDifference.PARALLELISM_PROPERTY, "4");
+    try {
+      assertFalse(CodebaseDifference.diffCodebases(c1, c2).areDifferent());
+    } finally {
+      System.clearProperty(CodebaseDifference.PARALLELISM_PROPERTY);
+      FileDifference.CONCRETE_FILE_DIFFER = concreteFileDiffer;
+    }
+    assertEquals(ImmutableSet.of(Thread.currentThread()), threads);
+  }
+
+  public void testVisitDifferences() throws Exception {
+    IMocksControl control = EasyMock.createControl();
+    Codebase c1 = control.createMock(Codebase.class);
+    Codebase c2 = control.createMock(Codebase.class);
+    FileDifference.FileDiffer differ = control.createMock(FileDifference.FileDiffer.class);
+    CodebaseDifference.FileDifferenceVisitor visitor =
+        control.createMock(CodebaseDifference.FileDifferenceVisitor.class);
+    File f1 = new File("/1/foo");
+    File f2 = new File("/2/foo");
+    File g1 = new File("/1/bar");
+    File g2 = new File("/2/bar");
+    FileDifference fooDiff =
+        new FileDifference("foo", f1, f2, Comparison.SAME, Comparison.SAME, "> foo");
+
+    expect(c1.getRelativeFilenames()).andReturn(ImmutableSet.of("foo", "bar"));
+    expect(c2.getRelativeFilenames()).andReturn(ImmutableSet.of("foo", "bar"));
+    expect(c1.getFile("foo")).andReturn(f1);
+    expect(c2.getFile("foo")).andReturn(f2);
+    expect(differ.diffFiles("foo", f1, f2)).andReturn(fooDiff);
+    // Each difference is visited before the next file is diffed.
+    visitor.visit(fooDiff);
+    expect(c1.getFile("bar")).andReturn(g1);
+    expect(c2.getFile("bar")).andReturn(g2);
+    expect(differ.diffFiles("bar", g1, g2)).andReturn(
+        new FileDifference("bar", g1, g2, Comparison.SAME, Comparison.SAME, null));
+
+    control.checkOrder(true);
+    control.replay();
+    assertTrue(CodebaseDifference.visitDifferences(c1, c2, differ, visitor));
+    control.verify();
+  }
+
+  private static List<String> describe(CodebaseDifference d) {
+    ImmutableList.Builder<String> descriptions = ImmutableList.builder();
+    for (FileDifference fileDiff : d.fileDiffs) {
+      descriptions.add(fileDiff.relativeFilename + " " + fileDiff.existence + " "
+          + fileDiff.getContentDiff());
+    }
+    return descriptions.build();
+  }
 }
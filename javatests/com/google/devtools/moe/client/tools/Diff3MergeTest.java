@@ -0,0 +1,110 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.tools;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link Diff3Merge}.
+ */
+public class Diff3MergeTest extends TestCase {
+
+  private static List<String> lines(String... lines) {
+    ImmutableList.Builder<String> result = ImmutableList.builder();
+    for (String line : lines) {
+      result.add(line + "\n");
+    }
+    return result.build();
+  }
+
+  private static String merge(List<String> target, List<String> orig, List<String> mod) {
+    return Joiner.on("").join(Diff3Merge.merge(target, orig, mod, "target", "mod").lines);
+  }
+
+  public void testChangesOnDifferentLines() {
+    assertEquals("A\nb\nc\nD\n", merge(
+        lines("A", "b", "c", "d"),
+        lines("a", "b", "c", "d"),
+        lines("a", "b", "c", "D")));
+  }
+
+  public void testInsertionAndDeletion() {
+    assertEquals("new\na\nc\n", merge(
+        lines("new", "a", "b", "c"),
+        lines("a", "b", "c"),
+        lines("a", "c")));
+  }
+
+  public void testIdenticalChanges() {
+    Diff3Merge.Result result = Diff3Merge.merge(
+        lines("a", "B", "c"), lines("a", "b", "c"), lines("a", "B", "c"), "target", "mod");
+    assertFalse(result.hasConflicts);
+    assertEquals(lines("a", "B", "c"), result.lines);
+  }
+
+  public void testConflict() {
+    Diff3Merge.Result result = Diff3Merge.merge(
+        lines("a", "T", "c", "d"), lines("a", "b", "c", "d"), lines("a", "M", "c", "D"),
+        "target", "mod");
+    assertTrue(result.hasConflicts);
+    assertEquals(
+        "a\n<<<<<<< target\nT\n=======\nM\n>>>>>>> mod\nc\nD\n",
+        Joiner.on("").join(result.lines));
+  }
+
+  public void testConflict_noNewlineAtEnd() {
+    assertEquals(
+        "<<<<<<< target\nt\n=======\nm\n>>>>>>> mod\n",
+        merge(ImmutableList.of("t"), ImmutableList.<String>of(), ImmutableList.of("m")));
+  }
+
+  public void testMergeFiles() throws Exception {
+    File dir = Files.createTempDir();
+    File target = new File(dir, "target");
+    File orig = new File(dir, "orig");
+    File mod = new File(dir, "mod");
+    Files.write("A\nb\nc\n", target, Charsets.UTF_8);
+    Files.write("a\nb\nc\n", orig, Charsets.UTF_8);
+    Files.write("a\nb\nC\n", mod, Charsets.UTF_8);
+
+    assertTrue(Diff3Merge.mergeFiles(target, orig, mod));
+    assertEquals("A\nb\nC\n", Files.toString(target, Charsets.UTF_8));
+  }
+
+  public void testMergeFiles_newOnBothSides() throws Exception {
+    File dir = Files.createTempDir();
+    File target = new File(dir, "target");
+    File mod = new File(dir, "mod");
+    Files.write("t\n", target, Charsets.UTF_8);
+    Files.write("m\n", mod, Charsets.UTF_8);
+
+    assertFalse(Diff3Merge.mergeFiles(target, new File("/dev/null"), mod));
+    assertEquals(String.format("<<<<<<< %s\nt\n=======\nm\n>>>>>>> %s\n",
+        target.getAbsolutePath(), mod.getAbsolutePath()),
+        Files.toString(target, Charsets.UTF_8));
+  }
+
+  public void testMergeFiles_binary() throws Exception {
+    File dir = Files.createTempDir();
+    File target = new File(dir, "target");
+    File orig = new File(dir, "orig");
+    File mod = new File(dir, "mod");
+    Files.write("a\0", target, Charsets.UTF_8);
+    Files.write("a\0", orig, Charsets.UTF_8);
+    Files.write("b\0", mod, Charsets.UTF_8);
+    assertTrue(Diff3Merge.mergeFiles(target, orig, mod));
+    assertEquals("b\0", Files.toString(target, Charsets.UTF_8));
+
+    Files.write("c\0", target, Charsets.UTF_8);
+    assertFalse(Diff3Merge.mergeFiles(target, orig, mod));
+    assertEquals("c\0", Files.toString(target, Charsets.UTF_8));
+  }
+}
@@ -4,17 +4,31 @@ package com.google.devtools.moe.client.tools;
 
 import static org.easymock.EasyMock.expect;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.devtools.moe.client.AppContext;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.testing.AppContextForTesting;
+import com.google.devtools.moe.client.testing.InMemoryFileSystem;
 import com.google.devtools.moe.client.tools.FileDifference.Comparison;
 
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 
 import java.io.File;
+import java.io.FilenameFilter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import junit.framework.TestCase;
 
@@ -46,7 +60,7 @@ public class FileDifferenceTest extends TestCase {
     control.verify();
     assertEquals(Comparison.ONLY1, d.existence);
     assertEquals(Comparison.SAME, d.executability);
-    assertEquals("foo", d.contentDiff);
+    assertEquals("foo", d.getContentDiff());
   }
 
   public void testExistence2() throws Exception {
@@ -73,7 +87,7 @@ public class FileDifferenceTest extends TestCase {
     control.verify();
     assertEquals(Comparison.ONLY2, d.existence);
     assertEquals(Comparison.SAME, d.executability);
-    assertEquals("foo", d.contentDiff);
+    assertEquals("foo", d.getContentDiff());
   }
 
   public void testExecutability() throws Exception {
@@ -99,7 +113,7 @@ public class FileDifferenceTest extends TestCase {
     control.verify();
     assertEquals(Comparison.SAME, d.existence);
     assertEquals(Comparison.ONLY1, d.executability);
-    assertEquals(null, d.contentDiff);
+    assertEquals(null, d.getContentDiff());
   }
 
   public void testExecutability2() throws Exception {
@@ -125,7 +139,7 @@ public class FileDifferenceTest extends TestCase {
     control.verify();
     assertEquals(Comparison.SAME, d.existence);
     assertEquals(Comparison.ONLY2, d.executability);
-    assertEquals(null, d.contentDiff);
+    assertEquals(null, d.getContentDiff());
   }
 
   public void testContents() throws Exception {
@@ -152,7 +166,7 @@ public class FileDifferenceTest extends TestCase {
     control.verify();
     assertEquals(Comparison.SAME, d.existence);
     assertEquals(Comparison.SAME, d.executability);
-    assertEquals("foo", d.contentDiff);
+    assertEquals("foo", d.getContentDiff());
   }
 
   public void testExecutabilityAndContents() throws Exception {
@@ -179,7 +193,7 @@ public class FileDifferenceTest extends TestCase {
     control.verify();
     assertEquals(Comparison.SAME, d.existence);
     assertEquals(Comparison.ONLY1, d.executability);
-    assertEquals("foo", d.contentDiff);
+    assertEquals("foo", d.getContentDiff());
   }
 
   public void testIdentical() throws Exception {
@@ -205,4 +219,89 @@ public class FileDifferenceTest extends TestCase {
     control.verify();
     assertFalse(d.isDifferent());
   }
+
+  public void testLazyContentDiff() throws Exception {
+    IMocksControl control = EasyMock.createControl();
+    FileDifference.ContentDiffer contentDiffer =
+        control.createMock(FileDifference.ContentDiffer.class);
+    File file1 = new File("/1/foo");
+    File file2 = new File("/2/foo");
+    expect(contentDiffer.diffContents(file1, file2)).andReturn("foo");
+
+    control.replay();
+    FileDifference d = new FileDifference(
+        "foo", file1, file2, Comparison.SAME, Comparison.SAME, true, contentDiffer);
+    assertTrue(d.isDifferent());
+    // The content diff is computed once, on first access.
+    assertEquals("foo", d.getContentDiff());
+    assertEquals("foo", d.getContentDiff());
+    control.verify();
+  }
+
+  public void testLargeContentDiffSpilled() throws Exception {
+    AppContextForTesting.initForTest();
+    InMemoryFileSystem fileSystem = new InMemoryFileSystem();
+    AppContext.RUN.fileSystem = fileSystem;
+    String large = Strings.repeat("> foo\n", FileDifference.SPILL_THRESHOLD);
+
+    Ui.Task task = AppContext.RUN.ui.pushTask("diff", "Diff");
+    FileDifference d = new FileDifference("foo", new File("/1/foo"), new File("/2/foo"),
+        Comparison.SAME, Comparison.SAME, large);
+    assertEquals(large, fileSystem.fileToString(new File("/tmp/moe_content_diff__0")));
+    assertEquals(large, d.getContentDiff());
+    StringWriter out = new StringWriter();
+    d.writeContentDiff(out);
+    assertEquals(large, out.toString());
+    AppContext.RUN.ui.popTask(task, "");
+  }
+
+  /**
+   * Spills large diffs from many threads at once, as parallel codebase diffs do, and checks that
+   * every spill is tracked, and so cleaned up with its task.
+   */
+  public void testLargeContentDiffsSpilledConcurrently() throws Exception {
+    AppContextForTesting.initForTest();
+    AppContext.RUN.fileSystem = new SystemFileSystem(AppContext.RUN.ui);
+    final String large = Strings.repeat("> foo\n", FileDifference.SPILL_THRESHOLD);
+    final List<FileDifference> differences = Collections.synchronizedList(
+        Lists.<FileDifference>newArrayList());
+
+    Set<File> oldSpills = listSpills();
+    Ui.Task task = AppContext.RUN.ui.pushTask("diff", "Diff");
+    ForkJoinPool pool = new ForkJoinPool(8);
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int i = 0; i < 64; i++) {
+      tasks.add(new Callable<Void>() {
+        @Override public Void call() {
+          differences.add(new FileDifference("foo", new File("/1/foo"), new File("/2/foo"),
+              Comparison.SAME, Comparison.SAME, large));
+          return null;
+        }
+      });
+    }
+    for (Future<Void> spill : pool.invokeAll(tasks)) {
+      spill.get();
+    }
+    pool.shutdown();
+
+    Set<File> spills = Sets.difference(listSpills(), oldSpills).immutableCopy();
+    assertEquals(64, spills.size());
+    assertEquals(64, differences.size());
+    for (FileDifference d : differences) {
+      assertEquals(large, d.getContentDiff());
+    }
+    AppContext.RUN.ui.popTask(task, "");
+    for (File spill : spills) {
+      assertFalse(spill + " was not cleaned up", spill.exists());
+    }
+  }
+
+  private static Set<File> listSpills() {
+    return Sets.newHashSet(new File(System.getProperty("java.io.tmpdir")).listFiles(
+        new FilenameFilter() {
+          @Override public boolean accept(File dir, String name) {
+            return name.startsWith("moe_content_diff_");
+          }
+        }));
+  }
 }
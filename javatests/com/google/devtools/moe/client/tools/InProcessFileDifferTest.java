@@ -0,0 +1,125 @@
+// Copyright 2012 The MOE Authors All Rights Reserved.
+
+package com.google.devtools.moe.client.tools;
+
+import static org.easymock.EasyMock.expect;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.AppContext;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.codebase.CodebaseManifest;
+import com.google.devtools.moe.client.testing.AppContextForTesting;
+import com.google.devtools.moe.client.tools.FileDifference.Comparison;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link InProcessFileDiffer}.
+ */
+public class InProcessFileDifferTest extends TestCase {
+
+  private final IMocksControl control = EasyMock.createControl();
+  private final FileSystem fileSystem = control.createMock(FileSystem.class);
+  private File dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    AppContextForTesting.initForTest();
+    AppContext.RUN.fileSystem = fileSystem;
+    dir = Files.createTempDir();
+  }
+
+  private File write(String name, String contents) throws Exception {
+    File file = new File(dir, name);
+    Files.createParentDirs(file);
+    Files.write(contents, file, Charsets.UTF_8);
+    return file;
+  }
+
+  private FileDifference diff(File file1, File file2) {
+    expect(fileSystem.exists(file1)).andReturn(file1.exists());
+    expect(fileSystem.exists(file2)).andReturn(file2.exists());
+    expect(fileSystem.isExecutable(file1)).andReturn(false);
+    expect(fileSystem.isExecutable(file2)).andReturn(false);
+    control.replay();
+    FileDifference d = FileDifference.IN_PROCESS_FILE_DIFFER.diffFiles("foo", file1, file2);
+    control.verify();
+    return d;
+  }
+
+  public void testSameContents() throws Exception {
+    FileDifference d = diff(write("1", "a\nb\n"), write("2", "a\nb\n"));
+    assertFalse(d.isDifferent());
+    assertNull(d.getContentDiff());
+  }
+
+  public void testChange() throws Exception {
+    FileDifference d = diff(write("1", "a\nb\nc\n"), write("2", "a\nB\nc\n"));
+    assertEquals(Comparison.SAME, d.existence);
+    assertEquals("2c2\n< b\n---\n> B\n", d.getContentDiff());
+  }
+
+  public void testOnlyInFirst() throws Exception {
+    FileDifference d = diff(write("1", "a\nb\n"), new File(dir, "2"));
+    assertEquals(Comparison.ONLY1, d.existence);
+    assertEquals("1,2d0\n< a\n< b\n", d.getContentDiff());
+  }
+
+  public void testOnlyInSecond() throws Exception {
+    FileDifference d = diff(new File(dir, "1"), write("2", "a\n"));
+    assertEquals(Comparison.ONLY2, d.existence);
+    assertEquals("0a1\n> a\n", d.getContentDiff());
+  }
+
+  public void testBinary() throws Exception {
+    File file1 = write("1", "a\0b");
+    File file2 = write("2", "a\0c");
+    FileDifference d = diff(file1, file2);
+    assertEquals(String.format("Binary files %s and %s differ\n",
+        file1.getAbsolutePath(), file2.getAbsolutePath()), d.getContentDiff());
+  }
+
+  public void testDiffFiles_fromManifests() throws Exception {
+    File dir1 = new File(dir, "c1");
+    File dir2 = new File(dir, "c2");
+    write("c1/foo", "a\n");
+    write("c2/foo", "b\n");
+    new File(dir2, "foo").setExecutable(true);
+    InProcessFileDiffer differ =
+        new InProcessFileDiffer(CodebaseManifest.scan(dir1), CodebaseManifest.scan(dir2));
+
+    // Nothing is asked of the FileSystem.
+    control.replay();
+    FileDifference d = differ.diffFiles("foo", new File(dir1, "foo"), new File(dir2, "foo"));
+    control.verify();
+    assertEquals(Comparison.SAME, d.existence);
+    assertEquals(Comparison.ONLY2, d.executability);
+    assertEquals("1c1\n< a\n---\n> b\n", d.getContentDiff());
+  }
+
+  public void testDiffLines_addAndDelete() {
+    assertEquals("0a1\n> z\n2d2\n< b\n4a5,6\n> e\n> f\n",
+        InProcessFileDiffer.diffLines(
+            ImmutableList.of("a\n", "b\n", "c\n", "d\n"),
+            ImmutableList.of("z\n", "a\n", "c\n", "d\n", "e\n", "f\n")));
+  }
+
+  public void testDiffLines_noNewlineAtEnd() {
+    assertEquals("2c2\n< b\n\\ No newline at end of file\n---\n> b\n",
+        InProcessFileDiffer.diffLines(
+            ImmutableList.of("a\n", "b"), ImmutableList.of("a\n", "b\n")));
+  }
+
+  public void testDiffLines_equal() {
+    assertNull(InProcessFileDiffer.diffLines(
+        ImmutableList.of("a\n", "b\n"), ImmutableList.of("a\n", "b\n")));
+  }
+}
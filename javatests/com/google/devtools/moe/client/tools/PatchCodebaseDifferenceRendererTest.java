@@ -7,6 +7,7 @@ import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.parser.RepositoryExpression;
 
 import java.io.File;
+import java.io.StringWriter;
 
 import junit.framework.TestCase;
 
@@ -56,4 +57,18 @@ public class PatchCodebaseDifferenceRendererTest extends TestCase {
                  ">>> c2/fuzzy\n> fuzzy\n",
                  (new PatchCodebaseDifferenceRenderer()).render(d));
   }
+
+  public void testRenderToWriter() throws Exception {
+    Codebase c1 = makeCodebase("c1");
+    Codebase c2 = makeCodebase("c2");
+    PatchCodebaseDifferenceRenderer renderer = new PatchCodebaseDifferenceRenderer();
+
+    StringWriter out = new StringWriter();
+    renderer.renderHeader(c1, c2, out);
+    renderer.renderFileDifference(c1, c2, new FileDifference(
+        "foo", new File("/c1/foo"), new File("/c2/foo"),
+        FileDifference.Comparison.SAME, FileDifference.Comparison.ONLY1, "> foo"), out);
+    assertEquals("diff c1 c2\ndiff --moe c1/foo c2/foo\n-mode:executable\n<<< c1/foo\n" +
+                 ">>> c2/foo\n> foo\n", out.toString());
+  }
 }